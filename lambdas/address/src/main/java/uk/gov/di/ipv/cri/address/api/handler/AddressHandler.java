@@ -4,17 +4,18 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.nimbusds.jose.JOSEException;
 import com.nimbusds.oauth2.sdk.OAuth2Error;
 import org.apache.logging.log4j.Level;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.http.HttpStatusCode;
 import software.amazon.lambda.powertools.logging.CorrelationIdPathConstants;
 import software.amazon.lambda.powertools.logging.Logging;
 import software.amazon.lambda.powertools.metrics.Metrics;
-import uk.gov.di.ipv.cri.address.library.exception.AddressProcessingException;
+import uk.gov.di.ipv.cri.address.library.exception.AddressValidationException;
 import uk.gov.di.ipv.cri.address.library.service.AddressService;
+import uk.gov.di.ipv.cri.address.library.service.VerifiableCredentialService;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
 import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
 import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
@@ -26,7 +27,6 @@ import uk.gov.di.ipv.cri.common.library.util.ApiGatewayResponseGenerator;
 import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
 import java.util.List;
-import java.util.UUID;
 
 import static uk.gov.di.ipv.cri.common.library.error.ErrorResponse.SESSION_EXPIRED;
 import static uk.gov.di.ipv.cri.common.library.error.ErrorResponse.SESSION_NOT_FOUND;
@@ -36,27 +36,41 @@ public class AddressHandler
 
     protected static final String SESSION_ID = "session_id";
     protected static final String LAMBDA_NAME = "address";
+    protected static final String CREDENTIAL_PREGENERATION_FAILED =
+            "address_credential_pregeneration_failed";
 
     private final AddressService addressService;
     private final SessionService sessionService;
+    // Only set when credentials are signed as the addresses are submitted
+    private final VerifiableCredentialService verifiableCredentialService;
     private final EventProbe eventProbe;
 
     @ExcludeFromGeneratedCoverageReport
     public AddressHandler() {
-        ObjectMapper objectMapper =
-                new ObjectMapper()
-                        .registerModule(new Jdk8Module())
-                        .registerModule(new JavaTimeModule());
         ConfigurationService configurationService = new ConfigurationService();
         this.sessionService = new SessionService();
-        this.addressService = new AddressService(configurationService, objectMapper);
+        this.addressService =
+                new AddressService(configurationService, JsonMappers.newObjectMapper());
+        this.verifiableCredentialService =
+                VerifiableCredentialService.isPregenerationEnabled()
+                        ? new VerifiableCredentialService()
+                        : null;
         this.eventProbe = new EventProbe();
     }
 
     public AddressHandler(
             SessionService sessionService, AddressService addressService, EventProbe eventProbe) {
+        this(sessionService, addressService, null, eventProbe);
+    }
+
+    public AddressHandler(
+            SessionService sessionService,
+            AddressService addressService,
+            VerifiableCredentialService verifiableCredentialService,
+            EventProbe eventProbe) {
         this.sessionService = sessionService;
         this.addressService = addressService;
+        this.verifiableCredentialService = verifiableCredentialService;
         this.eventProbe = eventProbe;
     }
 
@@ -74,12 +88,15 @@ public class AddressHandler
             if (!addresses.isEmpty()) {
                 SessionItem session = sessionService.validateSessionId(sessionId);
 
-                // Save our addresses to the address table
-                addressService.saveAddresses(UUID.fromString(sessionId), addresses);
-
-                // Now we've saved our address, we need to create an authorization code for the
-                // session
-                sessionService.createAuthorizationCode(session);
+                // Save our addresses and create the session's authorization code together, so
+                // neither is left behind if the other fails
+                if (verifiableCredentialService == null) {
+                    addressService.saveAddressesWithAuthorizationCode(session, addresses);
+                } else {
+                    // Signed only after new addresses are saved, never for a resubmission
+                    addressService.saveAddressesWithAuthorizationCode(
+                            session, addresses, () -> signCredential(session, addresses));
+                }
 
                 eventProbe.counterMetric(LAMBDA_NAME);
                 return ApiGatewayResponseGenerator.proxyJsonResponse(HttpStatusCode.NO_CONTENT, "");
@@ -102,10 +119,29 @@ public class AddressHandler
                     OAuth2Error.ACCESS_DENIED
                             .appendDescription(" - " + SESSION_EXPIRED.getErrorSummary())
                             .toJSONObject());
-        } catch (AddressProcessingException e) {
+        } catch (AddressValidationException e) {
+            eventProbe.log(Level.ERROR, e).counterMetric(LAMBDA_NAME, 0d);
+            return ApiGatewayResponseGenerator.proxyJsonResponse(
+                    OAuth2Error.INVALID_REQUEST.getHTTPStatusCode(),
+                    OAuth2Error.INVALID_REQUEST
+                            .appendDescription(" - " + e.getMessage())
+                            .toJSONObject());
+        } catch (SdkException e) {
             eventProbe.log(Level.ERROR, e).counterMetric(LAMBDA_NAME, 0d);
             return ApiGatewayResponseGenerator.proxyJsonResponse(
                     HttpStatusCode.INTERNAL_SERVER_ERROR, e.getMessage());
         }
     }
+
+    // Signs the credential ahead of issuance, leaving it to be signed then if this fails
+    private String signCredential(SessionItem session, List<CanonicalAddress> addresses) {
+        try {
+            return verifiableCredentialService
+                    .generateSignedVerifiableCredentialJwt(session.getSubject(), addresses)
+                    .serialize();
+        } catch (JOSEException | SdkException e) {
+            eventProbe.log(Level.WARN, e).counterMetric(CREDENTIAL_PREGENERATION_FAILED);
+            return null;
+        }
+    }
 }
@@ -2,16 +2,22 @@ package uk.gov.di.ipv.cri.address.api.handler;
 
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jwt.SignedJWT;
 import org.apache.logging.log4j.Level;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.http.HttpStatusCode;
 import uk.gov.di.ipv.cri.address.library.exception.AddressProcessingException;
+import uk.gov.di.ipv.cri.address.library.exception.AddressValidationException;
 import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
 import uk.gov.di.ipv.cri.address.library.service.AddressService;
+import uk.gov.di.ipv.cri.address.library.service.VerifiableCredentialService;
 import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
@@ -23,13 +29,16 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyDouble;
-import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
@@ -44,6 +53,8 @@ class AddressHandlerTest {
 
     @Mock private EventProbe eventProbe;
 
+    @Mock private VerifiableCredentialService mockVerifiableCredentialService;
+
     private AddressHandler addressHandler;
 
     @BeforeEach
@@ -95,16 +106,163 @@ class AddressHandlerTest {
 
         when(mockSessionService.validateSessionId(SESSION_ID)).thenReturn(sessionItem);
         when(mockAddressService.parseAddresses(anyString())).thenReturn(canonicalAddresses);
-        when(mockAddressService.saveAddresses(notNull(), anyList())).thenReturn(addressItem);
+        when(mockAddressService.saveAddressesWithAuthorizationCode(sessionItem, canonicalAddresses))
+                .thenReturn(addressItem);
 
         APIGatewayProxyResponseEvent responseEvent =
                 addressHandler.handleRequest(apiGatewayProxyRequestEvent, null);
         assertEquals(HttpStatusCode.NO_CONTENT, responseEvent.getStatusCode());
 
-        verify(mockSessionService).createAuthorizationCode(sessionItem);
+        verify(mockAddressService)
+                .saveAddressesWithAuthorizationCode(sessionItem, canonicalAddresses);
+        verify(mockSessionService, never()).createAuthorizationCode(any());
         verify(eventProbe).counterMetric("address");
     }
 
+    @Test
+    void ValidSaveStoresPregeneratedCredential() throws AddressProcessingException, JOSEException {
+
+        addressHandler =
+                new AddressHandler(
+                        mockSessionService,
+                        mockAddressService,
+                        mockVerifiableCredentialService,
+                        eventProbe);
+        when(eventProbe.counterMetric(anyString())).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", SESSION_ID));
+        when(apiGatewayProxyRequestEvent.getBody()).thenReturn("some json");
+        SessionItem sessionItem = new SessionItem();
+        sessionItem.setSubject("subject");
+
+        List<CanonicalAddress> canonicalAddresses = List.of(new CanonicalAddress());
+        SignedJWT signedJwt = mock(SignedJWT.class);
+        when(signedJwt.serialize()).thenReturn("signed credential");
+
+        when(mockSessionService.validateSessionId(SESSION_ID)).thenReturn(sessionItem);
+        when(mockAddressService.parseAddresses(anyString())).thenReturn(canonicalAddresses);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                        "subject", canonicalAddresses))
+                .thenReturn(signedJwt);
+
+        APIGatewayProxyResponseEvent responseEvent =
+                addressHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        assertEquals(HttpStatusCode.NO_CONTENT, responseEvent.getStatusCode());
+
+        ArgumentCaptor<Supplier<String>> credentialSigner = ArgumentCaptor.forClass(Supplier.class);
+        verify(mockAddressService)
+                .saveAddressesWithAuthorizationCode(
+                        eq(sessionItem), eq(canonicalAddresses), credentialSigner.capture());
+        // Left to the address service to sign once the addresses are saved
+        verifyNoInteractions(mockVerifiableCredentialService);
+        assertEquals("signed credential", credentialSigner.getValue().get());
+    }
+
+    @Test
+    void FailedPregenerationSavesWithoutCredential()
+            throws AddressProcessingException, JOSEException {
+
+        addressHandler =
+                new AddressHandler(
+                        mockSessionService,
+                        mockAddressService,
+                        mockVerifiableCredentialService,
+                        eventProbe);
+        when(eventProbe.counterMetric(anyString())).thenReturn(eventProbe);
+        when(eventProbe.log(any(Level.class), any(Exception.class))).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", SESSION_ID));
+        when(apiGatewayProxyRequestEvent.getBody()).thenReturn("some json");
+        SessionItem sessionItem = new SessionItem();
+
+        List<CanonicalAddress> canonicalAddresses = List.of(new CanonicalAddress());
+        JOSEException exception = new JOSEException("KMS unavailable");
+
+        when(mockSessionService.validateSessionId(SESSION_ID)).thenReturn(sessionItem);
+        when(mockAddressService.parseAddresses(anyString())).thenReturn(canonicalAddresses);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(any(), any()))
+                .thenThrow(exception);
+
+        APIGatewayProxyResponseEvent responseEvent =
+                addressHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        assertEquals(HttpStatusCode.NO_CONTENT, responseEvent.getStatusCode());
+
+        ArgumentCaptor<Supplier<String>> credentialSigner = ArgumentCaptor.forClass(Supplier.class);
+        verify(mockAddressService)
+                .saveAddressesWithAuthorizationCode(
+                        eq(sessionItem), eq(canonicalAddresses), credentialSigner.capture());
+        assertNull(credentialSigner.getValue().get());
+        verify(eventProbe).log(Level.WARN, exception);
+        verify(eventProbe).counterMetric("address_credential_pregeneration_failed");
+    }
+
+    @Test
+    void SessionRemovedBeforeSaveReturns403() throws AddressProcessingException {
+
+        setupEventProbeErrorBehaviour();
+
+        SessionNotFoundException exception = new SessionNotFoundException("Session not found");
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", SESSION_ID));
+        when(apiGatewayProxyRequestEvent.getBody()).thenReturn("some json");
+        SessionItem sessionItem = new SessionItem();
+
+        List<CanonicalAddress> canonicalAddresses = new ArrayList<>();
+        canonicalAddresses.add(new CanonicalAddress());
+
+        when(mockSessionService.validateSessionId(SESSION_ID)).thenReturn(sessionItem);
+        when(mockAddressService.parseAddresses(anyString())).thenReturn(canonicalAddresses);
+        when(mockAddressService.saveAddressesWithAuthorizationCode(sessionItem, canonicalAddresses))
+                .thenThrow(exception);
+
+        APIGatewayProxyResponseEvent responseEvent =
+                addressHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        assertEquals(403, responseEvent.getStatusCode());
+        verify(eventProbe).log(Level.ERROR, exception);
+        verify(eventProbe).counterMetric("address", 0d);
+    }
+
+    @Test
+    void AddressesOverTheLimitsReturn400() throws AddressProcessingException {
+
+        setupEventProbeErrorBehaviour();
+
+        AddressValidationException exception =
+                new AddressValidationException("More than 50 addresses");
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", SESSION_ID));
+        when(apiGatewayProxyRequestEvent.getBody()).thenReturn("some json");
+        when(mockAddressService.parseAddresses(anyString())).thenThrow(exception);
+
+        APIGatewayProxyResponseEvent responseEvent =
+                addressHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        assertEquals(HttpStatusCode.BAD_REQUEST, responseEvent.getStatusCode());
+        verifyNoInteractions(mockSessionService);
+        verify(eventProbe).log(Level.ERROR, exception);
+        verify(eventProbe).counterMetric("address", 0d);
+    }
+
+    @Test
+    void FailedSaveReturns500() throws AddressProcessingException {
+
+        setupEventProbeErrorBehaviour();
+
+        SdkClientException exception = SdkClientException.create("Unable to reach DynamoDB");
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", SESSION_ID));
+        when(apiGatewayProxyRequestEvent.getBody()).thenReturn("some json");
+        SessionItem sessionItem = new SessionItem();
+
+        List<CanonicalAddress> canonicalAddresses = new ArrayList<>();
+        canonicalAddresses.add(new CanonicalAddress());
+
+        when(mockSessionService.validateSessionId(SESSION_ID)).thenReturn(sessionItem);
+        when(mockAddressService.parseAddresses(anyString())).thenReturn(canonicalAddresses);
+        when(mockAddressService.saveAddressesWithAuthorizationCode(sessionItem, canonicalAddresses))
+                .thenThrow(exception);
+
+        APIGatewayProxyResponseEvent responseEvent =
+                addressHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        assertEquals(HttpStatusCode.INTERNAL_SERVER_ERROR, responseEvent.getStatusCode());
+        verify(eventProbe).log(Level.ERROR, exception);
+        verify(eventProbe).counterMetric("address", 0d);
+    }
+
     @Test
     void EmptyAddressesReturns200() throws AddressProcessingException {
 
@@ -5,8 +5,6 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.OAuth2Error;
@@ -15,13 +13,17 @@ import com.nimbusds.oauth2.sdk.token.AccessToken;
 import com.nimbusds.oauth2.sdk.token.AccessTokenType;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.http.HttpStatusCode;
-import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.lambda.powertools.logging.CorrelationIdPathConstants;
 import software.amazon.lambda.powertools.logging.Logging;
 import software.amazon.lambda.powertools.metrics.Metrics;
 import uk.gov.di.ipv.cri.address.api.exception.CredentialRequestException;
-import uk.gov.di.ipv.cri.address.api.service.VerifiableCredentialService;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.persistence.item.SessionAddressItem;
 import uk.gov.di.ipv.cri.address.library.service.AddressService;
+import uk.gov.di.ipv.cri.address.library.service.BufferedAuditEmitter;
+import uk.gov.di.ipv.cri.address.library.service.SessionAddressService;
+import uk.gov.di.ipv.cri.address.library.service.VerifiableCredentialService;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventContext;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventType;
 import uk.gov.di.ipv.cri.common.library.error.ErrorResponse;
@@ -29,16 +31,17 @@ import uk.gov.di.ipv.cri.common.library.exception.AccessTokenExpiredException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
 import uk.gov.di.ipv.cri.common.library.exception.SqsException;
-import uk.gov.di.ipv.cri.common.library.service.AuditEventFactory;
-import uk.gov.di.ipv.cri.common.library.service.AuditService;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
 import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
 import uk.gov.di.ipv.cri.common.library.service.SessionService;
 import uk.gov.di.ipv.cri.common.library.util.ApiGatewayResponseGenerator;
 import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
-import java.time.Clock;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import static org.apache.logging.log4j.Level.ERROR;
@@ -51,41 +54,42 @@ public class IssueCredentialHandler
         implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
     public static final String AUTHORIZATION_HEADER_KEY = "Authorization";
     public static final String ADDRESS_CREDENTIAL_ISSUER = "address_credential_issuer";
+    // Time to read the session and its addresses, one metric for each way of reading them
+    public static final String SEPARATE_READ_LATENCY = "issue_credential_separate_read_ms";
+    public static final String COLOCATED_READ_LATENCY = "issue_credential_colocated_read_ms";
+    public static final String FALLBACK_READ_LATENCY = "issue_credential_fallback_read_ms";
+    public static final String PREGENERATED_CREDENTIAL = "issue_credential_pregenerated";
     private final VerifiableCredentialService verifiableCredentialService;
     private final AddressService addressService;
     private final SessionService sessionService;
+    private final SessionAddressService sessionAddressService;
     private final EventProbe eventProbe;
-    private final AuditService auditService;
+    private final BufferedAuditEmitter auditService;
 
     public IssueCredentialHandler(
             VerifiableCredentialService verifiableCredentialService,
             AddressService addressService,
             SessionService sessionService,
+            SessionAddressService sessionAddressService,
             EventProbe eventProbe,
-            AuditService auditService) {
+            BufferedAuditEmitter auditService) {
         this.verifiableCredentialService = verifiableCredentialService;
         this.addressService = addressService;
         this.sessionService = sessionService;
+        this.sessionAddressService = sessionAddressService;
         this.eventProbe = eventProbe;
         this.auditService = auditService;
     }
 
     public IssueCredentialHandler() {
         ConfigurationService configurationService = new ConfigurationService();
-        ObjectMapper objectMapper =
-                new ObjectMapper()
-                        .registerModule(new Jdk8Module())
-                        .registerModule(new JavaTimeModule());
+        ObjectMapper objectMapper = JsonMappers.newObjectMapper();
         this.verifiableCredentialService = getVerifiableCredentialService();
         this.addressService = new AddressService(configurationService, objectMapper);
         this.sessionService = new SessionService();
+        this.sessionAddressService = new SessionAddressService(configurationService);
         this.eventProbe = new EventProbe();
-        this.auditService =
-                new AuditService(
-                        SqsClient.builder().build(),
-                        configurationService,
-                        objectMapper,
-                        new AuditEventFactory(configurationService, Clock.systemUTC()));
+        this.auditService = new BufferedAuditEmitter(configurationService, objectMapper);
     }
 
     @Override
@@ -94,23 +98,66 @@ public class IssueCredentialHandler
     public APIGatewayProxyResponseEvent handleRequest(
             APIGatewayProxyRequestEvent input, Context context) {
 
+        boolean auditFlushed = false;
         try {
             var accessToken = validateInputHeaderBearerToken(input.getHeaders());
-            var sessionItem = this.sessionService.getSessionByAccessToken(accessToken);
-            var addressItem = addressService.getAddressItem(sessionItem.getSessionId());
+            long readStarted = System.nanoTime();
+            SessionItem sessionItem;
+            List<CanonicalAddress> addresses;
+            String storedCredential;
+            String readLatencyMetric;
+            if (sessionAddressService.isColocatedAddresses()) {
+                SessionAddressItem sessionAddressItem =
+                        sessionAddressService.getSessionByAccessToken(accessToken);
+                sessionItem = sessionAddressItem;
+                addresses = sessionAddressItem.getAddresses();
+                storedCredential = sessionAddressItem.getVerifiableCredential();
+                readLatencyMetric = COLOCATED_READ_LATENCY;
+                if (addresses == null) {
+                    // Saved before the addresses were kept on the session
+                    AddressItem addressItem = getAddressItem(sessionItem);
+                    addresses = addressItem.getAddresses();
+                    storedCredential = addressItem.getVerifiableCredential();
+                    readLatencyMetric = FALLBACK_READ_LATENCY;
+                }
+            } else {
+                sessionItem = this.sessionService.getSessionByAccessToken(accessToken);
+                AddressItem addressItem = getAddressItem(sessionItem);
+                addresses = addressItem.getAddresses();
+                storedCredential = addressItem.getVerifiableCredential();
+                readLatencyMetric = SEPARATE_READ_LATENCY;
+            }
+            eventProbe.counterMetric(
+                    readLatencyMetric,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readStarted));
 
+            // Issue the credential signed when the addresses were submitted, if still fresh
             SignedJWT signedJWT =
-                    verifiableCredentialService.generateSignedVerifiableCredentialJwt(
-                            sessionItem.getSubject(), addressItem.getAddresses());
+                    storedCredential == null
+                            ? null
+                            : verifiableCredentialService.getFreshCredential(
+                                    storedCredential, sessionItem.getSubject());
+            if (signedJWT == null) {
+                signedJWT =
+                        verifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                                sessionItem.getSubject(), addresses);
+            } else {
+                eventProbe.counterMetric(PREGENERATED_CREDENTIAL);
+            }
             auditService.sendAuditEvent(
                     AuditEventType.VC_ISSUED,
                     new AuditEventContext(input.getHeaders(), sessionItem),
-                    verifiableCredentialService.getAuditEventExtensions(
-                            addressItem.getAddresses()));
+                    verifiableCredentialService.getAuditEventExtensions(addresses));
+            // Send the event while the credential is serialised, but not return before it is sent
+            auditService.flushAsync();
             eventProbe.counterMetric(ADDRESS_CREDENTIAL_ISSUER);
 
-            return ApiGatewayResponseGenerator.proxyJwtResponse(
-                    HttpStatusCode.OK, signedJWT.serialize());
+            APIGatewayProxyResponseEvent response =
+                    ApiGatewayResponseGenerator.proxyJwtResponse(
+                            HttpStatusCode.OK, signedJWT.serialize());
+            auditFlushed = true;
+            auditService.flush();
+            return response;
         } catch (AwsServiceException ex) {
             eventProbe.log(ERROR, ex).counterMetric(ADDRESS_CREDENTIAL_ISSUER, 0d);
 
@@ -155,6 +202,28 @@ public class IssueCredentialHandler
                     OAuth2Error.ACCESS_DENIED
                             .appendDescription(" - " + SESSION_NOT_FOUND.getErrorSummary())
                             .toJSONObject());
+        } finally {
+            if (!auditFlushed) {
+                flushAuditEvents();
+            }
+        }
+    }
+
+    // A missing item and one past its expiry both leave no addresses to issue a credential for
+    private AddressItem getAddressItem(SessionItem sessionItem) throws CredentialRequestException {
+        AddressItem addressItem = addressService.getAddressItem(sessionItem.getSessionId());
+        if (addressItem == null) {
+            throw new CredentialRequestException(VERIFIABLE_CREDENTIAL_ERROR);
+        }
+        return addressItem;
+    }
+
+    // Nothing a failed invocation queued may be left for, or blamed on, the next one
+    private void flushAuditEvents() {
+        try {
+            auditService.flush();
+        } catch (SqsException e) {
+            eventProbe.log(ERROR, e);
         }
     }
 
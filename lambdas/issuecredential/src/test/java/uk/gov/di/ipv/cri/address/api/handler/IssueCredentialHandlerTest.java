@@ -18,6 +18,7 @@ import org.apache.logging.log4j.Level;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -25,15 +26,17 @@ import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.http.HttpStatusCode;
 import software.amazon.awssdk.http.SdkHttpResponse;
-import uk.gov.di.ipv.cri.address.api.service.VerifiableCredentialService;
 import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.persistence.item.SessionAddressItem;
 import uk.gov.di.ipv.cri.address.library.service.AddressService;
+import uk.gov.di.ipv.cri.address.library.service.BufferedAuditEmitter;
+import uk.gov.di.ipv.cri.address.library.service.SessionAddressService;
+import uk.gov.di.ipv.cri.address.library.service.VerifiableCredentialService;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventContext;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventType;
 import uk.gov.di.ipv.cri.common.library.exception.SqsException;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
 import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
-import uk.gov.di.ipv.cri.common.library.service.AuditService;
 import uk.gov.di.ipv.cri.common.library.service.SessionService;
 import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
@@ -44,16 +47,24 @@ import java.util.UUID;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static uk.gov.di.ipv.cri.address.api.handler.IssueCredentialHandler.ADDRESS_CREDENTIAL_ISSUER;
+import static uk.gov.di.ipv.cri.address.api.handler.IssueCredentialHandler.COLOCATED_READ_LATENCY;
+import static uk.gov.di.ipv.cri.address.api.handler.IssueCredentialHandler.FALLBACK_READ_LATENCY;
+import static uk.gov.di.ipv.cri.address.api.handler.IssueCredentialHandler.PREGENERATED_CREDENTIAL;
+import static uk.gov.di.ipv.cri.address.api.handler.IssueCredentialHandler.SEPARATE_READ_LATENCY;
 import static uk.gov.di.ipv.cri.common.library.error.ErrorResponse.VERIFIABLE_CREDENTIAL_ERROR;
 
 @ExtendWith(MockitoExtension.class)
@@ -62,10 +73,11 @@ class IssueCredentialHandlerTest {
     @Mock private Context context;
     @Mock private VerifiableCredentialService mockVerifiableCredentialService;
     @Mock private SessionService mockSessionService;
+    @Mock private SessionAddressService mockSessionAddressService;
 
     @Mock private AddressService mockAddressService;
     @Mock private EventProbe mockEventProbe;
-    @Mock private AuditService mockAuditService;
+    @Mock private BufferedAuditEmitter mockAuditService;
     @InjectMocks private IssueCredentialHandler handler;
 
     @Test
@@ -108,6 +120,7 @@ class IssueCredentialHandlerTest {
         verify(mockAddressService).getAddressItem(sessionId);
         verify(mockVerifiableCredentialService)
                 .generateSignedVerifiableCredentialJwt(SUBJECT, canonicalAddresses);
+        verify(mockEventProbe).counterMetric(eq(SEPARATE_READ_LATENCY), anyDouble());
         verify(mockEventProbe).counterMetric(ADDRESS_CREDENTIAL_ISSUER);
         verify(mockAuditService)
                 .sendAuditEvent(
@@ -117,11 +130,188 @@ class IssueCredentialHandlerTest {
         AuditEventContext actualAuditEventContext = auditEventContextArgCaptor.getValue();
         assertEquals(event.getHeaders(), actualAuditEventContext.getRequestHeaders());
         assertEquals(sessionItem, actualAuditEventContext.getSessionItem());
+        verify(mockAuditService).flush();
         assertEquals(
                 ContentType.APPLICATION_JWT.getType(), response.getHeaders().get("Content-Type"));
         assertEquals(HttpStatusCode.OK, response.getStatusCode());
     }
 
+    @Test
+    void shouldIssueTheCredentialFromAddressesKeptOnTheSession() throws JOSEException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        CanonicalAddress address = new CanonicalAddress();
+        address.setPostalCode("LS1 1BA");
+        SessionAddressItem sessionItem = new SessionAddressItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(UUID.randomUUID());
+        sessionItem.setAddresses(List.of(address));
+
+        when(mockSessionAddressService.isColocatedAddresses()).thenReturn(true);
+        when(mockSessionAddressService.getSessionByAccessToken(accessToken))
+                .thenReturn(sessionItem);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                        SUBJECT, List.of(address)))
+                .thenReturn(mock(SignedJWT.class));
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.OK, response.getStatusCode());
+        verifyNoInteractions(mockSessionService, mockAddressService);
+        verify(mockEventProbe).counterMetric(eq(COLOCATED_READ_LATENCY), anyDouble());
+    }
+
+    @Test
+    void shouldReadTheAddressTableWhenTheSessionHasNoAddresses() throws JOSEException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        CanonicalAddress address = new CanonicalAddress();
+        address.setPostalCode("LS1 1BA");
+        AddressItem addressItem = new AddressItem();
+        addressItem.setAddresses(List.of(address));
+        SessionAddressItem sessionItem = new SessionAddressItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(UUID.randomUUID());
+
+        when(mockSessionAddressService.isColocatedAddresses()).thenReturn(true);
+        when(mockSessionAddressService.getSessionByAccessToken(accessToken))
+                .thenReturn(sessionItem);
+        when(mockAddressService.getAddressItem(sessionItem.getSessionId())).thenReturn(addressItem);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                        SUBJECT, List.of(address)))
+                .thenReturn(mock(SignedJWT.class));
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.OK, response.getStatusCode());
+        verifyNoInteractions(mockSessionService);
+        verify(mockEventProbe).counterMetric(eq(FALLBACK_READ_LATENCY), anyDouble());
+    }
+
+    @Test
+    void shouldReturn400WhenTheAddressItemHasExpired()
+            throws JsonProcessingException, SqsException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        setupEventProbeErrorBehaviour();
+        SessionItem sessionItem = new SessionItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(UUID.randomUUID());
+
+        when(mockSessionService.getSessionByAccessToken(accessToken)).thenReturn(sessionItem);
+        // The address service reads an item past its expiry as no item
+        when(mockAddressService.getAddressItem(sessionItem.getSessionId())).thenReturn(null);
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.BAD_REQUEST, response.getStatusCode());
+        verifyNoInteractions(mockVerifiableCredentialService);
+        verify(mockEventProbe).counterMetric(ADDRESS_CREDENTIAL_ISSUER, 0d);
+        verify(mockAuditService, never()).sendAuditEvent(any(AuditEventType.class));
+        Map<String, Object> responseBody =
+                new ObjectMapper().readValue(response.getBody(), new TypeReference<>() {});
+        assertThat(
+                responseBody.get("error_description").toString(),
+                containsString(VERIFIABLE_CREDENTIAL_ERROR.getErrorSummary()));
+    }
+
+    @Test
+    void shouldReturn400WhenTheSessionHasNoAddressesAndTheAddressItemHasExpired() {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        setupEventProbeErrorBehaviour();
+        SessionAddressItem sessionItem = new SessionAddressItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(UUID.randomUUID());
+
+        when(mockSessionAddressService.isColocatedAddresses()).thenReturn(true);
+        when(mockSessionAddressService.getSessionByAccessToken(accessToken))
+                .thenReturn(sessionItem);
+        when(mockAddressService.getAddressItem(sessionItem.getSessionId())).thenReturn(null);
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.BAD_REQUEST, response.getStatusCode());
+        verifyNoInteractions(mockVerifiableCredentialService);
+        verify(mockEventProbe).counterMetric(ADDRESS_CREDENTIAL_ISSUER, 0d);
+    }
+
+    @Test
+    void shouldIssueTheCredentialSignedWhenTheAddressesWereSubmitted() throws JOSEException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        AddressItem addressItem = new AddressItem();
+        addressItem.setAddresses(List.of(new CanonicalAddress()));
+        addressItem.setVerifiableCredential("pregenerated");
+        SessionItem sessionItem = new SessionItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(UUID.randomUUID());
+        SignedJWT pregenerated = mock(SignedJWT.class);
+        when(pregenerated.serialize()).thenReturn("pregenerated");
+
+        when(mockSessionService.getSessionByAccessToken(accessToken)).thenReturn(sessionItem);
+        when(mockAddressService.getAddressItem(sessionItem.getSessionId())).thenReturn(addressItem);
+        when(mockVerifiableCredentialService.getFreshCredential("pregenerated", SUBJECT))
+                .thenReturn(pregenerated);
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.OK, response.getStatusCode());
+        assertEquals("pregenerated", response.getBody());
+        verify(mockVerifiableCredentialService, never())
+                .generateSignedVerifiableCredentialJwt(any(), any());
+        verify(mockEventProbe).counterMetric(PREGENERATED_CREDENTIAL);
+    }
+
+    @Test
+    void shouldSignANewCredentialWhenThePregeneratedOneIsStale() throws JOSEException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        List<CanonicalAddress> addresses = List.of(new CanonicalAddress());
+        AddressItem addressItem = new AddressItem();
+        addressItem.setAddresses(addresses);
+        addressItem.setVerifiableCredential("stale");
+        SessionItem sessionItem = new SessionItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(UUID.randomUUID());
+
+        when(mockSessionService.getSessionByAccessToken(accessToken)).thenReturn(sessionItem);
+        when(mockAddressService.getAddressItem(sessionItem.getSessionId())).thenReturn(addressItem);
+        when(mockVerifiableCredentialService.getFreshCredential("stale", SUBJECT)).thenReturn(null);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                        SUBJECT, addresses))
+                .thenReturn(mock(SignedJWT.class));
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.OK, response.getStatusCode());
+        verify(mockEventProbe, never()).counterMetric(PREGENERATED_CREDENTIAL);
+    }
+
     @Test
     void shouldThrowJOSEExceptionWhenGenerateVerifiableCredentialIsMalformed()
             throws JsonProcessingException, JOSEException, SqsException {
@@ -276,6 +466,66 @@ class IssueCredentialHandlerTest {
                 containsString(awsErrorDetails.errorMessage()));
     }
 
+    @Test
+    void shouldReturn500WhenTheAuditEventIsNotSent() throws JOSEException, SqsException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        final UUID sessionId = UUID.randomUUID();
+        SessionItem sessionItem = new SessionItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(sessionId);
+        AddressItem addressItem = new AddressItem();
+        addressItem.setAddresses(List.of(new CanonicalAddress()));
+
+        when(mockSessionService.getSessionByAccessToken(accessToken)).thenReturn(sessionItem);
+        when(mockAddressService.getAddressItem(sessionId)).thenReturn(addressItem);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                        SUBJECT, addressItem.getAddresses()))
+                .thenReturn(mock(SignedJWT.class));
+        doThrow(new SqsException("Failed to send 1 audit events")).when(mockAuditService).flush();
+
+        APIGatewayProxyResponseEvent response = handler.handleRequest(event, context);
+
+        assertEquals(HttpStatusCode.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertThat(response.getBody(), containsString("Failed to send 1 audit events"));
+    }
+
+    @Test
+    void shouldWaitForTheAuditEventWhenTheResponseCannotBeBuilt()
+            throws JOSEException, SqsException {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent();
+        AccessToken accessToken = new BearerAccessToken();
+        event.withHeaders(
+                Map.of(
+                        IssueCredentialHandler.AUTHORIZATION_HEADER_KEY,
+                        accessToken.toAuthorizationHeader()));
+        final UUID sessionId = UUID.randomUUID();
+        SessionItem sessionItem = new SessionItem();
+        sessionItem.setSubject(SUBJECT);
+        sessionItem.setSessionId(sessionId);
+        AddressItem addressItem = new AddressItem();
+        addressItem.setAddresses(List.of(new CanonicalAddress()));
+        SignedJWT signedJWT = mock(SignedJWT.class);
+
+        when(mockSessionService.getSessionByAccessToken(accessToken)).thenReturn(sessionItem);
+        when(mockAddressService.getAddressItem(sessionId)).thenReturn(addressItem);
+        when(mockVerifiableCredentialService.generateSignedVerifiableCredentialJwt(
+                        SUBJECT, addressItem.getAddresses()))
+                .thenReturn(signedJWT);
+        when(signedJWT.serialize()).thenThrow(new IllegalStateException("The JWT is not signed"));
+
+        assertThrows(IllegalStateException.class, () -> handler.handleRequest(event, context));
+
+        // The send started for this invocation is not left for the next one to wait on
+        InOrder inOrder = inOrder(mockAuditService);
+        inOrder.verify(mockAuditService).flushAsync();
+        inOrder.verify(mockAuditService).flush();
+    }
+
     private void setupEventProbeErrorBehaviour() {
         when(mockEventProbe.counterMetric(anyString(), anyDouble())).thenReturn(mockEventProbe);
         when(mockEventProbe.log(any(Level.class), any(Exception.class))).thenReturn(mockEventProbe);
@@ -0,0 +1,76 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+
+/**
+ * Short-lived record of postcodes that OS resolved to no results or rejected as a bad request.
+ *
+ * <p>Kept apart from {@link PostcodeResultCache} with its own bound so that invalid postcodes
+ * cannot displace real results.
+ */
+public class NegativePostcodeCache {
+
+    public static final String CACHE_MAXIMUM_SIZE = "POSTCODE_NEGATIVE_CACHE_MAXIMUM_SIZE";
+    public static final String CACHE_TTL_SECONDS = "POSTCODE_NEGATIVE_CACHE_TTL_SECONDS";
+
+    static final String CACHE_HIT_METRIC = "postcode_lookup_negative_cache_hit";
+    static final String CACHE_MISS_METRIC = "postcode_lookup_negative_cache_miss";
+    static final String CACHE_EVICTION_METRIC = "postcode_lookup_negative_cache_eviction";
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 1_000L;
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final Cache<String, Boolean> cache;
+    private final EventProbe eventProbe;
+
+    public NegativePostcodeCache(long maximumSize, Duration timeToLive, EventProbe eventProbe) {
+        this(maximumSize, timeToLive, eventProbe, Ticker.systemTicker());
+    }
+
+    NegativePostcodeCache(
+            long maximumSize, Duration timeToLive, EventProbe eventProbe, Ticker ticker) {
+        this.eventProbe = eventProbe;
+        this.cache =
+                Caffeine.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterWrite(timeToLive)
+                        .ticker(ticker)
+                        .executor(Runnable::run)
+                        .<String, Boolean>evictionListener(
+                                (key, value, cause) ->
+                                        eventProbe.counterMetric(CACHE_EVICTION_METRIC))
+                        .build();
+    }
+
+    public static NegativePostcodeCache fromEnvironment(EventProbe eventProbe) {
+        return new NegativePostcodeCache(
+                EnvironmentVariables.getLong(CACHE_MAXIMUM_SIZE, DEFAULT_MAXIMUM_SIZE),
+                EnvironmentVariables.getSeconds(CACHE_TTL_SECONDS, DEFAULT_TTL),
+                eventProbe);
+    }
+
+    public boolean contains(String postcode) {
+        boolean present = cache.getIfPresent(PostcodeResultCache.normalise(postcode)) != null;
+        eventProbe.counterMetric(present ? CACHE_HIT_METRIC : CACHE_MISS_METRIC);
+        return present;
+    }
+
+    public void put(String postcode) {
+        cache.put(PostcodeResultCache.normalise(postcode), Boolean.TRUE);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    long estimatedSize() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+}
@@ -0,0 +1,99 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded in-process cache of mapped OS Places results, keyed by normalised postcode.
+ *
+ * <p>Caffeine applies W-TinyLFU admission and eviction once a maximum size is set, which suits the
+ * heavily skewed postcode traffic we see. One instance is held by the service for the life of a
+ * warm Lambda container.
+ */
+public class PostcodeResultCache {
+
+    public static final String CACHE_MAXIMUM_SIZE = "POSTCODE_CACHE_MAXIMUM_SIZE";
+    public static final String CACHE_TTL_SECONDS = "POSTCODE_CACHE_TTL_SECONDS";
+
+    static final String CACHE_HIT_METRIC = "postcode_lookup_cache_hit";
+    static final String CACHE_MISS_METRIC = "postcode_lookup_cache_miss";
+    static final String CACHE_EVICTION_METRIC = "postcode_lookup_cache_eviction";
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 5_000L;
+    private static final Duration DEFAULT_TTL = Duration.ofHours(24);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Cache<String, List<CanonicalAddress>> cache;
+    private final EventProbe eventProbe;
+
+    public PostcodeResultCache(long maximumSize, Duration timeToLive, EventProbe eventProbe) {
+        this(maximumSize, timeToLive, eventProbe, Ticker.systemTicker());
+    }
+
+    PostcodeResultCache(
+            long maximumSize, Duration timeToLive, EventProbe eventProbe, Ticker ticker) {
+        this.eventProbe = eventProbe;
+        this.cache =
+                Caffeine.newBuilder()
+                        .maximumSize(maximumSize)
+                        .expireAfterWrite(timeToLive)
+                        .ticker(ticker)
+                        // Run maintenance on the calling thread, as a frozen Lambda container
+                        // cannot be relied on to run background work
+                        .executor(Runnable::run)
+                        .<String, List<CanonicalAddress>>evictionListener(
+                                (key, value, cause) ->
+                                        eventProbe.counterMetric(CACHE_EVICTION_METRIC))
+                        .build();
+    }
+
+    public static PostcodeResultCache fromEnvironment(EventProbe eventProbe) {
+        return new PostcodeResultCache(
+                EnvironmentVariables.getLong(CACHE_MAXIMUM_SIZE, DEFAULT_MAXIMUM_SIZE),
+                EnvironmentVariables.getSeconds(CACHE_TTL_SECONDS, DEFAULT_TTL),
+                eventProbe);
+    }
+
+    public static String normalise(String postcode) {
+        String decoded;
+        try {
+            decoded = URLDecoder.decode(postcode, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            decoded = postcode;
+        }
+        return WHITESPACE.matcher(decoded).replaceAll("").toUpperCase(Locale.ROOT);
+    }
+
+    public Optional<List<CanonicalAddress>> get(String postcode) {
+        List<CanonicalAddress> addresses = cache.getIfPresent(normalise(postcode));
+        eventProbe.counterMetric(addresses == null ? CACHE_MISS_METRIC : CACHE_HIT_METRIC);
+        return Optional.ofNullable(addresses);
+    }
+
+    public void put(String postcode, List<CanonicalAddress> addresses) {
+        cache.put(normalise(postcode), Collections.unmodifiableList(new ArrayList<>(addresses)));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    long estimatedSize() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+}
@@ -0,0 +1,257 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.gov.di.ipv.cri.address.library.util.AddressPayloadCodec;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.address.library.util.PayloadEncoding;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Optional fleet-wide cache of mapped postcode results held in Redis.
+ *
+ * <p>Values are stored as protobuf {@code AddressList} messages, with an empty list recording a
+ * postcode that OS resolved to nothing. Any Redis failure is treated as a miss and the cache stands
+ * aside for a short while, so lookups always fall back to OS. A value that can't be decoded is a
+ * miss for that postcode alone, and is deleted so it is replaced on the next lookup.
+ */
+public class RedisPostcodeCache {
+
+    public static final String REDIS_URL = "POSTCODE_REDIS_URL";
+    public static final String REDIS_TTL_SECONDS = "POSTCODE_REDIS_TTL_SECONDS";
+    public static final String REDIS_NEGATIVE_TTL_SECONDS = "POSTCODE_REDIS_NEGATIVE_TTL_SECONDS";
+    public static final String REDIS_TIMEOUT_MILLIS = "POSTCODE_REDIS_TIMEOUT_MILLIS";
+
+    static final String KEY_PREFIX = "postcode-lookup:";
+    static final String CACHE_HIT_METRIC = "postcode_lookup_shared_cache_hit";
+    static final String CACHE_MISS_METRIC = "postcode_lookup_shared_cache_miss";
+    static final String CACHE_ERROR_METRIC = "postcode_lookup_shared_cache_error";
+    static final String CACHE_CORRUPT_METRIC = "postcode_lookup_shared_cache_corrupt";
+
+    private static final Duration DEFAULT_TTL = Duration.ofDays(7);
+    private static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes(5);
+    private static final long DEFAULT_TIMEOUT_MILLIS = 100L;
+    private static final Duration RETRY_AFTER_FAILURE = Duration.ofSeconds(30);
+    private static final AddressPayloadCodec CODEC =
+            new AddressPayloadCodec(PayloadEncoding.PROTOBUF);
+
+    private final RedisClient redisClient;
+    private final Duration timeToLive;
+    private final Duration negativeTimeToLive;
+    private final Duration timeout;
+    private final EventProbe eventProbe;
+    private final Clock clock;
+    private final Logger log = LogManager.getLogger();
+
+    private StatefulRedisConnection<String, byte[]> connection;
+    private Instant unavailableUntil = Instant.MIN;
+
+    public RedisPostcodeCache(
+            RedisClient redisClient,
+            Duration timeToLive,
+            Duration negativeTimeToLive,
+            Duration timeout,
+            EventProbe eventProbe,
+            Clock clock) {
+        this.redisClient = redisClient;
+        this.timeToLive = timeToLive;
+        this.negativeTimeToLive = negativeTimeToLive;
+        this.timeout = timeout;
+        this.eventProbe = eventProbe;
+        this.clock = clock;
+    }
+
+    public static RedisPostcodeCache disabled() {
+        return new RedisPostcodeCache(
+                null, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, Duration.ZERO, null, Clock.systemUTC());
+    }
+
+    public static RedisPostcodeCache fromEnvironment(EventProbe eventProbe) {
+        String url = EnvironmentVariables.getString(REDIS_URL, null);
+        if (url == null) {
+            return disabled();
+        }
+        Duration timeout =
+                Duration.ofMillis(
+                        EnvironmentVariables.getLong(REDIS_TIMEOUT_MILLIS, DEFAULT_TIMEOUT_MILLIS));
+        return new RedisPostcodeCache(
+                createClient(url, timeout),
+                EnvironmentVariables.getSeconds(REDIS_TTL_SECONDS, DEFAULT_TTL),
+                EnvironmentVariables.getSeconds(REDIS_NEGATIVE_TTL_SECONDS, DEFAULT_NEGATIVE_TTL),
+                timeout,
+                eventProbe,
+                Clock.systemUTC());
+    }
+
+    public static RedisClient createClient(String url, Duration timeout) {
+        RedisURI redisURI = RedisURI.create(url);
+        redisURI.setTimeout(timeout);
+        RedisClient client = RedisClient.create(redisURI);
+        client.setOptions(
+                ClientOptions.builder()
+                        .protocolVersion(ProtocolVersion.RESP2)
+                        .timeoutOptions(TimeoutOptions.enabled(timeout))
+                        .build());
+        return client;
+    }
+
+    public boolean isEnabled() {
+        return redisClient != null;
+    }
+
+    public Optional<List<CanonicalAddress>> get(String postcode) {
+        return Optional.ofNullable(getAll(List.of(postcode)).get(postcode));
+    }
+
+    public void put(String postcode, List<CanonicalAddress> addresses) {
+        putAll(Map.of(postcode, addresses));
+    }
+
+    public synchronized Map<String, List<CanonicalAddress>> getAll(Collection<String> postcodes) {
+        Optional<StatefulRedisConnection<String, byte[]>> available = connection();
+        if (available.isEmpty()) {
+            return Map.of();
+        }
+        StatefulRedisConnection<String, byte[]> redis = available.get();
+        RedisAsyncCommands<String, byte[]> commands = redis.async();
+        Map<String, RedisFuture<byte[]>> pending = new LinkedHashMap<>();
+        try {
+            // Pipeline all of the reads into a single round trip
+            redis.setAutoFlushCommands(false);
+            for (String postcode : postcodes) {
+                pending.put(postcode, commands.get(key(postcode)));
+            }
+            redis.flushCommands();
+            if (!LettuceFutures.awaitAll(timeout, pending.values().toArray(new RedisFuture[0]))) {
+                markUnavailable("timed out reading postcode results", null);
+                return Map.of();
+            }
+
+            Map<String, List<CanonicalAddress>> results = new HashMap<>();
+            List<String> corrupt = new ArrayList<>();
+            for (Map.Entry<String, RedisFuture<byte[]>> entry : pending.entrySet()) {
+                byte[] value = entry.getValue().get();
+                List<CanonicalAddress> addresses =
+                        value == null ? null : decode(entry.getKey(), value);
+                if (addresses == null) {
+                    eventProbe.counterMetric(CACHE_MISS_METRIC);
+                    if (value != null) {
+                        corrupt.add(key(entry.getKey()));
+                    }
+                } else {
+                    eventProbe.counterMetric(CACHE_HIT_METRIC);
+                    results.put(entry.getKey(), addresses);
+                }
+            }
+            if (!corrupt.isEmpty()) {
+                // Not waited for, as the next write replaces the value anyway
+                commands.del(corrupt.toArray(new String[0]));
+                redis.flushCommands();
+            }
+            return results;
+        } catch (RedisException | ExecutionException e) {
+            markUnavailable("failed reading postcode results", e);
+            return Map.of();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            markUnavailable("interrupted reading postcode results", e);
+            return Map.of();
+        } finally {
+            redis.setAutoFlushCommands(true);
+        }
+    }
+
+    public synchronized void putAll(Map<String, List<CanonicalAddress>> results) {
+        Optional<StatefulRedisConnection<String, byte[]>> available = connection();
+        if (available.isEmpty()) {
+            return;
+        }
+        StatefulRedisConnection<String, byte[]> redis = available.get();
+        RedisAsyncCommands<String, byte[]> commands = redis.async();
+        RedisFuture<?>[] pending = new RedisFuture[results.size()];
+        try {
+            redis.setAutoFlushCommands(false);
+            int i = 0;
+            for (Map.Entry<String, List<CanonicalAddress>> entry : results.entrySet()) {
+                Duration ttl = entry.getValue().isEmpty() ? negativeTimeToLive : timeToLive;
+                pending[i++] =
+                        commands.set(
+                                key(entry.getKey()),
+                                CODEC.encode(entry.getValue()),
+                                SetArgs.Builder.ex(ttl.toSeconds()));
+            }
+            redis.flushCommands();
+            if (!LettuceFutures.awaitAll(timeout, pending)) {
+                markUnavailable("timed out writing postcode results", null);
+            }
+        } catch (RedisException e) {
+            markUnavailable("failed writing postcode results", e);
+        } finally {
+            redis.setAutoFlushCommands(true);
+        }
+    }
+
+    private List<CanonicalAddress> decode(String postcode, byte[] value) {
+        try {
+            return CODEC.decode(value);
+        } catch (IllegalArgumentException e) {
+            log.warn("Shared postcode cache holds an unreadable value for {}", postcode, e);
+            eventProbe.counterMetric(CACHE_CORRUPT_METRIC);
+            return null;
+        }
+    }
+
+    static String key(String postcode) {
+        return KEY_PREFIX + PostcodeResultCache.normalise(postcode);
+    }
+
+    private Optional<StatefulRedisConnection<String, byte[]>> connection() {
+        if (redisClient == null || clock.instant().isBefore(unavailableUntil)) {
+            return Optional.empty();
+        }
+        if (connection == null || !connection.isOpen()) {
+            try {
+                connection =
+                        redisClient.connect(
+                                RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+            } catch (RedisException e) {
+                markUnavailable("failed connecting", e);
+                return Optional.empty();
+            }
+        }
+        return Optional.of(connection);
+    }
+
+    private void markUnavailable(String reason, Exception e) {
+        log.warn("Shared postcode cache {}, falling back to OS", reason, e);
+        eventProbe.counterMetric(CACHE_ERROR_METRIC);
+        unavailableUntil = clock.instant().plus(RETRY_AFTER_FAILURE);
+    }
+}
@@ -0,0 +1,62 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Looks postcodes up in the in-process caches first and then the optional shared Redis cache,
+ * copying shared hits into the local tiers. An empty list means OS previously found nothing.
+ */
+public class TieredPostcodeCache {
+
+    private final PostcodeResultCache postcodeResultCache;
+    private final NegativePostcodeCache negativePostcodeCache;
+    private final RedisPostcodeCache redisPostcodeCache;
+
+    public TieredPostcodeCache(
+            PostcodeResultCache postcodeResultCache,
+            NegativePostcodeCache negativePostcodeCache,
+            RedisPostcodeCache redisPostcodeCache) {
+        this.postcodeResultCache = postcodeResultCache;
+        this.negativePostcodeCache = negativePostcodeCache;
+        this.redisPostcodeCache = redisPostcodeCache;
+    }
+
+    public static TieredPostcodeCache fromEnvironment(EventProbe eventProbe) {
+        return new TieredPostcodeCache(
+                PostcodeResultCache.fromEnvironment(eventProbe),
+                NegativePostcodeCache.fromEnvironment(eventProbe),
+                RedisPostcodeCache.fromEnvironment(eventProbe));
+    }
+
+    public Optional<List<CanonicalAddress>> get(String postcode) {
+        Optional<List<CanonicalAddress>> addresses = postcodeResultCache.get(postcode);
+        if (addresses.isPresent()) {
+            return addresses;
+        }
+        if (negativePostcodeCache.contains(postcode)) {
+            return Optional.of(new ArrayList<>());
+        }
+
+        addresses = redisPostcodeCache.get(postcode);
+        addresses.ifPresent(shared -> putLocally(postcode, shared));
+        return addresses;
+    }
+
+    public void put(String postcode, List<CanonicalAddress> addresses) {
+        putLocally(postcode, addresses);
+        redisPostcodeCache.put(postcode, addresses);
+    }
+
+    private void putLocally(String postcode, List<CanonicalAddress> addresses) {
+        if (addresses.isEmpty()) {
+            negativePostcodeCache.put(postcode);
+        } else {
+            postcodeResultCache.put(postcode, addresses);
+        }
+    }
+}
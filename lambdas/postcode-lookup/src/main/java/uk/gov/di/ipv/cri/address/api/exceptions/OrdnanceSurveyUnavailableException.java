@@ -0,0 +1,11 @@
+package uk.gov.di.ipv.cri.address.api.exceptions;
+
+public class OrdnanceSurveyUnavailableException extends PostcodeLookupProcessingException {
+    public OrdnanceSurveyUnavailableException(String message) {
+        super(message);
+    }
+
+    public OrdnanceSurveyUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
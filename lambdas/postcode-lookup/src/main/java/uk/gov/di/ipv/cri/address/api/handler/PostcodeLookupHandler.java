@@ -4,27 +4,37 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.nimbusds.oauth2.sdk.OAuth2Error;
 import org.apache.logging.log4j.Level;
 import software.amazon.awssdk.http.HttpStatusCode;
 import software.amazon.lambda.powertools.logging.CorrelationIdPathConstants;
 import software.amazon.lambda.powertools.logging.Logging;
 import software.amazon.lambda.powertools.metrics.Metrics;
+import uk.gov.di.ipv.cri.address.api.exceptions.OrdnanceSurveyUnavailableException;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupValidationException;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.address.api.resilience.SessionLookupLimiter;
 import uk.gov.di.ipv.cri.address.api.service.PostcodeLookupService;
+import uk.gov.di.ipv.cri.address.library.service.BufferedAuditEmitter;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
 import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventType;
 import uk.gov.di.ipv.cri.common.library.error.ErrorResponse;
 import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
+import uk.gov.di.ipv.cri.common.library.exception.SqsException;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
 import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
-import uk.gov.di.ipv.cri.common.library.service.AuditService;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
 import uk.gov.di.ipv.cri.common.library.service.SessionService;
 import uk.gov.di.ipv.cri.common.library.util.ApiGatewayResponseGenerator;
 import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static uk.gov.di.ipv.cri.common.library.error.ErrorResponse.INVALID_POSTCODE;
 import static uk.gov.di.ipv.cri.common.library.error.ErrorResponse.SESSION_EXPIRED;
@@ -36,20 +46,30 @@ public class PostcodeLookupHandler
     private final PostcodeLookupService postcodeLookupService;
     private final SessionService sessionService;
     private final EventProbe eventProbe;
-    private final AuditService auditService;
+    private final BufferedAuditEmitter auditService;
+    private final SessionLookupLimiter sessionLookupLimiter;
 
     protected static final String SESSION_ID = "session_id";
     protected static final String LAMBDA_NAME = "postcode_lookup";
+    protected static final String LOOKUP_UNAVAILABLE =
+            "Postcode lookup unavailable, enter address manually";
+    protected static final String TOO_MANY_LOOKUPS =
+            "Too many postcode lookups, enter address manually";
+    private static final int TOO_MANY_REQUESTS = 429;
+    // Time kept back from the invocation for auditing and returning the response
+    private static final Duration RESPONSE_RESERVE = Duration.ofMillis(500);
 
     public PostcodeLookupHandler(
             PostcodeLookupService postcodeLookupService,
             SessionService sessionService,
             EventProbe eventProbe,
-            AuditService auditService) {
+            BufferedAuditEmitter auditService,
+            SessionLookupLimiter sessionLookupLimiter) {
         this.postcodeLookupService = postcodeLookupService;
         this.sessionService = sessionService;
         this.eventProbe = eventProbe;
         this.auditService = auditService;
+        this.sessionLookupLimiter = sessionLookupLimiter;
     }
 
     @ExcludeFromGeneratedCoverageReport
@@ -57,7 +77,9 @@ public class PostcodeLookupHandler
         this.postcodeLookupService = new PostcodeLookupService();
         this.sessionService = new SessionService();
         this.eventProbe = new EventProbe();
-        this.auditService = new AuditService();
+        this.auditService =
+                new BufferedAuditEmitter(new ConfigurationService(), JsonMappers.newObjectMapper());
+        this.sessionLookupLimiter = SessionLookupLimiter.fromEnvironment(eventProbe);
     }
 
     @Override
@@ -68,16 +90,38 @@ public class PostcodeLookupHandler
         String sessionId = input.getHeaders().get(SESSION_ID);
         String postcode = input.getPathParameters().get("postcode");
 
+        boolean auditFlushed = false;
+        CompletableFuture<List<CanonicalAddress>> lookup = null;
         try {
+            // Turn away a session making too many lookups before doing any I/O for it
+            if (!sessionLookupLimiter.tryAcquire(sessionId)) {
+                return tooManyLookups();
+            }
+            // Call OS while the session is read, so the two round trips overlap. Without a session
+            // id validation is bound to fail, so nothing is spent on a lookup
+            if (sessionId != null) {
+                lookup =
+                        postcodeLookupService.lookupPostcodeAsync(
+                                postcode, Deadline.fromContext(context, RESPONSE_RESERVE));
+            }
             SessionItem sessionItem = sessionService.validateSessionId(sessionId);
-            List<CanonicalAddress> results = postcodeLookupService.lookupPostcode(postcode);
+            if (!sessionLookupLimiter.tryAcquireShared(sessionItem.getSessionId())) {
+                return tooManyLookups();
+            }
+            List<CanonicalAddress> results = awaitLookup(lookup);
             auditService.sendAuditEvent(
                     AuditEventType.REQUEST_SENT,
                     postcodeLookupService.getAuditEventContext(
                             postcode, input.getHeaders(), sessionItem));
+            // Send the event while the response is serialised, but not return before it is sent
+            auditService.flushAsync();
             eventProbe.counterMetric(LAMBDA_NAME);
 
-            return ApiGatewayResponseGenerator.proxyJsonResponse(HttpStatusCode.OK, results);
+            APIGatewayProxyResponseEvent response =
+                    ApiGatewayResponseGenerator.proxyJsonResponse(HttpStatusCode.OK, results);
+            auditFlushed = true;
+            auditService.flush();
+            return response;
 
         } catch (PostcodeLookupValidationException e) {
             eventProbe.log(Level.ERROR, e).counterMetric(LAMBDA_NAME, 0d);
@@ -86,6 +130,14 @@ public class PostcodeLookupHandler
                     OAuth2Error.INVALID_REQUEST
                             .appendDescription(" - " + INVALID_POSTCODE.getErrorSummary())
                             .toJSONObject());
+        } catch (OrdnanceSurveyUnavailableException e) {
+            // Answer straight away so the user can carry on by entering their address by hand
+            eventProbe.log(Level.WARN, e).counterMetric(LAMBDA_NAME, 0d);
+            return ApiGatewayResponseGenerator.proxyJsonResponse(
+                    OAuth2Error.TEMPORARILY_UNAVAILABLE.getHTTPStatusCode(),
+                    OAuth2Error.TEMPORARILY_UNAVAILABLE
+                            .appendDescription(" - " + LOOKUP_UNAVAILABLE)
+                            .toJSONObject());
         } catch (SessionExpiredException e) {
             eventProbe.log(Level.ERROR, e).counterMetric(LAMBDA_NAME, 0d);
             return ApiGatewayResponseGenerator.proxyJsonResponse(
@@ -105,6 +157,50 @@ public class PostcodeLookupHandler
             return ApiGatewayResponseGenerator.proxyJsonResponse(
                     HttpStatusCode.INTERNAL_SERVER_ERROR,
                     ErrorResponse.SERVER_ERROR.getErrorSummary());
+        } finally {
+            if (lookup != null) {
+                // Drops the result if the request was turned away before it was needed; a lookup
+                // that still completes only warms the cache
+                lookup.cancel(false);
+            }
+            if (!auditFlushed) {
+                flushAuditEvents();
+            }
+        }
+    }
+
+    private static List<CanonicalAddress> awaitLookup(
+            CompletableFuture<List<CanonicalAddress>> lookup) throws JsonProcessingException {
+        try {
+            return lookup.join();
+        } catch (CompletionException e) {
+            // Rethrow what the lookup threw, so it is reported as it would be if run inline
+            if (e.getCause() instanceof JsonProcessingException) {
+                throw (JsonProcessingException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
     }
+
+    // Nothing a failed invocation queued may be left for, or blamed on, the next one
+    private void flushAuditEvents() {
+        try {
+            auditService.flush();
+        } catch (SqsException e) {
+            eventProbe.log(Level.ERROR, e);
+        }
+    }
+
+    private APIGatewayProxyResponseEvent tooManyLookups() {
+        eventProbe.counterMetric(LAMBDA_NAME, 0d);
+        return ApiGatewayResponseGenerator.proxyJsonResponse(
+                TOO_MANY_REQUESTS,
+                OAuth2Error.TEMPORARILY_UNAVAILABLE
+                        .setHTTPStatusCode(TOO_MANY_REQUESTS)
+                        .appendDescription(" - " + TOO_MANY_LOOKUPS)
+                        .toJSONObject());
+    }
 }
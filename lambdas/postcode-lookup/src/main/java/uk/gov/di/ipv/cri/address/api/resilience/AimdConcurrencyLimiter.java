@@ -0,0 +1,111 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+
+/**
+ * Caps how many OS requests a container has in flight, adapting the cap to how OS is responding.
+ *
+ * <p>The limit grows by one for each fast, successful call made while at least half of it was in
+ * use, and shrinks by {@code backoffRatio} whenever a call is slower than the latency threshold or
+ * fails (additive increase, multiplicative decrease). Calls over the limit are refused straight
+ * away rather than queued, so a struggling OS sees less traffic instead of a backlog.
+ */
+public class AimdConcurrencyLimiter {
+
+    public static final String INITIAL_LIMIT = "OS_CONCURRENCY_INITIAL_LIMIT";
+    public static final String MIN_LIMIT = "OS_CONCURRENCY_MIN_LIMIT";
+    public static final String MAX_LIMIT = "OS_CONCURRENCY_MAX_LIMIT";
+    public static final String LATENCY_THRESHOLD_MILLIS = "OS_CONCURRENCY_LATENCY_THRESHOLD_MILLIS";
+
+    static final String SHED_METRIC = "postcode_lookup_os_concurrency_shed";
+
+    private static final int DEFAULT_INITIAL_LIMIT = 10;
+    private static final int DEFAULT_MIN_LIMIT = 1;
+    private static final int DEFAULT_MAX_LIMIT = 50;
+    private static final long DEFAULT_LATENCY_THRESHOLD_MILLIS = 1_000L;
+    private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final Duration latencyThreshold;
+    private final double backoffRatio;
+    private final EventProbe eventProbe;
+
+    private double limit;
+    private int inFlight;
+
+    public AimdConcurrencyLimiter(
+            int initialLimit,
+            int minLimit,
+            int maxLimit,
+            Duration latencyThreshold,
+            double backoffRatio,
+            EventProbe eventProbe) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("minLimit must be between 1 and maxLimit");
+        }
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThreshold = latencyThreshold;
+        this.backoffRatio = backoffRatio;
+        this.eventProbe = eventProbe;
+    }
+
+    public static AimdConcurrencyLimiter fromEnvironment(EventProbe eventProbe) {
+        return new AimdConcurrencyLimiter(
+                EnvironmentVariables.getInt(INITIAL_LIMIT, DEFAULT_INITIAL_LIMIT),
+                EnvironmentVariables.getInt(MIN_LIMIT, DEFAULT_MIN_LIMIT),
+                EnvironmentVariables.getInt(MAX_LIMIT, DEFAULT_MAX_LIMIT),
+                Duration.ofMillis(
+                        EnvironmentVariables.getLong(
+                                LATENCY_THRESHOLD_MILLIS, DEFAULT_LATENCY_THRESHOLD_MILLIS)),
+                DEFAULT_BACKOFF_RATIO,
+                eventProbe);
+    }
+
+    /** Returns whether a call may start; every permitted call must be followed by one outcome. */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            eventProbe.counterMetric(SHED_METRIC);
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void onSuccess(Duration latency) {
+        int wasInFlight = inFlight--;
+        if (latency.compareTo(latencyThreshold) > 0) {
+            decrease();
+        } else if (wasInFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    /** The call failed or was throttled by OS. */
+    public synchronized void onDropped() {
+        inFlight--;
+        decrease();
+    }
+
+    /** Gives back a permit whose call ended without telling us anything about OS. */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+}
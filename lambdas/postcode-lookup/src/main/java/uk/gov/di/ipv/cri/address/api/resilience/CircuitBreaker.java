@@ -0,0 +1,168 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * Count-based circuit breaker for calls to OS Places.
+ *
+ * <p>The outcomes of the last {@code windowSize} calls are kept, and once at least {@code
+ * minimumCalls} have been seen the breaker opens if the failure percentage reaches the threshold.
+ * While open every call is refused. After {@code openDuration} a single trial call is let through:
+ * success closes the breaker and failure opens it again. Each transition is counted through {@link
+ * EventProbe}.
+ */
+public class CircuitBreaker {
+
+    public static final String WINDOW_SIZE = "OS_CIRCUIT_WINDOW_SIZE";
+    public static final String MINIMUM_CALLS = "OS_CIRCUIT_MINIMUM_CALLS";
+    public static final String FAILURE_RATE_THRESHOLD = "OS_CIRCUIT_FAILURE_RATE_THRESHOLD";
+    public static final String OPEN_SECONDS = "OS_CIRCUIT_OPEN_SECONDS";
+
+    static final String METRIC_PREFIX = "postcode_lookup_circuit_";
+    static final String REJECTED_METRIC = METRIC_PREFIX + "rejected";
+
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+    private static final int DEFAULT_MINIMUM_CALLS = 10;
+    private static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    private static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final Duration openDuration;
+    private final EventProbe eventProbe;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private Instant openedAt = Instant.MIN;
+    private boolean trialInFlight;
+    private int recorded;
+    private int next;
+    private int failures;
+
+    public CircuitBreaker(
+            int windowSize,
+            int minimumCalls,
+            int failureRateThreshold,
+            Duration openDuration,
+            EventProbe eventProbe,
+            Clock clock) {
+        if (minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException(
+                    "minimumCalls must be between 1 and the window size");
+        }
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.eventProbe = eventProbe;
+        this.clock = clock;
+    }
+
+    public static CircuitBreaker fromEnvironment(EventProbe eventProbe) {
+        return new CircuitBreaker(
+                EnvironmentVariables.getInt(WINDOW_SIZE, DEFAULT_WINDOW_SIZE),
+                EnvironmentVariables.getInt(MINIMUM_CALLS, DEFAULT_MINIMUM_CALLS),
+                EnvironmentVariables.getInt(FAILURE_RATE_THRESHOLD, DEFAULT_FAILURE_RATE_THRESHOLD),
+                EnvironmentVariables.getSeconds(OPEN_SECONDS, DEFAULT_OPEN_DURATION),
+                eventProbe,
+                Clock.systemUTC());
+    }
+
+    /** Returns whether a call may be made; every permitted call must be followed by a record. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.instant().isBefore(openedAt.plus(openDuration))) {
+                eventProbe.counterMetric(REJECTED_METRIC);
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                eventProbe.counterMetric(REJECTED_METRIC);
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        record(false);
+    }
+
+    public synchronized void recordFailure() {
+        record(true);
+    }
+
+    /** Gives back a permit whose call ended without telling us anything about OS. */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        switch (state) {
+            case HALF_OPEN:
+                trialInFlight = false;
+                if (failure) {
+                    open();
+                } else {
+                    clearWindow();
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                if (recorded == outcomes.length) {
+                    failures -= outcomes[next] ? 1 : 0;
+                } else {
+                    recorded++;
+                }
+                outcomes[next] = failure;
+                failures += failure ? 1 : 0;
+                next = (next + 1) % outcomes.length;
+
+                if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+                    open();
+                }
+                break;
+            default:
+                // A call that started before the breaker opened, nothing to learn from it
+        }
+    }
+
+    private void open() {
+        openedAt = clock.instant();
+        clearWindow();
+        transitionTo(State.OPEN);
+    }
+
+    private void clearWindow() {
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    private void transitionTo(State nextState) {
+        state = nextState;
+        eventProbe.counterMetric(METRIC_PREFIX + nextState.name().toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,55 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import java.time.Duration;
+
+/** The point by which work for the current invocation has to be finished. */
+public final class Deadline {
+
+    private static final Deadline UNBOUNDED = new Deadline(0L, false);
+
+    private final long expiresAtNanos;
+    private final boolean bounded;
+
+    private Deadline(long expiresAtNanos, boolean bounded) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.bounded = bounded;
+    }
+
+    public static Deadline unbounded() {
+        return UNBOUNDED;
+    }
+
+    public static Deadline after(Duration duration) {
+        return new Deadline(System.nanoTime() + duration.toNanos(), true);
+    }
+
+    /**
+     * The time Lambda has left for this invocation, less {@code reserve} for sending the response.
+     * Without a context, e.g. in tests, there is no deadline.
+     */
+    public static Deadline fromContext(Context context, Duration reserve) {
+        if (context == null) {
+            return UNBOUNDED;
+        }
+        return after(Duration.ofMillis(context.getRemainingTimeInMillis()).minus(reserve));
+    }
+
+    public Duration remaining() {
+        if (!bounded) {
+            return Duration.ofNanos(Long.MAX_VALUE);
+        }
+        return Duration.ofNanos(Math.max(0L, expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return remaining().isZero();
+    }
+
+    /** Returns {@code timeout}, shortened if the deadline comes first. */
+    public Duration cap(Duration timeout) {
+        Duration remaining = remaining();
+        return remaining.compareTo(timeout) < 0 ? remaining : timeout;
+    }
+}
@@ -0,0 +1,256 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fleet-wide token bucket for OS Places calls, held as one DynamoDB item per API key.
+ *
+ * <p>A container takes a lease of tokens at a time and spends them locally. Leases are taken with a
+ * read followed by an update conditional on the bucket not having changed in between, and unused
+ * tokens are dropped once the lease expires so an idle container cannot hoard capacity. Leases are
+ * sized to demand: a container starts with one token, and only doubles its next lease, up to
+ * {@value #MAX_LEASE_SIZE}, while it keeps using up a lease before it expires. A quiet container
+ * therefore costs the fleet at most the token it uses, while a busy one writes to DynamoDB less
+ * often. If DynamoDB cannot be reached calls are allowed through, since OS enforces its own limit
+ * anyway.
+ */
+public class DynamoDbTokenBucket {
+
+    public static final String TABLE_NAME = "OS_RATE_LIMIT_TABLE_NAME";
+    public static final String TOKENS_PER_SECOND = "OS_RATE_LIMIT_TOKENS_PER_SECOND";
+    public static final String BURST_CAPACITY = "OS_RATE_LIMIT_BURST_CAPACITY";
+    public static final String MAX_LEASE_SIZE = "OS_RATE_LIMIT_MAX_LEASE_SIZE";
+    public static final String LEASE_MILLIS = "OS_RATE_LIMIT_LEASE_MILLIS";
+
+    static final String BUCKET_ID = "bucketId";
+    static final String TOKENS = "tokens";
+    static final String REFILLED_AT = "refilledAt";
+
+    static final String RATE_LIMITED_METRIC = "postcode_lookup_rate_limited";
+    static final String LEASE_METRIC = "postcode_lookup_rate_limit_lease";
+    static final String CONTENTION_METRIC = "postcode_lookup_rate_limit_contention";
+    static final String ERROR_METRIC = "postcode_lookup_rate_limit_error";
+
+    private static final long DEFAULT_TOKENS_PER_SECOND = 10L;
+    private static final long DEFAULT_BURST_CAPACITY = 20L;
+    private static final int DEFAULT_MAX_LEASE_SIZE = 5;
+    private static final long DEFAULT_LEASE_MILLIS = 1_000L;
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
+    private static final String BUCKET_PREFIX = "os-places#";
+
+    private final DynamoDbClient client;
+    private final String tableName;
+    private final double tokensPerSecond;
+    private final double capacity;
+    private final int maxLeaseSize;
+    private final Duration leaseDuration;
+    private final EventProbe eventProbe;
+    private final Clock clock;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Logger log = LogManager.getLogger();
+
+    public DynamoDbTokenBucket(
+            DynamoDbClient client,
+            String tableName,
+            double tokensPerSecond,
+            double capacity,
+            int maxLeaseSize,
+            Duration leaseDuration,
+            EventProbe eventProbe,
+            Clock clock) {
+        this.client = client;
+        this.tableName = tableName;
+        this.tokensPerSecond = tokensPerSecond;
+        this.capacity = capacity;
+        this.maxLeaseSize = maxLeaseSize;
+        this.leaseDuration = leaseDuration;
+        this.eventProbe = eventProbe;
+        this.clock = clock;
+    }
+
+    public static DynamoDbTokenBucket disabled() {
+        return new DynamoDbTokenBucket(null, null, 0, 0, 0, Duration.ZERO, null, Clock.systemUTC());
+    }
+
+    public static DynamoDbTokenBucket fromEnvironment(EventProbe eventProbe) {
+        String tableName = EnvironmentVariables.getString(TABLE_NAME, null);
+        if (tableName == null) {
+            return disabled();
+        }
+        return new DynamoDbTokenBucket(
+                DynamoDbClient.create(),
+                tableName,
+                EnvironmentVariables.getLong(TOKENS_PER_SECOND, DEFAULT_TOKENS_PER_SECOND),
+                EnvironmentVariables.getLong(BURST_CAPACITY, DEFAULT_BURST_CAPACITY),
+                EnvironmentVariables.getInt(MAX_LEASE_SIZE, DEFAULT_MAX_LEASE_SIZE),
+                Duration.ofMillis(EnvironmentVariables.getLong(LEASE_MILLIS, DEFAULT_LEASE_MILLIS)),
+                eventProbe,
+                Clock.systemUTC());
+    }
+
+    /** Takes one token for the given key, returning false if the fleet is at its limit. */
+    public boolean tryAcquire(String apiKey) {
+        if (client == null) {
+            return true;
+        }
+
+        String bucketId = bucketId(apiKey);
+        Lease lease = leases.computeIfAbsent(bucketId, id -> new Lease());
+        synchronized (lease) {
+            Instant now = clock.instant();
+            if (lease.take(now)) {
+                return true;
+            }
+
+            int wanted = lease.nextSize(now, maxLeaseSize);
+            int granted;
+            try {
+                granted = leaseFromTable(bucketId, wanted, now);
+            } catch (SdkException e) {
+                log.warn("Rate limit table unavailable, allowing call", e);
+                eventProbe.counterMetric(ERROR_METRIC);
+                return true;
+            }
+            if (granted == 0) {
+                eventProbe.counterMetric(RATE_LIMITED_METRIC);
+                return false;
+            }
+
+            eventProbe.counterMetric(LEASE_METRIC);
+            lease.renew(wanted, granted - 1, now.plus(leaseDuration));
+            return true;
+        }
+    }
+
+    private int leaseFromTable(String bucketId, int wanted, Instant now) {
+        Map<String, AttributeValue> key =
+                Map.of(BUCKET_ID, AttributeValue.builder().s(bucketId).build());
+        for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            Map<String, AttributeValue> item =
+                    client.getItem(
+                                    GetItemRequest.builder()
+                                            .tableName(tableName)
+                                            .key(key)
+                                            .consistentRead(true)
+                                            .build())
+                            .item();
+            boolean exists = item != null && !item.isEmpty();
+
+            double tokens = exists ? Double.parseDouble(item.get(TOKENS).n()) : capacity;
+            long refilledAt =
+                    exists ? Long.parseLong(item.get(REFILLED_AT).n()) : now.toEpochMilli();
+            long elapsedMillis = Math.max(0L, now.toEpochMilli() - refilledAt);
+            double available = Math.min(capacity, tokens + elapsedMillis * tokensPerSecond / 1000d);
+            int granted = (int) Math.min(wanted, Math.floor(available));
+            if (granted == 0) {
+                return 0;
+            }
+
+            Map<String, String> names = new HashMap<>();
+            Map<String, AttributeValue> values = new HashMap<>();
+            names.put("#tokens", TOKENS);
+            names.put("#refilledAt", REFILLED_AT);
+            values.put(":tokens", number(available - granted));
+            values.put(":now", number(now.toEpochMilli()));
+            String condition;
+            if (exists) {
+                // Both change on every lease, so together they act as the item's version
+                condition = "#tokens = :previousTokens AND #refilledAt = :previousRefilledAt";
+                values.put(":previousTokens", item.get(TOKENS));
+                values.put(":previousRefilledAt", item.get(REFILLED_AT));
+            } else {
+                condition = "attribute_not_exists(#bucketId)";
+                names.put("#bucketId", BUCKET_ID);
+            }
+
+            try {
+                client.updateItem(
+                        UpdateItemRequest.builder()
+                                .tableName(tableName)
+                                .key(key)
+                                .updateExpression("SET #tokens = :tokens, #refilledAt = :now")
+                                .conditionExpression(condition)
+                                .expressionAttributeNames(names)
+                                .expressionAttributeValues(values)
+                                .build());
+                return granted;
+            } catch (ConditionalCheckFailedException e) {
+                // Another container leased in between, so read the bucket again
+                eventProbe.counterMetric(CONTENTION_METRIC);
+            }
+        }
+        return 0;
+    }
+
+    static String bucketId(String apiKey) {
+        try {
+            byte[] digest =
+                    MessageDigest.getInstance("SHA-256")
+                            .digest(apiKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(BUCKET_PREFIX);
+            // The key itself is never stored, only enough of its hash to tell keys apart
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static AttributeValue number(double value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+
+    private static class Lease {
+        private int size;
+        private int remaining;
+        private Instant expiresAt = Instant.MIN;
+
+        private boolean take(Instant now) {
+            if (remaining > 0 && now.isBefore(expiresAt)) {
+                remaining--;
+                return true;
+            }
+            return false;
+        }
+
+        // Grows only when the last lease was used up before it expired, otherwise starts again at
+        // one
+        private int nextSize(Instant now, int maxSize) {
+            if (size > 0 && remaining == 0 && now.isBefore(expiresAt)) {
+                return Math.min(maxSize, size * 2);
+            }
+            return 1;
+        }
+
+        private void renew(int leaseSize, int tokens, Instant expiry) {
+            size = leaseSize;
+            remaining = tokens;
+            expiresAt = expiry;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+/** Keeps the most recent call latencies so that a percentile can be used as a hedging delay. */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private final int minimumSamples;
+    private int recorded;
+    private int next;
+
+    public LatencyTracker(int capacity, int minimumSamples) {
+        this.samples = new long[capacity];
+        this.minimumSamples = minimumSamples;
+    }
+
+    public synchronized void record(Duration latency) {
+        samples[next] = latency.toNanos();
+        next = (next + 1) % samples.length;
+        recorded = Math.min(recorded + 1, samples.length);
+    }
+
+    /** Empty until enough calls have been seen for the percentile to mean anything. */
+    public Optional<Duration> percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (recorded < minimumSamples) {
+                return Optional.empty();
+            }
+            sorted = Arrays.copyOf(samples, recorded);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return Optional.of(Duration.ofNanos(sorted[Math.max(0, index)]));
+    }
+}
@@ -0,0 +1,123 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded retries with decorrelated jitter for throttled or briefly unavailable OS calls.
+ *
+ * <p>Each delay is drawn at random between the base delay and three times the previous delay, and
+ * capped at the maximum, so callers that were throttled together spread out rather than retrying in
+ * step. A {@code Retry-After} header from OS is honoured when it asks for longer than that.
+ */
+public class RetryPolicy {
+
+    public static final String MAX_ATTEMPTS = "OS_RETRY_MAX_ATTEMPTS";
+    public static final String BASE_DELAY_MILLIS = "OS_RETRY_BASE_DELAY_MILLIS";
+    public static final String MAX_DELAY_MILLIS = "OS_RETRY_MAX_DELAY_MILLIS";
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 100L;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 2_000L;
+
+    @FunctionalInterface
+    public interface Sleeper {
+        void sleep(Duration duration) throws InterruptedException;
+    }
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final Sleeper sleeper;
+    private final Clock clock;
+
+    public RetryPolicy(
+            int maxAttempts, Duration baseDelay, Duration maxDelay, Sleeper sleeper, Clock clock) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.sleeper = sleeper;
+        this.clock = clock;
+    }
+
+    public static RetryPolicy fromEnvironment() {
+        return new RetryPolicy(
+                EnvironmentVariables.getInt(MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS),
+                Duration.ofMillis(
+                        EnvironmentVariables.getLong(BASE_DELAY_MILLIS, DEFAULT_BASE_DELAY_MILLIS)),
+                Duration.ofMillis(
+                        EnvironmentVariables.getLong(MAX_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS)),
+                duration -> TimeUnit.NANOSECONDS.sleep(duration.toNanos()),
+                Clock.systemUTC());
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /** Throttling and gateway errors are worth another try; other failures are not. */
+    public boolean isRetryable(int statusCode) {
+        switch (statusCode) {
+            case 429:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** The delay before the next attempt, given the previous one ({@code ZERO} for the first). */
+    public Duration nextDelay(Duration previous) {
+        long base = baseDelay.toNanos();
+        long upper = Math.min(maxDelay.toNanos(), Math.max(base, previous.toNanos() * 3));
+        if (upper <= base) {
+            return Duration.ofNanos(upper);
+        }
+        return Duration.ofNanos(ThreadLocalRandom.current().nextLong(base, upper + 1));
+    }
+
+    /** The jittered delay, or the server's {@code Retry-After} if that asks for longer. */
+    public Duration delayFor(HttpHeaders headers, Duration jittered) {
+        return retryAfter(headers).filter(wait -> wait.compareTo(jittered) > 0).orElse(jittered);
+    }
+
+    public void sleep(Duration duration) throws InterruptedException {
+        sleeper.sleep(duration);
+    }
+
+    public Optional<Duration> retryAfter(HttpHeaders headers) {
+        Optional<String> value = headers.firstValue("Retry-After").map(String::trim);
+        if (value.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Duration.ofSeconds(Math.max(0L, Long.parseLong(value.get()))));
+        } catch (NumberFormatException e) {
+            // Not delta-seconds, so try an HTTP date
+        }
+        try {
+            Duration wait =
+                    Duration.between(
+                            clock.instant(),
+                            ZonedDateTime.parse(value.get(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                                    .toInstant());
+            return Optional.of(wait.isNegative() ? Duration.ZERO : wait);
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+}
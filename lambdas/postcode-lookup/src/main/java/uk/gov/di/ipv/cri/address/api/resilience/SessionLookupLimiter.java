@@ -0,0 +1,172 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Limits how many postcode lookups a single session can make.
+ *
+ * <p>Each container keeps a token bucket per session id header, checked before anything else so
+ * that a client hammering the endpoint is turned away without any I/O. Buckets for made-up ids are
+ * bounded in number and soon evicted. Since a session's requests are spread across containers, a
+ * lifetime count can also be kept on the session item itself; that check costs one conditional
+ * write, so is only made once the session has been validated. If the session table cannot be
+ * written to, lookups are allowed through and only the local bucket applies.
+ */
+public class SessionLookupLimiter {
+
+    public static final String BURST = "POSTCODE_SESSION_LOOKUP_BURST";
+    public static final String LOOKUPS_PER_MINUTE = "POSTCODE_SESSION_LOOKUPS_PER_MINUTE";
+    public static final String MAX_LOOKUPS = "POSTCODE_SESSION_MAX_LOOKUPS";
+    public static final String COUNTER_TABLE_NAME = "POSTCODE_SESSION_COUNTER_TABLE_NAME";
+
+    static final String SESSION_ID = "sessionId";
+    static final String LOOKUP_COUNT = "postcodeLookupCount";
+
+    static final String LIMITED_METRIC = "postcode_lookup_session_limited";
+    static final String COUNTER_LIMITED_METRIC = "postcode_lookup_session_counter_limited";
+    static final String COUNTER_ERROR_METRIC = "postcode_lookup_session_counter_error";
+
+    private static final long DEFAULT_BURST = 10L;
+    private static final long DEFAULT_LOOKUPS_PER_MINUTE = 6L;
+    private static final long DEFAULT_MAX_LOOKUPS = 100L;
+    private static final long MAXIMUM_SESSIONS = 10_000L;
+
+    private final double burst;
+    private final double lookupsPerMilli;
+    private final DynamoDbClient client;
+    private final String tableName;
+    private final long maxLookups;
+    private final EventProbe eventProbe;
+    private final Clock clock;
+    private final Cache<String, Bucket> buckets;
+    private final Logger log = LogManager.getLogger();
+
+    public SessionLookupLimiter(
+            double burst,
+            double lookupsPerMinute,
+            DynamoDbClient client,
+            String tableName,
+            long maxLookups,
+            EventProbe eventProbe,
+            Clock clock) {
+        this.burst = burst;
+        this.lookupsPerMilli = lookupsPerMinute / Duration.ofMinutes(1).toMillis();
+        this.client = client;
+        this.tableName = tableName;
+        this.maxLookups = maxLookups;
+        this.eventProbe = eventProbe;
+        this.clock = clock;
+        this.buckets =
+                Caffeine.newBuilder()
+                        .maximumSize(MAXIMUM_SESSIONS)
+                        // An idle bucket has refilled by then, so dropping it changes nothing
+                        .expireAfterAccess(
+                                Duration.ofMillis((long) Math.ceil(burst / lookupsPerMilli)))
+                        .executor(Runnable::run)
+                        .build();
+    }
+
+    public static SessionLookupLimiter fromEnvironment(EventProbe eventProbe) {
+        String tableName = EnvironmentVariables.getString(COUNTER_TABLE_NAME, null);
+        return new SessionLookupLimiter(
+                EnvironmentVariables.getLong(BURST, DEFAULT_BURST),
+                EnvironmentVariables.getLong(LOOKUPS_PER_MINUTE, DEFAULT_LOOKUPS_PER_MINUTE),
+                tableName == null ? null : DynamoDbClient.create(),
+                tableName,
+                EnvironmentVariables.getLong(MAX_LOOKUPS, DEFAULT_MAX_LOOKUPS),
+                eventProbe,
+                Clock.systemUTC());
+    }
+
+    /** Takes a token from this container's bucket for the session, without any I/O. */
+    public boolean tryAcquire(String sessionId) {
+        if (sessionId == null) {
+            // Session validation will turn the request away
+            return true;
+        }
+
+        Bucket bucket = buckets.get(sessionId, id -> new Bucket(burst, clock.instant()));
+        synchronized (bucket) {
+            if (bucket.take(clock.instant(), burst, lookupsPerMilli)) {
+                return true;
+            }
+        }
+        eventProbe.counterMetric(LIMITED_METRIC);
+        return false;
+    }
+
+    /** Counts the lookup on the session item, returning false once the session has used them up. */
+    public boolean tryAcquireShared(UUID sessionId) {
+        if (client == null) {
+            return true;
+        }
+
+        Map<String, AttributeValue> key =
+                Map.of(SESSION_ID, AttributeValue.builder().s(sessionId.toString()).build());
+        try {
+            client.updateItem(
+                    UpdateItemRequest.builder()
+                            .tableName(tableName)
+                            .key(key)
+                            .updateExpression("ADD #count :one")
+                            // Never create an item for a session that has gone
+                            .conditionExpression(
+                                    "attribute_exists(#sessionId)"
+                                            + " AND (attribute_not_exists(#count) OR #count < :max)")
+                            .expressionAttributeNames(
+                                    Map.of("#sessionId", SESSION_ID, "#count", LOOKUP_COUNT))
+                            .expressionAttributeValues(
+                                    Map.of(":one", number(1L), ":max", number(maxLookups)))
+                            .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            eventProbe.counterMetric(COUNTER_LIMITED_METRIC);
+            return false;
+        } catch (SdkException e) {
+            log.warn("Session lookup counter unavailable, allowing lookup", e);
+            eventProbe.counterMetric(COUNTER_ERROR_METRIC);
+            return true;
+        }
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(String.valueOf(value)).build();
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private Instant refilledAt;
+
+        private Bucket(double tokens, Instant refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+
+        private boolean take(Instant now, double capacity, double tokensPerMilli) {
+            long elapsedMillis = Math.max(0L, Duration.between(refilledAt, now).toMillis());
+            tokens = Math.min(capacity, tokens + elapsedMillis * tokensPerMilli);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
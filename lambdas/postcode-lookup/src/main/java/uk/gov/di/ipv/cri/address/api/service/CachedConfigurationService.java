@@ -0,0 +1,90 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds SSM parameters and Secrets Manager values in memory so that a warm container does not wait
+ * on either service.
+ *
+ * <p>Once a value is older than its TTL the next read still returns it straight away and a reload
+ * runs in the background; if the reload fails the old value is kept. Only the very first read of a
+ * key, or the first read after {@link #invalidateSecret(String)}, goes to AWS on the caller's
+ * thread.
+ */
+public class CachedConfigurationService {
+
+    public static final String PARAMETER_TTL_SECONDS = "CONFIG_PARAMETER_CACHE_TTL_SECONDS";
+    public static final String SECRET_TTL_SECONDS = "CONFIG_SECRET_CACHE_TTL_SECONDS";
+
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final LoadingCache<String, String> parameters;
+    private final LoadingCache<String, String> secrets;
+
+    public CachedConfigurationService(
+            ConfigurationService configurationService,
+            Duration parameterTimeToLive,
+            Duration secretTimeToLive) {
+        this(
+                configurationService,
+                parameterTimeToLive,
+                secretTimeToLive,
+                ForkJoinPool.commonPool(),
+                Ticker.systemTicker());
+    }
+
+    CachedConfigurationService(
+            ConfigurationService configurationService,
+            Duration parameterTimeToLive,
+            Duration secretTimeToLive,
+            Executor executor,
+            Ticker ticker) {
+        this.parameters =
+                Caffeine.newBuilder()
+                        .refreshAfterWrite(parameterTimeToLive)
+                        .executor(executor)
+                        .ticker(ticker)
+                        .build(configurationService::getParameterValue);
+        this.secrets =
+                Caffeine.newBuilder()
+                        .refreshAfterWrite(secretTimeToLive)
+                        .executor(executor)
+                        .ticker(ticker)
+                        .build(configurationService::getSecretValue);
+    }
+
+    public static CachedConfigurationService fromEnvironment(
+            ConfigurationService configurationService) {
+        return new CachedConfigurationService(
+                configurationService,
+                EnvironmentVariables.getSeconds(PARAMETER_TTL_SECONDS, DEFAULT_TTL),
+                EnvironmentVariables.getSeconds(SECRET_TTL_SECONDS, DEFAULT_TTL));
+    }
+
+    public String getParameterValue(String name) {
+        return parameters.get(name);
+    }
+
+    public String getSecretValue(String name) {
+        return secrets.get(name);
+    }
+
+    /** Loads the given parameters and secrets in the background, e.g. during Lambda init. */
+    public void prefetch(String parameterName, String secretName) {
+        parameters.refresh(parameterName);
+        secrets.refresh(secretName);
+    }
+
+    /** Drops a secret that has been rejected, so the next read fetches the current value. */
+    public void invalidateSecret(String name) {
+        secrets.invalidate(name);
+    }
+}
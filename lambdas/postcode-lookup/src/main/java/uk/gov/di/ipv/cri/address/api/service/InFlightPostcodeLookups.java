@@ -0,0 +1,103 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import uk.gov.di.ipv.cri.address.api.cache.PostcodeResultCache;
+import uk.gov.di.ipv.cri.address.api.exceptions.OrdnanceSurveyUnavailableException;
+import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Makes concurrent lookups of the same postcode share one OS call.
+ *
+ * <p>The first caller for a normalised postcode runs the lookup and every caller that arrives while
+ * it is in flight waits on the same {@link CompletableFuture}, receiving its result or exception.
+ * Each caller waits only until its own {@link Deadline}, so a stalled lookup can't hold a caller
+ * past the time it has left. The lookup writes its result to the tiered cache before completing, so
+ * callers in other containers are served by the shared Redis tier once it lands.
+ */
+public class InFlightPostcodeLookups {
+
+    static final String COALESCED_METRIC = "postcode_lookup_coalesced";
+
+    private final Map<String, CompletableFuture<List<CanonicalAddress>>> inFlight =
+            new ConcurrentHashMap<>();
+    private final EventProbe eventProbe;
+
+    public InFlightPostcodeLookups(EventProbe eventProbe) {
+        this.eventProbe = eventProbe;
+    }
+
+    @FunctionalInterface
+    public interface Lookup {
+        List<CanonicalAddress> run()
+                throws PostcodeLookupProcessingException, JsonProcessingException;
+    }
+
+    public List<CanonicalAddress> coalesce(String postcode, Lookup lookup)
+            throws PostcodeLookupProcessingException, JsonProcessingException {
+        return coalesce(postcode, Deadline.unbounded(), lookup);
+    }
+
+    public List<CanonicalAddress> coalesce(String postcode, Deadline deadline, Lookup lookup)
+            throws PostcodeLookupProcessingException, JsonProcessingException {
+        String key = PostcodeResultCache.normalise(postcode);
+        CompletableFuture<List<CanonicalAddress>> future = new CompletableFuture<>();
+        CompletableFuture<List<CanonicalAddress>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            eventProbe.counterMetric(COALESCED_METRIC);
+            return await(existing, deadline);
+        }
+
+        try {
+            List<CanonicalAddress> addresses = lookup.run();
+            future.complete(addresses);
+            return addresses;
+        } catch (JsonProcessingException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static List<CanonicalAddress> await(
+            CompletableFuture<List<CanonicalAddress>> future, Deadline deadline)
+            throws PostcodeLookupProcessingException, JsonProcessingException {
+        try {
+            return future.get(deadline.remaining().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new OrdnanceSurveyUnavailableException(
+                    "Ran out of time waiting for a lookup of the same postcode", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PostcodeLookupProcessingException(
+                    "Interrupted waiting for postcode lookup", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JsonProcessingException) {
+                throw (JsonProcessingException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PostcodeLookupProcessingException("Error in postcode lookup", cause);
+        }
+    }
+}
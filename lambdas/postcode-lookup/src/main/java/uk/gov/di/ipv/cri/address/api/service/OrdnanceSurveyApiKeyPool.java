@@ -0,0 +1,247 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The OS API keys available to postcode lookups, chosen by smooth weighted round-robin.
+ *
+ * <p>The {@code OrdnanceSurveyAPIKey} secret holds either a single key or a JSON array of keys,
+ * each a string or an object such as {@code {"key": "...", "weight": 2}}. A key that OS throttles
+ * (429) is taken out of rotation for a while. A key that OS rejects (401) or that keeps erroring is
+ * taken out too, but only while another key is healthy, so the last key is never benched for
+ * minutes on the strength of one response. A 401 also drops the cached secret so a rotated value is
+ * picked up, and every key in a changed secret starts afresh.
+ */
+public class OrdnanceSurveyApiKeyPool {
+
+    public static final String UNAUTHORISED_COOLDOWN_SECONDS =
+            "OS_KEY_UNAUTHORISED_COOLDOWN_SECONDS";
+    public static final String THROTTLED_COOLDOWN_SECONDS = "OS_KEY_THROTTLED_COOLDOWN_SECONDS";
+    public static final String ERROR_COOLDOWN_SECONDS = "OS_KEY_ERROR_COOLDOWN_SECONDS";
+
+    static final String UNAUTHORISED_METRIC = "postcode_lookup_os_key_unauthorised";
+    static final String THROTTLED_METRIC = "postcode_lookup_os_key_throttled";
+    static final String ERROR_METRIC = "postcode_lookup_os_key_error";
+
+    private static final Duration DEFAULT_UNAUTHORISED_COOLDOWN = Duration.ofMinutes(5);
+    private static final Duration DEFAULT_THROTTLED_COOLDOWN = Duration.ofSeconds(2);
+    private static final Duration DEFAULT_ERROR_COOLDOWN = Duration.ofSeconds(30);
+    private static final int ERROR_THRESHOLD = 3;
+
+    private final CachedConfigurationService configuration;
+    private final Duration unauthorisedCooldown;
+    private final Duration throttledCooldown;
+    private final Duration errorCooldown;
+    private final EventProbe eventProbe;
+    private final Clock clock;
+
+    private final Map<String, KeyState> states = new HashMap<>();
+    private String poolSecret;
+    private List<KeyState> pool = List.of();
+
+    public OrdnanceSurveyApiKeyPool(
+            CachedConfigurationService configuration,
+            Duration unauthorisedCooldown,
+            Duration throttledCooldown,
+            Duration errorCooldown,
+            EventProbe eventProbe,
+            Clock clock) {
+        this.configuration = configuration;
+        this.unauthorisedCooldown = unauthorisedCooldown;
+        this.throttledCooldown = throttledCooldown;
+        this.errorCooldown = errorCooldown;
+        this.eventProbe = eventProbe;
+        this.clock = clock;
+    }
+
+    public static OrdnanceSurveyApiKeyPool fromEnvironment(
+            CachedConfigurationService configuration, EventProbe eventProbe) {
+        return new OrdnanceSurveyApiKeyPool(
+                configuration,
+                EnvironmentVariables.getSeconds(
+                        UNAUTHORISED_COOLDOWN_SECONDS, DEFAULT_UNAUTHORISED_COOLDOWN),
+                EnvironmentVariables.getSeconds(
+                        THROTTLED_COOLDOWN_SECONDS, DEFAULT_THROTTLED_COOLDOWN),
+                EnvironmentVariables.getSeconds(ERROR_COOLDOWN_SECONDS, DEFAULT_ERROR_COOLDOWN),
+                eventProbe,
+                Clock.systemUTC());
+    }
+
+    /** The next key to use, or empty while every key is out of rotation. */
+    public synchronized Optional<String> select() {
+        Instant now = clock.instant();
+        KeyState selected = null;
+        int totalWeight = 0;
+        for (KeyState state : currentPool()) {
+            if (state.isAvailable(now)) {
+                state.currentWeight += state.weight;
+                totalWeight += state.weight;
+                if (selected == null || state.currentWeight > selected.currentWeight) {
+                    selected = state;
+                }
+            }
+        }
+        if (selected == null) {
+            return Optional.empty();
+        }
+        selected.currentWeight -= totalWeight;
+        return Optional.of(selected.key);
+    }
+
+    /** Whether a key other than the one given is in rotation, so a lookup can move to it. */
+    public synchronized boolean hasAvailableKeyBesides(String key) {
+        Instant now = clock.instant();
+        return currentPool().stream()
+                .anyMatch(state -> !state.key.equals(key) && state.isAvailable(now));
+    }
+
+    /** How long until a key is back in rotation, zero if one is available now. */
+    public synchronized Duration untilNextAvailable() {
+        Instant now = clock.instant();
+        return currentPool().stream()
+                .map(state -> state.isAvailable(now) ? now : state.unavailableUntil)
+                .min(Instant::compareTo)
+                .map(next -> Duration.between(now, next))
+                .orElse(Duration.ZERO);
+    }
+
+    public synchronized void recordSuccess(String key) {
+        stateOf(key).ifPresent(state -> state.consecutiveErrors = 0);
+    }
+
+    public void recordUnauthorised(String key) {
+        eventProbe.counterMetric(UNAUTHORISED_METRIC);
+        synchronized (this) {
+            Instant now = clock.instant();
+            if (healthyKeys(now) > 1) {
+                stateOf(key).ifPresent(state -> state.coolDown(now, unauthorisedCooldown));
+            }
+        }
+        // The key may have been rotated, so fetch the secret again on the next selection
+        configuration.invalidateSecret(OrdnanceSurveyRequestTemplate.API_KEY_SECRET);
+    }
+
+    public void recordThrottled(String key, Optional<Duration> retryAfter) {
+        eventProbe.counterMetric(THROTTLED_METRIC);
+        synchronized (this) {
+            stateOf(key)
+                    .ifPresent(
+                            state ->
+                                    state.coolDown(
+                                            clock.instant(), retryAfter.orElse(throttledCooldown)));
+        }
+    }
+
+    public void recordError(String key) {
+        eventProbe.counterMetric(ERROR_METRIC);
+        synchronized (this) {
+            Instant now = clock.instant();
+            long healthyKeys = healthyKeys(now);
+            stateOf(key)
+                    .ifPresent(
+                            state -> {
+                                state.consecutiveErrors++;
+                                if (state.consecutiveErrors >= ERROR_THRESHOLD && healthyKeys > 1) {
+                                    state.consecutiveErrors = 0;
+                                    state.coolDown(now, errorCooldown);
+                                }
+                            });
+        }
+    }
+
+    private List<KeyState> currentPool() {
+        String secret = configuration.getSecretValue(OrdnanceSurveyRequestTemplate.API_KEY_SECRET);
+        if (!Objects.equals(secret, poolSecret)) {
+            // A changed secret forgets rotated-out keys and clears cooldowns on those it kept
+            Map<String, KeyState> reloaded = new HashMap<>();
+            pool = parse(secret, reloaded);
+            poolSecret = secret;
+            states.clear();
+            states.putAll(reloaded);
+        }
+        return pool;
+    }
+
+    private long healthyKeys(Instant now) {
+        return pool.stream().filter(state -> state.isAvailable(now)).count();
+    }
+
+    private Optional<KeyState> stateOf(String key) {
+        return Optional.ofNullable(states.get(key));
+    }
+
+    private static List<KeyState> parse(String secret, Map<String, KeyState> reloaded) {
+        List<KeyState> keys = new ArrayList<>();
+        if (secret == null || secret.isBlank()) {
+            return keys;
+        }
+        if (!secret.trim().startsWith("[")) {
+            keys.add(stateFor(reloaded, secret.trim(), 1));
+            return keys;
+        }
+
+        try {
+            for (JsonNode entry : JsonMappers.TREE_READER.readTree(secret)) {
+                if (entry.isTextual()) {
+                    keys.add(stateFor(reloaded, entry.asText(), 1));
+                } else {
+                    keys.add(
+                            stateFor(
+                                    reloaded,
+                                    entry.path("key").asText(),
+                                    entry.path("weight").asInt(1)));
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // Never include the secret in the message
+            throw new IllegalStateException("OS API key pool secret is not a valid JSON array");
+        }
+        return keys;
+    }
+
+    private static KeyState stateFor(Map<String, KeyState> reloaded, String key, int weight) {
+        if (key.isBlank() || weight < 1) {
+            throw new IllegalStateException("OS API key pool has a blank key or weight below 1");
+        }
+        KeyState state = reloaded.computeIfAbsent(key, KeyState::new);
+        state.weight = weight;
+        return state;
+    }
+
+    private static class KeyState {
+        private final String key;
+        private int weight = 1;
+        private int currentWeight;
+        private int consecutiveErrors;
+        private Instant unavailableUntil = Instant.MIN;
+
+        private KeyState(String key) {
+            this.key = key;
+        }
+
+        private boolean isAvailable(Instant now) {
+            return !now.isBefore(unavailableUntil);
+        }
+
+        private void coolDown(Instant now, Duration cooldown) {
+            Instant until = now.plus(cooldown);
+            if (until.isAfter(unavailableUntil)) {
+                unavailableUntil = until;
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import uk.gov.di.ipv.cri.address.api.exceptions.OrdnanceSurveyUnavailableException;
+import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
+import uk.gov.di.ipv.cri.address.api.resilience.AimdConcurrencyLimiter;
+import uk.gov.di.ipv.cri.address.api.resilience.CircuitBreaker;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.address.api.resilience.DynamoDbTokenBucket;
+import uk.gov.di.ipv.cri.address.api.resilience.LatencyTracker;
+import uk.gov.di.ipv.cri.address.api.resilience.RetryPolicy;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends postcode requests to OS Places within a fixed latency budget.
+ *
+ * <p>Calls go through a {@link CircuitBreaker} that counts 5xx responses, timeouts and connection
+ * errors as failures, and is refused outright while the breaker is open. If a call has not answered
+ * by the configured percentile of recent latencies a second, hedged request is sent and whichever
+ * answers first is used.
+ *
+ * <p>Throttled (429) and gateway error responses are retried under a {@link RetryPolicy}, but only
+ * while the invocation's {@link Deadline} leaves room for the wait. If OS is still refusing once
+ * the attempts or the time run out the lookup is treated as unavailable.
+ *
+ * <p>Before each attempt a token is taken from the fleet-wide {@link DynamoDbTokenBucket} for the
+ * API key, so the fleet stays under the OS plan's rate. A refused token is handled like a 429 from
+ * OS, without the call being made. Each container also caps its own in-flight requests with an
+ * {@link AimdConcurrencyLimiter}, and a lookup over that cap is refused at once rather than queued.
+ * A hedged request needs a token and a permit of its own, and is not sent if either is refused;
+ * whichever request loses the race is cancelled.
+ *
+ * <p>Each attempt uses a key from the {@link OrdnanceSurveyApiKeyPool}. If OS rejects or throttles
+ * that key and another is in rotation, the lookup moves to it without waiting.
+ */
+public class OrdnanceSurveyClient {
+
+    public static final String LATENCY_BUDGET_MILLIS = "OS_LATENCY_BUDGET_MILLIS";
+    public static final String HEDGING_ENABLED = "OS_HEDGING_ENABLED";
+    public static final String HEDGE_PERCENTILE = "OS_HEDGE_PERCENTILE";
+
+    static final String TIMEOUT_METRIC = "postcode_lookup_os_timeout";
+    static final String HEDGED_METRIC = "postcode_lookup_os_hedged";
+    static final String HEDGE_WON_METRIC = "postcode_lookup_os_hedge_won";
+    static final String HEDGE_SKIPPED_METRIC = "postcode_lookup_os_hedge_skipped";
+    static final String RETRY_METRIC = "postcode_lookup_os_retry";
+    static final String RETRIES_EXHAUSTED_METRIC = "postcode_lookup_os_retries_exhausted";
+    static final String KEY_FAILOVER_METRIC = "postcode_lookup_os_key_failover";
+    static final String NO_KEY_METRIC = "postcode_lookup_os_no_key_available";
+
+    private static final long DEFAULT_LATENCY_BUDGET_MILLIS = 5_000L;
+    private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final int LATENCY_SAMPLES = 200;
+    private static final int MINIMUM_LATENCY_SAMPLES = 20;
+    private static final int UNAUTHORIZED = 401;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final HttpClient client;
+    private final OrdnanceSurveyRequestTemplate requestTemplate;
+    private final OrdnanceSurveyApiKeyPool keyPool;
+    private final CircuitBreaker circuitBreaker;
+    private final LatencyTracker latencyTracker;
+    private final RetryPolicy retryPolicy;
+    private final DynamoDbTokenBucket rateLimiter;
+    private final AimdConcurrencyLimiter concurrencyLimiter;
+    private final Duration latencyBudget;
+    private final boolean hedgingEnabled;
+    private final double hedgePercentile;
+    private final EventProbe eventProbe;
+    private final Logger log = LogManager.getLogger();
+
+    public OrdnanceSurveyClient(
+            HttpClient client,
+            OrdnanceSurveyRequestTemplate requestTemplate,
+            OrdnanceSurveyApiKeyPool keyPool,
+            CircuitBreaker circuitBreaker,
+            LatencyTracker latencyTracker,
+            RetryPolicy retryPolicy,
+            DynamoDbTokenBucket rateLimiter,
+            AimdConcurrencyLimiter concurrencyLimiter,
+            Duration latencyBudget,
+            boolean hedgingEnabled,
+            double hedgePercentile,
+            EventProbe eventProbe) {
+        this.client = client;
+        this.requestTemplate = requestTemplate;
+        this.keyPool = keyPool;
+        this.circuitBreaker = circuitBreaker;
+        this.latencyTracker = latencyTracker;
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.latencyBudget = latencyBudget;
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.eventProbe = eventProbe;
+    }
+
+    public static OrdnanceSurveyClient fromEnvironment(
+            ConfigurationService configurationService, HttpClient client, EventProbe eventProbe) {
+        CachedConfigurationService configuration =
+                CachedConfigurationService.fromEnvironment(configurationService);
+        return new OrdnanceSurveyClient(
+                client,
+                new OrdnanceSurveyRequestTemplate(configuration),
+                OrdnanceSurveyApiKeyPool.fromEnvironment(configuration, eventProbe),
+                CircuitBreaker.fromEnvironment(eventProbe),
+                new LatencyTracker(LATENCY_SAMPLES, MINIMUM_LATENCY_SAMPLES),
+                RetryPolicy.fromEnvironment(),
+                DynamoDbTokenBucket.fromEnvironment(eventProbe),
+                AimdConcurrencyLimiter.fromEnvironment(eventProbe),
+                Duration.ofMillis(
+                        EnvironmentVariables.getLong(
+                                LATENCY_BUDGET_MILLIS, DEFAULT_LATENCY_BUDGET_MILLIS)),
+                EnvironmentVariables.getBoolean(HEDGING_ENABLED, true),
+                EnvironmentVariables.getInt(HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE),
+                eventProbe);
+    }
+
+    public void prefetch() {
+        requestTemplate.prefetch();
+    }
+
+    public HttpResponse<InputStream> send(String postcode, Deadline deadline)
+            throws PostcodeLookupProcessingException {
+        Duration delay = Duration.ZERO;
+        for (int attempt = 1; ; attempt++) {
+            int statusCode = TOO_MANY_REQUESTS;
+            delay = retryPolicy.nextDelay(delay);
+            Duration wait = delay;
+
+            Optional<String> apiKey = keyPool.select();
+            if (apiKey.isEmpty()) {
+                // Every key is out of rotation, so wait for the first to come back
+                eventProbe.counterMetric(NO_KEY_METRIC);
+                wait = longer(delay, keyPool.untilNextAvailable());
+            } else if (rateLimiter.tryAcquire(apiKey.get())) {
+                HttpResponse<InputStream> response = sendOnce(postcode, apiKey.get(), deadline);
+                statusCode = response.statusCode();
+                recordKeyOutcome(apiKey.get(), response);
+                if ((statusCode == UNAUTHORIZED || statusCode == TOO_MANY_REQUESTS)
+                        && attempt < retryPolicy.getMaxAttempts()
+                        && keyPool.hasAvailableKeyBesides(apiKey.get())) {
+                    // Another key may well be accepted, so try it straight away
+                    eventProbe.counterMetric(KEY_FAILOVER_METRIC);
+                    discard(response);
+                    continue;
+                }
+                if (!retryPolicy.isRetryable(statusCode)) {
+                    return response;
+                }
+                // No point trying again before the key is back in rotation
+                wait =
+                        longer(
+                                retryPolicy.delayFor(response.headers(), delay),
+                                keyPool.untilNextAvailable());
+                discard(response);
+            }
+
+            if (attempt >= retryPolicy.getMaxAttempts()
+                    || wait.compareTo(deadline.remaining()) >= 0) {
+                log.error(
+                        "Postcode lookup still failing with status {} after {} attempts",
+                        statusCode,
+                        attempt);
+                eventProbe.counterMetric(RETRIES_EXHAUSTED_METRIC);
+                throw new OrdnanceSurveyUnavailableException(
+                        "Postcode lookup failed with status " + statusCode);
+            }
+
+            eventProbe.counterMetric(RETRY_METRIC);
+            try {
+                retryPolicy.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PostcodeLookupProcessingException(
+                        "Interrupted waiting to retry postcode lookup", e);
+            }
+        }
+    }
+
+    private static Duration longer(Duration first, Duration second) {
+        return first.compareTo(second) >= 0 ? first : second;
+    }
+
+    private void recordKeyOutcome(String apiKey, HttpResponse<InputStream> response) {
+        int statusCode = response.statusCode();
+        if (statusCode == UNAUTHORIZED) {
+            keyPool.recordUnauthorised(apiKey);
+        } else if (statusCode == TOO_MANY_REQUESTS) {
+            keyPool.recordThrottled(apiKey, retryPolicy.retryAfter(response.headers()));
+        } else if (statusCode >= 500) {
+            keyPool.recordError(apiKey);
+        } else {
+            keyPool.recordSuccess(apiKey);
+        }
+    }
+
+    private HttpResponse<InputStream> sendOnce(String postcode, String apiKey, Deadline deadline)
+            throws PostcodeLookupProcessingException {
+        Duration timeout = deadline.cap(latencyBudget);
+        if (timeout.isZero()) {
+            eventProbe.counterMetric(TIMEOUT_METRIC);
+            throw new OrdnanceSurveyUnavailableException(
+                    "No time left in the invocation for postcode lookup");
+        }
+
+        HttpRequest request;
+        try {
+            request = requestTemplate.create(postcode, apiKey, timeout);
+        } catch (URISyntaxException e) {
+            log.error("Error creating URI for OS postcode lookup", e);
+            throw new PostcodeLookupProcessingException(
+                    "Error building URI for postcode lookup", e);
+        }
+
+        if (!concurrencyLimiter.tryAcquire()) {
+            throw new OrdnanceSurveyUnavailableException(
+                    "Too many postcode lookups in flight to OS");
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            concurrencyLimiter.release();
+            throw new OrdnanceSurveyUnavailableException(
+                    "Postcode lookup unavailable while OS is failing");
+        }
+
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> response;
+        try {
+            response = sendHedged(request, apiKey, timeout);
+        } catch (RuntimeException e) {
+            // The request never left, so it says nothing about OS and must hand back both permits
+            log.error("Postcode lookup request could not be sent", e);
+            concurrencyLimiter.release();
+            circuitBreaker.release();
+            throw new PostcodeLookupProcessingException(
+                    "Error sending request for postcode lookup", e);
+        }
+        // The permit is held until OS answers, even if we stop waiting for it
+        response.whenComplete(releasePermit(started));
+        try {
+            HttpResponse<InputStream> result =
+                    response.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            if (result.statusCode() >= 500) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+                latencyTracker.record(Duration.ofNanos(System.nanoTime() - started));
+            }
+            return result;
+        } catch (TimeoutException e) {
+            // Release the connection if OS does eventually answer
+            response.thenAccept(OrdnanceSurveyClient::discard);
+            keyPool.recordError(apiKey);
+            throw timedOut(timeout, e);
+        } catch (InterruptedException e) {
+            log.error("Postcode lookup threw interrupted exception", e);
+            circuitBreaker.release();
+
+            // Unblock the thread
+            Thread.currentThread().interrupt();
+            // Now throw our prettier exception
+            throw new PostcodeLookupProcessingException(
+                    "Error sending request for postcode lookup", e);
+        } catch (ExecutionException e) {
+            keyPool.recordError(apiKey);
+            if (e.getCause() instanceof HttpTimeoutException) {
+                throw timedOut(timeout, e.getCause());
+            }
+            log.error("Postcode lookup threw an IO exception", e.getCause());
+            circuitBreaker.recordFailure();
+
+            throw new PostcodeLookupProcessingException(
+                    "Error sending request for postcode lookup", e.getCause());
+        }
+    }
+
+    private BiConsumer<HttpResponse<InputStream>, Throwable> releasePermit(long started) {
+        return (result, error) -> {
+            if (error instanceof CancellationException) {
+                // Cancelled after losing the race, which says nothing about OS
+                concurrencyLimiter.release();
+            } else if (error == null
+                    && result.statusCode() < 500
+                    && result.statusCode() != TOO_MANY_REQUESTS) {
+                concurrencyLimiter.onSuccess(Duration.ofNanos(System.nanoTime() - started));
+            } else {
+                concurrencyLimiter.onDropped();
+            }
+        };
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> sendHedged(
+            HttpRequest request, String apiKey, Duration timeout) {
+        CompletableFuture<HttpResponse<InputStream>> primary =
+                client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (!hedgingEnabled) {
+            return primary;
+        }
+
+        CompletableFuture<HttpResponse<InputStream>> first = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        primary.whenComplete(completeFirst(first, outstanding, false));
+        if (first.isDone()) {
+            return first;
+        }
+        first.whenComplete((response, error) -> primary.cancel(true));
+
+        Duration delay = latencyTracker.percentile(hedgePercentile).orElse(timeout);
+        if (delay.compareTo(timeout) < 0) {
+            CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS)
+                    .execute(
+                            () -> {
+                                if (first.isDone()
+                                        || circuitBreaker.getState()
+                                                != CircuitBreaker.State.CLOSED) {
+                                    return;
+                                }
+                                sendHedge(request, apiKey, first, outstanding);
+                            });
+        }
+        return first;
+    }
+
+    private void sendHedge(
+            HttpRequest request,
+            String apiKey,
+            CompletableFuture<HttpResponse<InputStream>> first,
+            AtomicInteger outstanding) {
+        if (!concurrencyLimiter.tryAcquire()) {
+            eventProbe.counterMetric(HEDGE_SKIPPED_METRIC);
+            return;
+        }
+        if (!rateLimiter.tryAcquire(apiKey)) {
+            concurrencyLimiter.release();
+            eventProbe.counterMetric(HEDGE_SKIPPED_METRIC);
+            return;
+        }
+
+        outstanding.incrementAndGet();
+        eventProbe.counterMetric(HEDGED_METRIC);
+        BiConsumer<HttpResponse<InputStream>, Throwable> complete =
+                completeFirst(first, outstanding, true);
+        long started = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> hedge;
+        try {
+            hedge = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (RuntimeException e) {
+            concurrencyLimiter.release();
+            complete.accept(null, e);
+            return;
+        }
+        hedge.whenComplete(releasePermit(started));
+        hedge.whenComplete(complete);
+        first.whenComplete((response, error) -> hedge.cancel(true));
+    }
+
+    private BiConsumer<HttpResponse<InputStream>, Throwable> completeFirst(
+            CompletableFuture<HttpResponse<InputStream>> first,
+            AtomicInteger outstanding,
+            boolean hedge) {
+        return (response, error) -> {
+            if (error == null) {
+                if (first.complete(response)) {
+                    if (hedge) {
+                        eventProbe.counterMetric(HEDGE_WON_METRIC);
+                    }
+                } else {
+                    discard(response);
+                }
+            } else if (outstanding.decrementAndGet() == 0) {
+                // Only fail once every request that was sent has failed
+                first.completeExceptionally(error);
+            }
+        };
+    }
+
+    private OrdnanceSurveyUnavailableException timedOut(Duration timeout, Throwable cause) {
+        log.error("Postcode lookup exceeded latency budget of {}ms", timeout.toMillis());
+        eventProbe.counterMetric(TIMEOUT_METRIC);
+        circuitBreaker.recordFailure();
+        return new OrdnanceSurveyUnavailableException(
+                "Postcode lookup did not respond in time", cause);
+    }
+
+    private static void discard(HttpResponse<InputStream> response) {
+        try (InputStream body = response.body()) {
+            // Closing the body hands the connection back to the client
+        } catch (IOException | RuntimeException e) {
+            // Nothing more can be done with an unwanted response
+        }
+    }
+}
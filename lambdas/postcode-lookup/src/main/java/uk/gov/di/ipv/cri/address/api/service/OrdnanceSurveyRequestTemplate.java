@@ -0,0 +1,89 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.utils.http.SdkHttpUtils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds OS Places postcode requests from the API URL held in {@link CachedConfigurationService}
+ * and a key from the {@link OrdnanceSurveyApiKeyPool}.
+ *
+ * <p>The URL and encoded key are combined into a fixed prefix once per key, and again only when the
+ * URL changes, so each request only has to encode and append the postcode.
+ */
+public class OrdnanceSurveyRequestTemplate {
+
+    static final String API_URL_PARAMETER = "OrdnanceSurveyAPIURL";
+    static final String API_KEY_SECRET = "OrdnanceSurveyAPIKey";
+
+    // More than enough for a pool of keys plus any that have just been rotated out
+    private static final int MAX_COMPILED_TEMPLATES = 16;
+
+    private final CachedConfigurationService configuration;
+    private final Map<String, CompiledTemplate> compiledTemplates = new ConcurrentHashMap<>();
+
+    public OrdnanceSurveyRequestTemplate(CachedConfigurationService configuration) {
+        this.configuration = configuration;
+    }
+
+    public HttpRequest create(String postcode, String apiKey, Duration timeout)
+            throws URISyntaxException {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(compile(apiKey).prefix + SdkHttpUtils.urlEncode(postcode)))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+    }
+
+    /** Starts loading the URL and key in the background so the first lookup need not wait. */
+    public void prefetch() {
+        configuration.prefetch(API_URL_PARAMETER, API_KEY_SECRET);
+    }
+
+    private CompiledTemplate compile(String apiKey) throws URISyntaxException {
+        String url = configuration.getParameterValue(API_URL_PARAMETER);
+
+        CompiledTemplate current = compiledTemplates.get(apiKey);
+        if (current == null || !current.matches(url, apiKey)) {
+            if (compiledTemplates.size() >= MAX_COMPILED_TEMPLATES) {
+                compiledTemplates.clear();
+            }
+            current = new CompiledTemplate(url, apiKey);
+            compiledTemplates.put(apiKey, current);
+        }
+        return current;
+    }
+
+    private static class CompiledTemplate {
+        private final String url;
+        private final String key;
+        private final String prefix;
+
+        private CompiledTemplate(String url, String key) throws URISyntaxException {
+            this.url = url;
+            this.key = key;
+            this.prefix =
+                    SdkHttpFullRequest.builder()
+                                    .uri(new URI(url))
+                                    .appendRawQueryParameter("key", key)
+                                    .method(SdkHttpMethod.GET)
+                                    .build()
+                                    .getUri()
+                                    .toString()
+                            + "&postcode=";
+        }
+
+        private boolean matches(String url, String key) {
+            return Objects.equals(this.url, url) && Objects.equals(this.key, key);
+        }
+    }
+}
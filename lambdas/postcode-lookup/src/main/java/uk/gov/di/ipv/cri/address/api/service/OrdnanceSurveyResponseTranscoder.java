@@ -0,0 +1,128 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import uk.gov.di.ipv.cri.address.api.models.Dpa;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an OS Places postcode response straight into {@link CanonicalAddress} objects.
+ *
+ * <p>Only the DPA fields used by {@link Dpa#toCanonicalAddress()} are read; everything else,
+ * including the header and any LPI results, is skipped without being bound. The result must match
+ * binding the whole response and calling {@code toCanonicalAddress} on each DPA.
+ */
+public class OrdnanceSurveyResponseTranscoder {
+
+    public List<CanonicalAddress> transcode(InputStream body) throws IOException {
+        try (JsonParser parser = JsonMappers.TREE_READER.createParser(body)) {
+            List<CanonicalAddress> addresses = new ArrayList<>();
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            String fieldName;
+            while ((fieldName = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                if ("results".equals(fieldName) && token == JsonToken.START_ARRAY) {
+                    readResults(parser, addresses);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return addresses;
+        }
+    }
+
+    private static void readResults(JsonParser parser, List<CanonicalAddress> addresses)
+            throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            expect(parser, token, JsonToken.START_OBJECT);
+
+            String fieldName;
+            while ((fieldName = parser.nextFieldName()) != null) {
+                token = parser.nextToken();
+                if ("DPA".equals(fieldName) && token == JsonToken.START_OBJECT) {
+                    addresses.add(readDpa(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static CanonicalAddress readDpa(JsonParser parser) throws IOException {
+        CanonicalAddress address = new CanonicalAddress();
+
+        String fieldName;
+        while ((fieldName = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (fieldName) {
+                case "UPRN":
+                    String uprn = text(parser);
+                    address.setUprn(uprn == null || uprn.isEmpty() ? null : Long.parseLong(uprn));
+                    break;
+                case "ORGANISATION_NAME":
+                    address.setOrganisationName(text(parser));
+                    break;
+                case "DEPARTMENT_NAME":
+                    address.setDepartmentName(text(parser));
+                    break;
+                case "SUB_BUILDING_NAME":
+                    address.setSubBuildingName(text(parser));
+                    break;
+                case "BUILDING_NUMBER":
+                    address.setBuildingNumber(text(parser));
+                    break;
+                case "DEPENDENT_THOROUGHFARE_NAME":
+                    address.setDependentStreetName(text(parser));
+                    break;
+                case "DOUBLE_DEPENDENT_LOCALITY":
+                    address.setDoubleDependentAddressLocality(text(parser));
+                    break;
+                case "DEPENDENT_LOCALITY":
+                    address.setDependentAddressLocality(text(parser));
+                    break;
+                case "BUILDING_NAME":
+                    address.setBuildingName(text(parser));
+                    break;
+                case "THOROUGHFARE_NAME":
+                    address.setStreetName(text(parser));
+                    break;
+                case "POST_TOWN":
+                    address.setAddressLocality(text(parser));
+                    break;
+                case "POSTCODE":
+                    address.setPostalCode(text(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        // All addresses returned by this service can only possibly
+        // exist within the United Kingdom, so set to GB
+        address.setAddressCountry("GB");
+        return address;
+    }
+
+    private static String text(JsonParser parser) throws IOException {
+        if (!parser.currentToken().isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a value for " + parser.getCurrentName());
+        }
+        return parser.getValueAsString();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+            throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
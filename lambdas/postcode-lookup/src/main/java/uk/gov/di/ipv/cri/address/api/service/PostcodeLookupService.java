@@ -1,139 +1,180 @@
 package uk.gov.di.ipv.cri.address.api.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.nimbusds.oauth2.sdk.util.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import software.amazon.awssdk.http.HttpStatusCode;
-import software.amazon.awssdk.http.SdkHttpFullRequest;
-import software.amazon.awssdk.http.SdkHttpMethod;
+import uk.gov.di.ipv.cri.address.api.cache.TieredPostcodeCache;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupValidationException;
 import uk.gov.di.ipv.cri.address.api.models.OrdnanceSurveyPostcodeError;
-import uk.gov.di.ipv.cri.address.api.models.OrdnanceSurveyPostcodeResponse;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventContext;
 import uk.gov.di.ipv.cri.common.library.domain.personidentity.Address;
 import uk.gov.di.ipv.cri.common.library.domain.personidentity.PersonIdentityDetailed;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
 import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
 import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.InputStream;
 import java.net.URLDecoder;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static uk.gov.di.ipv.cri.address.api.constants.OrdnanceSurveyConstants.LOG_RESPONSE_PREFIX;
 
 public class PostcodeLookupService {
 
-    // Create our http client to enable asynchronous requests
-    private final HttpClient client;
+    private static final ObjectReader ERROR_READER =
+            JsonMappers.readerFor(OrdnanceSurveyPostcodeError.class);
 
-    private final ConfigurationService configurationService;
+    // Daemon threads, so a lookup whose result is no longer wanted never holds up the runtime
+    private static final Executor LOOKUP_EXECUTOR =
+            Executors.newCachedThreadPool(
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "postcode-lookup");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    private final OrdnanceSurveyClient ordnanceSurveyClient;
+
+    private final TieredPostcodeCache postcodeCache;
+
+    private final InFlightPostcodeLookups inFlightLookups;
+
+    private final OrdnanceSurveyResponseTranscoder responseTranscoder =
+            new OrdnanceSurveyResponseTranscoder();
 
     Logger log = LogManager.getLogger();
 
     public PostcodeLookupService() {
-        this.configurationService = new ConfigurationService();
-        this.client =
-                HttpClient.newBuilder()
-                        .version(HttpClient.Version.HTTP_2)
-                        .connectTimeout(Duration.ofSeconds(10))
-                        .build();
+        EventProbe eventProbe = new EventProbe();
+        // Requests are bounded by the client's latency budget rather than a client-wide timeout
+        this.ordnanceSurveyClient =
+                OrdnanceSurveyClient.fromEnvironment(
+                        new ConfigurationService(),
+                        HttpClient.newBuilder()
+                                .version(HttpClient.Version.HTTP_2)
+                                .connectTimeout(Duration.ofSeconds(10))
+                                .build(),
+                        eventProbe);
+        this.ordnanceSurveyClient.prefetch();
+        this.postcodeCache = TieredPostcodeCache.fromEnvironment(eventProbe);
+        this.inFlightLookups = new InFlightPostcodeLookups(eventProbe);
     }
 
     public PostcodeLookupService(
-            ConfigurationService configurationService, HttpClient client, Logger log) {
-        this.configurationService = configurationService;
-        this.client = client;
+            OrdnanceSurveyClient ordnanceSurveyClient,
+            Logger log,
+            TieredPostcodeCache postcodeCache,
+            InFlightPostcodeLookups inFlightLookups) {
+        this.ordnanceSurveyClient = ordnanceSurveyClient;
         this.log = log;
+        this.postcodeCache = postcodeCache;
+        this.inFlightLookups = inFlightLookups;
     }
 
     public List<CanonicalAddress> lookupPostcode(String postcode)
             throws PostcodeLookupValidationException, PostcodeLookupProcessingException,
                     JsonProcessingException {
+        return lookupPostcode(postcode, Deadline.unbounded());
+    }
+
+    public List<CanonicalAddress> lookupPostcode(String postcode, Deadline deadline)
+            throws PostcodeLookupValidationException, PostcodeLookupProcessingException,
+                    JsonProcessingException {
 
         // Check the postcode is valid
         if (StringUtils.isBlank(postcode)) {
             throw new PostcodeLookupValidationException("Postcode cannot be null or empty");
         }
 
-        // Create our http request
-        HttpRequest request;
-        HttpResponse<String> response;
-
-        try {
-            request =
-                    HttpRequest.newBuilder()
-                            .uri(
-                                    SdkHttpFullRequest.builder()
-                                            .uri(
-                                                    new URI(
-                                                            configurationService.getParameterValue(
-                                                                    "OrdnanceSurveyAPIURL")))
-                                            .appendRawQueryParameter("postcode", postcode)
-                                            .appendRawQueryParameter(
-                                                    "key",
-                                                    configurationService.getSecretValue(
-                                                            "OrdnanceSurveyAPIKey"))
-                                            .method(SdkHttpMethod.GET)
-                                            .build()
-                                            .getUri())
-                            .header("Accept", "application/json")
-                            .GET()
-                            .build();
-        } catch (URISyntaxException e) {
-            log.error("Error creating URI for OS postcode lookup", e);
-            throw new PostcodeLookupProcessingException(
-                    "Error building URI for postcode lookup", e);
+        Optional<List<CanonicalAddress>> cachedAddresses = postcodeCache.get(postcode);
+        if (cachedAddresses.isPresent()) {
+            return cachedAddresses.get();
         }
 
-        try {
-            response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        } catch (InterruptedException e) {
-            log.error("Postcode lookup threw interrupted exception", e);
+        // Concurrent misses for the same postcode share a single OS call
+        return inFlightLookups.coalesce(
+                postcode,
+                deadline,
+                () -> {
+                    // An empty result means OS found nothing or rejected the postcode, which is
+                    // cached for a shorter time than real results
+                    List<CanonicalAddress> addresses = fetchFromOrdnanceSurvey(postcode, deadline);
+                    postcodeCache.put(postcode, addresses);
+                    return addresses;
+                });
+    }
 
-            // Unblock the thread
-            Thread.currentThread().interrupt();
-            // Now throw our prettier exception
-            throw new PostcodeLookupProcessingException(
-                    "Error sending request for postcode lookup", e);
-        } catch (IOException e) {
-            log.error("Postcode lookup threw an IO exception", e);
+    /**
+     * Runs {@link #lookupPostcode(String, Deadline)} on another thread, so the caller can get on
+     * with other work while OS answers. Failures complete the future exceptionally with the same
+     * exceptions the synchronous lookup throws.
+     */
+    public CompletableFuture<List<CanonicalAddress>> lookupPostcodeAsync(
+            String postcode, Deadline deadline) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        return lookupPostcode(postcode, deadline);
+                    } catch (JsonProcessingException e) {
+                        throw new CompletionException(e);
+                    }
+                },
+                LOOKUP_EXECUTOR);
+    }
 
-            throw new PostcodeLookupProcessingException(
-                    "Error sending request for postcode lookup", e);
+    private List<CanonicalAddress> fetchFromOrdnanceSurvey(String postcode, Deadline deadline)
+            throws PostcodeLookupProcessingException, JsonProcessingException {
+
+        HttpResponse<InputStream> response = ordnanceSurveyClient.send(postcode, deadline);
+
+        if (response.statusCode() == HttpStatusCode.OK) {
+            // Read only the address fields we need straight from the response stream
+            try (InputStream body = response.body()) {
+                return responseTranscoder.transcode(body);
+            } catch (JsonProcessingException e) {
+                throw e;
+            } catch (IOException e) {
+                log.error("Postcode lookup response could not be read", e);
+
+                throw new PostcodeLookupProcessingException(
+                        "Error reading response for postcode lookup", e);
+            }
         }
 
+        String responseBody = readErrorBody(response);
         OrdnanceSurveyPostcodeError error;
         switch (response.statusCode()) {
-            case HttpStatusCode.OK:
-                // These responses are fine
-                break;
             case HttpStatusCode.BAD_REQUEST:
                 try {
-                    error =
-                            new ObjectMapper()
-                                    .readValue(response.body(), OrdnanceSurveyPostcodeError.class);
+                    error = ERROR_READER.readValue(responseBody);
                     log.error(
                             "{} status {}: {}",
                             LOG_RESPONSE_PREFIX,
                             error.getError().getStatuscode(),
                             error.getError().getMessage());
                 } catch (Exception e) {
-                    log.error("{} unknown error: {}", LOG_RESPONSE_PREFIX, response.body());
+                    log.error("{} unknown error: {}", LOG_RESPONSE_PREFIX, responseBody);
                 }
                 return new ArrayList<>();
 
@@ -143,9 +184,7 @@ public class PostcodeLookupService {
 
             default:
                 try {
-                    error =
-                            new ObjectMapper()
-                                    .readValue(response.body(), OrdnanceSurveyPostcodeError.class);
+                    error = ERROR_READER.readValue(responseBody);
                     log.error(
                             "{} status {}: {}",
                             LOG_RESPONSE_PREFIX,
@@ -157,23 +196,23 @@ public class PostcodeLookupService {
                                     + ": "
                                     + error.getError().getMessage());
                 } catch (Exception e) {
-                    log.error("{}unknown error: {}", LOG_RESPONSE_PREFIX, response.body());
+                    log.error("{}unknown error: {}", LOG_RESPONSE_PREFIX, responseBody);
                 }
                 throw new PostcodeLookupProcessingException(
-                        "Error processing postcode lookup: " + response.body());
+                        "Error processing postcode lookup: " + responseBody);
         }
+    }
 
-        // Otherwise, let's try to parse the response
-        OrdnanceSurveyPostcodeResponse postcodeResponse = new OrdnanceSurveyPostcodeResponse();
-
-        postcodeResponse =
-                new ObjectMapper().readValue(response.body(), postcodeResponse.getClass());
-
-        // Map the postcode response to our model
-        return postcodeResponse.getResults().stream()
-                .filter(result -> result.getDpa() != null)
-                .map(result -> result.getDpa().toCanonicalAddress())
-                .collect(Collectors.toList());
+    private String readErrorBody(HttpResponse<InputStream> response) {
+        if (response.body() == null) {
+            return null;
+        }
+        try (InputStream body = response.body()) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Postcode lookup error response could not be read", e);
+            return null;
+        }
     }
 
     public AuditEventContext getAuditEventContext(
@@ -0,0 +1,155 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal in-process stand-in for Redis that understands enough of RESP2 for the postcode cache:
+ * PING, GET, DEL and SET with an EX argument. Expiry times are recorded rather than enforced.
+ */
+class LocalRedisServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private final Map<String, Long> expirySeconds = new ConcurrentHashMap<>();
+    private final List<Socket> clients = new ArrayList<>();
+
+    LocalRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptClients, "local-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getUrl() {
+        return "redis://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    byte[] getValue(String key) {
+        return values.get(key);
+    }
+
+    void setValue(String key, byte[] value) {
+        values.put(key, value);
+    }
+
+    Long getExpirySeconds(String key) {
+        return expirySeconds.get(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private void acceptClients() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                Thread handler = new Thread(() -> serve(client), "local-redis-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try (InputStream in = new BufferedInputStream(client.getInputStream());
+                OutputStream out = client.getOutputStream()) {
+            List<byte[]> command;
+            while ((command = readCommand(in)) != null) {
+                out.write(execute(command));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client went away or the server was closed
+        }
+    }
+
+    private byte[] execute(List<byte[]> command) {
+        String name = new String(command.get(0), StandardCharsets.UTF_8).toUpperCase();
+        switch (name) {
+            case "PING":
+                return "+PONG\r\n".getBytes(StandardCharsets.UTF_8);
+            case "GET":
+                byte[] value = values.get(string(command.get(1)));
+                if (value == null) {
+                    return "$-1\r\n".getBytes(StandardCharsets.UTF_8);
+                }
+                ByteArrayOutputStream reply = new ByteArrayOutputStream();
+                reply.writeBytes(("$" + value.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+                reply.writeBytes(value);
+                reply.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+                return reply.toByteArray();
+            case "SET":
+                String key = string(command.get(1));
+                values.put(key, command.get(2));
+                if (command.size() > 4 && "EX".equalsIgnoreCase(string(command.get(3)))) {
+                    expirySeconds.put(key, Long.parseLong(string(command.get(4))));
+                }
+                return "+OK\r\n".getBytes(StandardCharsets.UTF_8);
+            case "DEL":
+                int deleted = 0;
+                for (byte[] delete : command.subList(1, command.size())) {
+                    deleted += values.remove(string(delete)) == null ? 0 : 1;
+                }
+                return (":" + deleted + "\r\n").getBytes(StandardCharsets.UTF_8);
+            default:
+                return ("-ERR unknown command '" + name + "'\r\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<byte[]> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] part = in.readNBytes(length);
+            in.readNBytes(2);
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int next;
+        while ((next = in.read()) != -1) {
+            if (next == '\r') {
+                in.read();
+                return line.toString();
+            }
+            line.append((char) next);
+        }
+        return null;
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class NegativePostcodeCacheTest {
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    @Mock private EventProbe eventProbe;
+    private final AtomicLong nanos = new AtomicLong();
+    private NegativePostcodeCache negativePostcodeCache;
+
+    @BeforeEach
+    void setUp() {
+        negativePostcodeCache = new NegativePostcodeCache(2, TTL, eventProbe, nanos::get);
+    }
+
+    @Test
+    void shouldRememberPostcodesWithNoResults() {
+        negativePostcodeCache.put("ZZ1 1ZZ");
+
+        assertTrue(negativePostcodeCache.contains("zz11zz"));
+        verify(eventProbe).counterMetric(NegativePostcodeCache.CACHE_HIT_METRIC);
+    }
+
+    @Test
+    void shouldRecordMissForUnknownPostcode() {
+        assertFalse(negativePostcodeCache.contains("ZZ1 1ZZ"));
+        verify(eventProbe).counterMetric(NegativePostcodeCache.CACHE_MISS_METRIC);
+    }
+
+    @Test
+    void shouldForgetPostcodesAfterTtl() {
+        negativePostcodeCache.put("ZZ1 1ZZ");
+
+        nanos.addAndGet(TTL.plusSeconds(1).toNanos());
+
+        assertFalse(negativePostcodeCache.contains("ZZ1 1ZZ"));
+    }
+
+    @Test
+    void shouldStayWithinItsOwnBound() {
+        negativePostcodeCache.put("ZZ1 1ZZ");
+        negativePostcodeCache.put("ZZ2 1ZZ");
+        negativePostcodeCache.put("ZZ3 1ZZ");
+
+        assertEquals(2, negativePostcodeCache.estimatedSize());
+        verify(eventProbe, atLeastOnce())
+                .counterMetric(NegativePostcodeCache.CACHE_EVICTION_METRIC);
+    }
+}
@@ -0,0 +1,93 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class PostcodeResultCacheTest {
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @Mock private EventProbe eventProbe;
+    private final AtomicLong nanos = new AtomicLong();
+    private PostcodeResultCache postcodeResultCache;
+
+    @BeforeEach
+    void setUp() {
+        postcodeResultCache = new PostcodeResultCache(2, TTL, eventProbe, nanos::get);
+    }
+
+    @Test
+    void shouldNormalisePostcodes() {
+        assertEquals("LS11BA", PostcodeResultCache.normalise("LS1 1BA"));
+        assertEquals("LS11BA", PostcodeResultCache.normalise(" ls1  1ba "));
+        assertEquals("LS11BA", PostcodeResultCache.normalise("LS1%201BA"));
+        assertEquals("LS1%ZZ", PostcodeResultCache.normalise("ls1%zz"));
+    }
+
+    @Test
+    void shouldReturnCachedAddressesForEquivalentPostcodes() {
+        postcodeResultCache.put("LS1 1BA", List.of(address("LS1 1BA")));
+
+        assertEquals(
+                "LS1 1BA", postcodeResultCache.get("ls11ba").orElseThrow().get(0).getPostalCode());
+        verify(eventProbe).counterMetric(PostcodeResultCache.CACHE_HIT_METRIC);
+    }
+
+    @Test
+    void shouldRecordMissForUnknownPostcode() {
+        assertFalse(postcodeResultCache.get("LS1 1BA").isPresent());
+        verify(eventProbe).counterMetric(PostcodeResultCache.CACHE_MISS_METRIC);
+    }
+
+    @Test
+    void shouldExpireEntriesAfterTtl() {
+        postcodeResultCache.put("LS1 1BA", List.of(address("LS1 1BA")));
+
+        nanos.addAndGet(TTL.plusSeconds(1).toNanos());
+
+        assertFalse(postcodeResultCache.get("LS1 1BA").isPresent());
+    }
+
+    @Test
+    void shouldEvictWhenMaximumSizeIsExceeded() {
+        postcodeResultCache.put("LS1 1BA", List.of(address("LS1 1BA")));
+        postcodeResultCache.put("LS2 1BA", List.of(address("LS2 1BA")));
+        postcodeResultCache.put("LS3 1BA", List.of(address("LS3 1BA")));
+
+        assertEquals(2, postcodeResultCache.estimatedSize());
+        verify(eventProbe, atLeastOnce()).counterMetric(PostcodeResultCache.CACHE_EVICTION_METRIC);
+    }
+
+    @Test
+    void shouldStoreAnImmutableCopy() {
+        List<CanonicalAddress> addresses = new ArrayList<>(List.of(address("LS1 1BA")));
+        postcodeResultCache.put("LS1 1BA", addresses);
+        addresses.clear();
+
+        List<CanonicalAddress> cached = postcodeResultCache.get("LS1 1BA").orElseThrow();
+        assertEquals(1, cached.size());
+        assertThrows(UnsupportedOperationException.class, cached::clear);
+    }
+
+    private static CanonicalAddress address(String postcode) {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setPostalCode(postcode);
+        return address;
+    }
+}
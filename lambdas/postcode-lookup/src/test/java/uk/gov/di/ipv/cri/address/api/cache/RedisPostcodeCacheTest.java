@@ -0,0 +1,142 @@
+package uk.gov.di.ipv.cri.address.api.cache;
+
+import io.lettuce.core.RedisClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class RedisPostcodeCacheTest {
+    private static final Duration TTL = Duration.ofDays(1);
+    private static final Duration NEGATIVE_TTL = Duration.ofMinutes(5);
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    @Mock private EventProbe eventProbe;
+    private LocalRedisServer localRedisServer;
+    private RedisClient redisClient;
+    private RedisPostcodeCache redisPostcodeCache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        localRedisServer = new LocalRedisServer();
+        redisClient = RedisPostcodeCache.createClient(localRedisServer.getUrl(), TIMEOUT);
+        redisPostcodeCache =
+                new RedisPostcodeCache(
+                        redisClient, TTL, NEGATIVE_TTL, TIMEOUT, eventProbe, Clock.systemUTC());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        redisClient.shutdown(Duration.ZERO, Duration.ofSeconds(1));
+        localRedisServer.close();
+    }
+
+    @Test
+    void shouldStoreAndReadBackAddresses() {
+        redisPostcodeCache.put("LS1 1BA", List.of(address("LS1 1BA", 12345L)));
+
+        List<CanonicalAddress> addresses = redisPostcodeCache.get("ls11ba").orElseThrow();
+
+        assertEquals(1, addresses.size());
+        assertEquals("LS1 1BA", addresses.get(0).getPostalCode());
+        assertEquals(12345L, addresses.get(0).getUprn());
+        assertEquals(TTL.toSeconds(), localRedisServer.getExpirySeconds("postcode-lookup:LS11BA"));
+        verify(eventProbe).counterMetric(RedisPostcodeCache.CACHE_HIT_METRIC);
+    }
+
+    @Test
+    void shouldStoreNoResultsWithTheShorterTtl() {
+        redisPostcodeCache.put("ZZ1 1ZZ", List.of());
+
+        assertTrue(redisPostcodeCache.get("ZZ1 1ZZ").orElseThrow().isEmpty());
+        assertEquals(
+                NEGATIVE_TTL.toSeconds(),
+                localRedisServer.getExpirySeconds("postcode-lookup:ZZ11ZZ"));
+    }
+
+    @Test
+    void shouldRecordMissForUnknownPostcode() {
+        assertFalse(redisPostcodeCache.get("LS1 1BA").isPresent());
+        verify(eventProbe).counterMetric(RedisPostcodeCache.CACHE_MISS_METRIC);
+    }
+
+    @Test
+    void shouldPipelineMultipleReadsAndWrites() {
+        redisPostcodeCache.putAll(
+                Map.of(
+                        "LS1 1BA", List.of(address("LS1 1BA", 1L)),
+                        "LS2 1BA", List.of(address("LS2 1BA", 2L))));
+
+        Map<String, List<CanonicalAddress>> results =
+                redisPostcodeCache.getAll(List.of("LS1 1BA", "LS2 1BA", "LS3 1BA"));
+
+        assertEquals(2, results.size());
+        assertEquals(2L, results.get("LS2 1BA").get(0).getUprn());
+        assertNotNull(localRedisServer.getValue("postcode-lookup:LS11BA"));
+    }
+
+    @Test
+    void shouldTreatAnUnreadableValueAsAMissForThatPostcodeOnly() {
+        redisPostcodeCache.put("LS1 1BA", List.of(address("LS1 1BA", 1L)));
+        localRedisServer.setValue("postcode-lookup:LS21BA", new byte[] {(byte) 0xff});
+
+        Map<String, List<CanonicalAddress>> results =
+                redisPostcodeCache.getAll(List.of("LS1 1BA", "LS2 1BA"));
+
+        assertEquals(1, results.size());
+        assertEquals(1L, results.get("LS1 1BA").get(0).getUprn());
+        verify(eventProbe).counterMetric(RedisPostcodeCache.CACHE_CORRUPT_METRIC);
+        verify(eventProbe, never()).counterMetric(RedisPostcodeCache.CACHE_ERROR_METRIC);
+        // The tier stays enabled
+        assertTrue(redisPostcodeCache.get("LS1 1BA").isPresent());
+        assertNull(localRedisServer.getValue("postcode-lookup:LS21BA"));
+    }
+
+    @Test
+    void shouldTreatAnUnavailableServerAsAMiss() throws IOException {
+        localRedisServer.close();
+
+        assertFalse(redisPostcodeCache.get("LS1 1BA").isPresent());
+        redisPostcodeCache.put("LS1 1BA", List.of(address("LS1 1BA", 1L)));
+
+        verify(eventProbe).counterMetric(RedisPostcodeCache.CACHE_ERROR_METRIC);
+    }
+
+    @Test
+    void shouldDoNothingWhenDisabled() {
+        RedisPostcodeCache disabled = RedisPostcodeCache.disabled();
+        disabled.put("LS1 1BA", List.of(address("LS1 1BA", 1L)));
+
+        assertFalse(disabled.isEnabled());
+        assertFalse(disabled.get("LS1 1BA").isPresent());
+        verifyNoInteractions(eventProbe);
+    }
+
+    private static CanonicalAddress address(String postcode, long uprn) {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setUprn(uprn);
+        address.setPostalCode(postcode);
+        address.setAddressCountry("GB");
+        return address;
+    }
+}
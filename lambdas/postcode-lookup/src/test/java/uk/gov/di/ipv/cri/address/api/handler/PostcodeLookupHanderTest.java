@@ -7,11 +7,16 @@ import org.apache.logging.log4j.Level;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.address.api.exceptions.OrdnanceSurveyUnavailableException;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupValidationException;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.address.api.resilience.SessionLookupLimiter;
 import uk.gov.di.ipv.cri.address.api.service.PostcodeLookupService;
+import uk.gov.di.ipv.cri.address.library.service.BufferedAuditEmitter;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventContext;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventType;
 import uk.gov.di.ipv.cri.common.library.domain.personidentity.PersonIdentityDetailed;
@@ -19,24 +24,33 @@ import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
 import uk.gov.di.ipv.cri.common.library.exception.SessionValidationException;
 import uk.gov.di.ipv.cri.common.library.exception.SqsException;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
 import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
-import uk.gov.di.ipv.cri.common.library.service.AuditService;
 import uk.gov.di.ipv.cri.common.library.service.SessionService;
 import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNotNull;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -45,8 +59,9 @@ class PostcodeLookupHanderTest {
     @Mock private PostcodeLookupService postcodeLookupService;
     @Mock private SessionService sessionService;
     @Mock private APIGatewayProxyRequestEvent apiGatewayProxyRequestEvent;
-    @Mock private AuditService auditService;
+    @Mock private BufferedAuditEmitter auditService;
     @Mock private EventProbe eventProbe;
+    @Mock private SessionLookupLimiter sharedLookupLimiter;
 
     private PostcodeLookupHandler postcodeLookupHandler;
 
@@ -55,7 +70,12 @@ class PostcodeLookupHanderTest {
 
         postcodeLookupHandler =
                 new PostcodeLookupHandler(
-                        postcodeLookupService, sessionService, eventProbe, auditService);
+                        postcodeLookupService,
+                        sessionService,
+                        eventProbe,
+                        auditService,
+                        new SessionLookupLimiter(
+                                2, 1, null, null, 0, eventProbe, Clock.systemUTC()));
     }
 
     @Test
@@ -71,8 +91,11 @@ class PostcodeLookupHanderTest {
         when(apiGatewayProxyRequestEvent.getHeaders())
                 .thenReturn(Map.of("session_id", UUID.randomUUID().toString()));
         when(apiGatewayProxyRequestEvent.getPathParameters()).thenReturn(new HashMap<>());
+        SessionItem sessionItem = validSession();
+        when(sessionService.validateSessionId(anyString())).thenReturn(sessionItem);
 
-        when(postcodeLookupService.lookupPostcode(isNull())).thenThrow(exception);
+        when(postcodeLookupService.lookupPostcodeAsync(isNull(), any(Deadline.class)))
+                .thenReturn(CompletableFuture.failedFuture(exception));
 
         APIGatewayProxyResponseEvent responseEvent =
                 postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
@@ -83,8 +106,9 @@ class PostcodeLookupHanderTest {
 
     @Test
     void SessionErrorThrows403()
-            throws PostcodeLookupValidationException, PostcodeLookupProcessingException,
-                    SessionExpiredException, SessionNotFoundException {
+            throws JsonProcessingException, PostcodeLookupValidationException,
+                    PostcodeLookupProcessingException, SessionExpiredException,
+                    SessionNotFoundException {
 
         setupEventProbeErrorBehaviour();
 
@@ -93,11 +117,16 @@ class PostcodeLookupHanderTest {
         when(apiGatewayProxyRequestEvent.getHeaders())
                 .thenReturn(Map.of("session_id", UUID.randomUUID().toString()));
         when(apiGatewayProxyRequestEvent.getPathParameters()).thenReturn(Map.of("postcode", ""));
+        CompletableFuture<List<CanonicalAddress>> lookup = new CompletableFuture<>();
+        when(postcodeLookupService.lookupPostcodeAsync(eq(""), any(Deadline.class)))
+                .thenReturn(lookup);
         willThrow(exception).given(sessionService).validateSessionId(anyString());
 
         APIGatewayProxyResponseEvent responseEvent =
                 postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
         assertEquals(403, responseEvent.getStatusCode());
+        // The session was turned away, so the lookup result is not waited for
+        assertTrue(lookup.isCancelled());
         verify(eventProbe).log(Level.ERROR, exception);
         verify(eventProbe).counterMetric("postcode_lookup", 0d);
     }
@@ -123,12 +152,39 @@ class PostcodeLookupHanderTest {
         verify(eventProbe).counterMetric("postcode_lookup", 0d);
     }
 
+    @Test
+    void OrdnanceSurveyUnavailableReturns503()
+            throws JsonProcessingException, PostcodeLookupProcessingException {
+
+        when(eventProbe.counterMetric(anyString(), anyDouble())).thenReturn(eventProbe);
+        when(eventProbe.log(any(Level.class), any(Exception.class))).thenReturn(eventProbe);
+
+        OrdnanceSurveyUnavailableException exception =
+                new OrdnanceSurveyUnavailableException("Postcode lookup did not respond in time");
+
+        when(apiGatewayProxyRequestEvent.getHeaders())
+                .thenReturn(Map.of("session_id", UUID.randomUUID().toString()));
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        SessionItem sessionItem = validSession();
+        when(sessionService.validateSessionId(anyString())).thenReturn(sessionItem);
+        when(postcodeLookupService.lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class)))
+                .thenReturn(CompletableFuture.failedFuture(exception));
+
+        APIGatewayProxyResponseEvent responseEvent =
+                postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        assertEquals(503, responseEvent.getStatusCode());
+        assertTrue(responseEvent.getBody().contains("enter address manually"));
+        verify(eventProbe).log(Level.WARN, exception);
+        verify(eventProbe).counterMetric("postcode_lookup", 0d);
+    }
+
     @Test
     void ValidLookupReturns200() throws JsonProcessingException, SqsException {
         String testPostcode = "LS1 1BA";
         String sessionId = String.valueOf(UUID.randomUUID());
         PersonIdentityDetailed personIdentity = mock(PersonIdentityDetailed.class);
-        SessionItem sessionItem = mock(SessionItem.class);
+        SessionItem sessionItem = validSession();
         Map<String, String> requestHeaders = Map.of("session_id", sessionId);
         AuditEventContext testAuditEventContext = mock(AuditEventContext.class);
 
@@ -136,7 +192,8 @@ class PostcodeLookupHanderTest {
         when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(requestHeaders);
         when(apiGatewayProxyRequestEvent.getPathParameters())
                 .thenReturn(Map.of("postcode", testPostcode));
-        when(postcodeLookupService.lookupPostcode(isNotNull())).thenReturn(new ArrayList<>());
+        when(postcodeLookupService.lookupPostcodeAsync(isNotNull(), any(Deadline.class)))
+                .thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
         when(sessionService.validateSessionId(sessionId)).thenReturn(sessionItem);
         when(postcodeLookupService.getAuditEventContext(testPostcode, requestHeaders, sessionItem))
                 .thenReturn(testAuditEventContext);
@@ -148,8 +205,169 @@ class PostcodeLookupHanderTest {
         verify(sessionService).validateSessionId(sessionId);
         verify(postcodeLookupService)
                 .getAuditEventContext(testPostcode, requestHeaders, sessionItem);
-        verify(postcodeLookupService).lookupPostcode(testPostcode);
+        verify(postcodeLookupService).lookupPostcodeAsync(eq(testPostcode), any(Deadline.class));
         verify(auditService).sendAuditEvent(AuditEventType.REQUEST_SENT, testAuditEventContext);
+        verify(auditService).flush();
+    }
+
+    @Test
+    void AuditEventNotSentReturns500() throws JsonProcessingException, SqsException {
+        String sessionId = String.valueOf(UUID.randomUUID());
+        when(eventProbe.counterMetric(anyString())).thenReturn(eventProbe);
+        when(eventProbe.log(any(Level.class), any(Exception.class))).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", sessionId));
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        when(postcodeLookupService.lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class)))
+                .thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+        SessionItem sessionItem = validSession();
+        when(sessionService.validateSessionId(sessionId)).thenReturn(sessionItem);
+        willThrow(new SqsException("Failed to send 1 audit events")).given(auditService).flush();
+
+        APIGatewayProxyResponseEvent responseEvent =
+                postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+
+        assertEquals(500, responseEvent.getStatusCode());
+        verify(eventProbe).counterMetric("postcode_lookup", 0d);
+    }
+
+    @Test
+    void LooksUpPostcodeWhileSessionIsValidated() throws JsonProcessingException, SqsException {
+        String sessionId = String.valueOf(UUID.randomUUID());
+        List<CanonicalAddress> addresses = List.of(new CanonicalAddress());
+        CompletableFuture<List<CanonicalAddress>> lookup = new CompletableFuture<>();
+        SessionItem sessionItem = validSession();
+        when(eventProbe.counterMetric(anyString())).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", sessionId));
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        when(postcodeLookupService.lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class)))
+                .thenReturn(lookup);
+        // OS only answers once the session read is under way, which it can if both overlap
+        when(sessionService.validateSessionId(sessionId))
+                .thenAnswer(
+                        invocation -> {
+                            lookup.complete(addresses);
+                            return sessionItem;
+                        });
+
+        APIGatewayProxyResponseEvent responseEvent =
+                postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+
+        assertEquals(200, responseEvent.getStatusCode());
+        assertFalse(lookup.isCancelled());
+        verify(auditService).sendAuditEvent(eq(AuditEventType.REQUEST_SENT), any());
+    }
+
+    @Test
+    void NoLookupIsStartedWithoutASessionId() throws SessionValidationException {
+        setupEventProbeErrorBehaviour();
+        SessionValidationException exception = new SessionValidationException("Session id missing");
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of());
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        willThrow(exception).given(sessionService).validateSessionId(isNull());
+
+        postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+
+        verify(postcodeLookupService, never()).lookupPostcodeAsync(any(), any(Deadline.class));
+    }
+
+    @Test
+    void TooManyLookupsForSessionReturns429WithoutValidatingSession()
+            throws JsonProcessingException, PostcodeLookupValidationException,
+                    PostcodeLookupProcessingException {
+        UUID sessionId = UUID.randomUUID();
+        SessionItem sessionItem = mock(SessionItem.class);
+        when(eventProbe.counterMetric(anyString())).thenReturn(eventProbe);
+        when(eventProbe.counterMetric(anyString(), anyDouble())).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders())
+                .thenReturn(Map.of("session_id", sessionId.toString()));
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        when(sessionService.validateSessionId(sessionId.toString())).thenReturn(sessionItem);
+        when(sessionItem.getSessionId()).thenReturn(sessionId);
+        when(postcodeLookupService.lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class)))
+                .thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+
+        postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+        APIGatewayProxyResponseEvent responseEvent =
+                postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+
+        assertEquals(429, responseEvent.getStatusCode());
+        assertTrue(responseEvent.getBody().contains("enter address manually"));
+        // The limit is checked on the header, so the third request costs no session read
+        verify(sessionService, times(2)).validateSessionId(sessionId.toString());
+        // Nor is a lookup started for it
+        verify(postcodeLookupService, times(2))
+                .lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class));
+        verify(eventProbe).counterMetric("postcode_lookup", 0d);
+    }
+
+    @Test
+    void SessionOverSharedLookupLimitReturns429AndDropsLookup()
+            throws JsonProcessingException, SqsException, PostcodeLookupValidationException,
+                    PostcodeLookupProcessingException {
+        UUID sessionId = UUID.randomUUID();
+        SessionItem sessionItem = mock(SessionItem.class);
+        postcodeLookupHandler =
+                new PostcodeLookupHandler(
+                        postcodeLookupService,
+                        sessionService,
+                        eventProbe,
+                        auditService,
+                        sharedLookupLimiter);
+        when(eventProbe.counterMetric(anyString(), anyDouble())).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders())
+                .thenReturn(Map.of("session_id", sessionId.toString()));
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        when(sessionService.validateSessionId(sessionId.toString())).thenReturn(sessionItem);
+        when(sessionItem.getSessionId()).thenReturn(sessionId);
+        when(sharedLookupLimiter.tryAcquire(sessionId.toString())).thenReturn(true);
+        when(sharedLookupLimiter.tryAcquireShared(sessionId)).thenReturn(false);
+        CompletableFuture<List<CanonicalAddress>> lookup = new CompletableFuture<>();
+        when(postcodeLookupService.lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class)))
+                .thenReturn(lookup);
+
+        APIGatewayProxyResponseEvent responseEvent =
+                postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+
+        assertEquals(429, responseEvent.getStatusCode());
+        assertTrue(lookup.isCancelled());
+        verify(auditService, never()).sendAuditEvent(any(AuditEventType.class), any());
+    }
+
+    @Test
+    void WaitsForAuditEventWhenResponseCannotBeBuilt() throws Exception {
+        String sessionId = String.valueOf(UUID.randomUUID());
+        RuntimeException exception = new IllegalStateException("Metrics unavailable");
+        when(eventProbe.counterMetric("postcode_lookup")).thenThrow(exception);
+        when(eventProbe.counterMetric(anyString(), anyDouble())).thenReturn(eventProbe);
+        when(eventProbe.log(any(Level.class), any(Exception.class))).thenReturn(eventProbe);
+        when(apiGatewayProxyRequestEvent.getHeaders()).thenReturn(Map.of("session_id", sessionId));
+        when(apiGatewayProxyRequestEvent.getPathParameters())
+                .thenReturn(Map.of("postcode", "LS1 1BA"));
+        SessionItem sessionItem = validSession();
+        when(sessionService.validateSessionId(sessionId)).thenReturn(sessionItem);
+        when(postcodeLookupService.lookupPostcodeAsync(eq("LS1 1BA"), any(Deadline.class)))
+                .thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
+
+        APIGatewayProxyResponseEvent responseEvent =
+                postcodeLookupHandler.handleRequest(apiGatewayProxyRequestEvent, null);
+
+        assertEquals(500, responseEvent.getStatusCode());
+        // The send started for this invocation is not left for the next one to wait on
+        InOrder inOrder = inOrder(auditService);
+        inOrder.verify(auditService).flushAsync();
+        inOrder.verify(auditService).flush();
+    }
+
+    private static SessionItem validSession() {
+        SessionItem sessionItem = mock(SessionItem.class);
+        when(sessionItem.getSessionId()).thenReturn(UUID.randomUUID());
+        return sessionItem;
     }
 
     private void setupEventProbeErrorBehaviour() {
@@ -0,0 +1,114 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class AimdConcurrencyLimiterTest {
+    private static final Duration LATENCY_THRESHOLD = Duration.ofMillis(500);
+    private static final Duration FAST = Duration.ofMillis(100);
+    private static final Duration SLOW = Duration.ofSeconds(2);
+
+    @Mock private EventProbe eventProbe;
+
+    @Test
+    void shedsCallsOverTheLimitWithoutQueueing() {
+        AimdConcurrencyLimiter limiter = limiter(2);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        verify(eventProbe).counterMetric(AimdConcurrencyLimiter.SHED_METRIC);
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void growsByOneForFastCallsWhileBusy() {
+        AimdConcurrencyLimiter limiter = limiter(4);
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+
+        limiter.onSuccess(FAST);
+
+        assertEquals(5, limiter.getLimit());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    void doesNotGrowWhileMostlyIdle() {
+        AimdConcurrencyLimiter limiter = limiter(10);
+        limiter.tryAcquire();
+
+        limiter.onSuccess(FAST);
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    void backsOffForSlowCalls() {
+        AimdConcurrencyLimiter limiter = limiter(10);
+        limiter.tryAcquire();
+
+        limiter.onSuccess(SLOW);
+
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    void backsOffForFailedCallsButNotBelowMinimum() {
+        AimdConcurrencyLimiter limiter = limiter(4);
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+            limiter.onDropped();
+        }
+
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void doesNotGrowPastMaximum() {
+        AimdConcurrencyLimiter limiter = limiter(20);
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire();
+        }
+
+        limiter.onSuccess(FAST);
+
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    void releaseLeavesLimitAlone() {
+        AimdConcurrencyLimiter limiter = limiter(4);
+        limiter.tryAcquire();
+
+        limiter.release();
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void rejectsInvalidBounds() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new AimdConcurrencyLimiter(5, 0, 10, LATENCY_THRESHOLD, 0.5, eventProbe));
+    }
+
+    private AimdConcurrencyLimiter limiter(int initialLimit) {
+        return new AimdConcurrencyLimiter(initialLimit, 2, 20, LATENCY_THRESHOLD, 0.5, eventProbe);
+    }
+}
@@ -0,0 +1,108 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class CircuitBreakerTest {
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    @Mock private EventProbe eventProbe;
+
+    private MutableClock clock;
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2022-06-01T10:00:00Z"));
+        circuitBreaker = new CircuitBreaker(10, 4, 50, OPEN_DURATION, eventProbe, clock);
+    }
+
+    @Test
+    void staysClosedUntilMinimumCallsHaveBeenSeen() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(circuitBreaker.tryAcquire());
+            circuitBreaker.recordFailure();
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThresholdAndRefusesCalls() {
+        recordOutcomes(true, false, true, false);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        verify(eventProbe).counterMetric("postcode_lookup_circuit_open");
+        verify(eventProbe).counterMetric("postcode_lookup_circuit_rejected");
+    }
+
+    @Test
+    void staysClosedBelowFailureRateThreshold() {
+        recordOutcomes(true, false, false, false, false, true, false, false);
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void letsOneTrialCallThroughAfterOpenDurationAndClosesOnSuccess() {
+        recordOutcomes(true, true, true, true);
+        clock.advance(OPEN_DURATION);
+
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        circuitBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        verify(eventProbe).counterMetric("postcode_lookup_circuit_half_open");
+        verify(eventProbe).counterMetric("postcode_lookup_circuit_closed");
+    }
+
+    @Test
+    void reopensWhenTrialCallFails() {
+        recordOutcomes(true, true, true, true);
+        clock.advance(OPEN_DURATION);
+
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void releasedTrialPermitCanBeTakenAgain() {
+        recordOutcomes(true, true, true, true);
+        clock.advance(OPEN_DURATION);
+
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.release();
+
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    private void recordOutcomes(boolean... failures) {
+        for (boolean failure : failures) {
+            assertTrue(circuitBreaker.tryAcquire());
+            if (failure) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class DynamoDbTokenBucketTest {
+    private static final String TABLE_NAME = "os-rate-limit";
+    private static final Duration LEASE_DURATION = Duration.ofSeconds(1);
+
+    private static AmazonDynamoDBLocal dynamoDbLocal;
+    private static DynamoDbClient dynamoDbClient;
+
+    @Mock private EventProbe eventProbe;
+
+    private MutableClock clock;
+    private String apiKey;
+
+    @BeforeAll
+    static void startDynamoDbLocal() {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        dynamoDbClient = dynamoDbLocal.dynamoDbClient();
+        dynamoDbClient.createTable(
+                builder ->
+                        builder.tableName(TABLE_NAME)
+                                .billingMode(BillingMode.PAY_PER_REQUEST)
+                                .attributeDefinitions(
+                                        AttributeDefinition.builder()
+                                                .attributeName(DynamoDbTokenBucket.BUCKET_ID)
+                                                .attributeType(ScalarAttributeType.S)
+                                                .build())
+                                .keySchema(
+                                        KeySchemaElement.builder()
+                                                .attributeName(DynamoDbTokenBucket.BUCKET_ID)
+                                                .keyType(KeyType.HASH)
+                                                .build()));
+    }
+
+    @AfterAll
+    static void stopDynamoDbLocal() {
+        dynamoDbLocal.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2022-06-01T10:00:00Z"));
+        // A fresh key per test gives each test its own bucket
+        apiKey = UUID.randomUUID().toString();
+    }
+
+    @Test
+    void startsWithASingleTokenAndGrowsTheLeaseWhileItIsUsedUp() {
+        DynamoDbTokenBucket tokenBucket = tokenBucket(20, 4, TABLE_NAME);
+
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertEquals(19.0, storedTokens());
+
+        // Leases of 2 then 4, the most allowed, then spent locally
+        for (int i = 0; i < 9; i++) {
+            assertTrue(tokenBucket.tryAcquire(apiKey));
+        }
+
+        verify(eventProbe, times(4)).counterMetric(DynamoDbTokenBucket.LEASE_METRIC);
+        assertEquals(9.0, storedTokens());
+    }
+
+    @Test
+    void refusesOnceTheBucketIsEmpty() {
+        DynamoDbTokenBucket tokenBucket = tokenBucket(2, 5, TABLE_NAME);
+
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertFalse(tokenBucket.tryAcquire(apiKey));
+
+        verify(eventProbe).counterMetric(DynamoDbTokenBucket.RATE_LIMITED_METRIC);
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        DynamoDbTokenBucket tokenBucket = tokenBucket(2, 2, TABLE_NAME);
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertFalse(tokenBucket.tryAcquire(apiKey));
+
+        clock.advance(Duration.ofMillis(500));
+
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertFalse(tokenBucket.tryAcquire(apiKey));
+    }
+
+    @Test
+    void containersShareTheSameBucket() {
+        DynamoDbTokenBucket first = tokenBucket(2, 3, TABLE_NAME);
+        DynamoDbTokenBucket second = tokenBucket(2, 3, TABLE_NAME);
+        DynamoDbTokenBucket third = tokenBucket(2, 3, TABLE_NAME);
+
+        assertTrue(first.tryAcquire(apiKey));
+        assertTrue(second.tryAcquire(apiKey));
+        assertFalse(third.tryAcquire(apiKey));
+        assertEquals(0.0, storedTokens());
+    }
+
+    @Test
+    void startsAgainFromOneTokenOnceDemandFalls() {
+        DynamoDbTokenBucket tokenBucket = tokenBucket(10, 4, TABLE_NAME);
+        // Leases of 1 and 2, leaving one token unused
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        assertEquals(7.0, storedTokens());
+
+        clock.advance(LEASE_DURATION);
+
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        verify(eventProbe, times(3)).counterMetric(DynamoDbTokenBucket.LEASE_METRIC);
+        // Two tokens refilled and a single one leased
+        assertEquals(8.0, storedTokens());
+    }
+
+    @Test
+    void refusesNoContainerWhileEachStaysBelowItsShare() {
+        // Ten containers, each making a call a second, share 15 tokens a second between them
+        List<DynamoDbTokenBucket> containers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            containers.add(tokenBucket(30, 5, 15, TABLE_NAME));
+        }
+
+        for (int second = 0; second < 30; second++) {
+            for (DynamoDbTokenBucket container : containers) {
+                assertTrue(container.tryAcquire(apiKey));
+                clock.advance(Duration.ofMillis(100));
+            }
+        }
+
+        verify(eventProbe, never()).counterMetric(DynamoDbTokenBucket.RATE_LIMITED_METRIC);
+    }
+
+    @Test
+    void allowsCallsWhenTableIsUnavailable() {
+        DynamoDbTokenBucket tokenBucket = tokenBucket(10, 5, "missing-table");
+
+        assertTrue(tokenBucket.tryAcquire(apiKey));
+        verify(eventProbe).counterMetric(DynamoDbTokenBucket.ERROR_METRIC);
+    }
+
+    @Test
+    void disabledBucketAlwaysAllows() {
+        DynamoDbTokenBucket tokenBucket = DynamoDbTokenBucket.disabled();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tokenBucket.tryAcquire(apiKey));
+        }
+    }
+
+    @Test
+    void bucketIdDoesNotContainTheKey() {
+        String bucketId = DynamoDbTokenBucket.bucketId(apiKey);
+
+        assertFalse(bucketId.contains(apiKey));
+        assertEquals(bucketId, DynamoDbTokenBucket.bucketId(apiKey));
+        assertTrue(bucketId.startsWith("os-places#"));
+    }
+
+    private DynamoDbTokenBucket tokenBucket(double capacity, int maxLeaseSize, String tableName) {
+        return tokenBucket(capacity, maxLeaseSize, 2, tableName);
+    }
+
+    private DynamoDbTokenBucket tokenBucket(
+            double capacity, int maxLeaseSize, double tokensPerSecond, String tableName) {
+        return new DynamoDbTokenBucket(
+                dynamoDbClient,
+                tableName,
+                tokensPerSecond,
+                capacity,
+                maxLeaseSize,
+                LEASE_DURATION,
+                eventProbe,
+                clock);
+    }
+
+    private double storedTokens() {
+        AttributeValue bucketId =
+                AttributeValue.builder().s(DynamoDbTokenBucket.bucketId(apiKey)).build();
+        Map<String, AttributeValue> item =
+                dynamoDbClient
+                        .getItem(
+                                builder ->
+                                        builder.tableName(TABLE_NAME)
+                                                .key(
+                                                        Map.of(
+                                                                DynamoDbTokenBucket.BUCKET_ID,
+                                                                bucketId)))
+                        .item();
+        return Double.parseDouble(item.get(DynamoDbTokenBucket.TOKENS).n());
+    }
+}
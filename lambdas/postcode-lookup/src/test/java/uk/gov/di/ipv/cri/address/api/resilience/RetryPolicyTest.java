@@ -0,0 +1,96 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private static final Duration BASE_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_DELAY = Duration.ofSeconds(2);
+    private static final Instant NOW = Instant.parse("2022-06-01T10:00:00Z");
+
+    private final RetryPolicy retryPolicy =
+            new RetryPolicy(
+                    3, BASE_DELAY, MAX_DELAY, duration -> {}, Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void onlyThrottlingAndGatewayErrorsAreRetryable() {
+        assertTrue(retryPolicy.isRetryable(429));
+        assertTrue(retryPolicy.isRetryable(502));
+        assertTrue(retryPolicy.isRetryable(503));
+        assertTrue(retryPolicy.isRetryable(504));
+        assertFalse(retryPolicy.isRetryable(400));
+        assertFalse(retryPolicy.isRetryable(401));
+        assertFalse(retryPolicy.isRetryable(500));
+    }
+
+    @Test
+    void delaysStayBetweenBaseAndThreeTimesPreviousUpToMaximum() {
+        Duration previous = Duration.ZERO;
+        for (int i = 0; i < 50; i++) {
+            Duration delay = retryPolicy.nextDelay(previous);
+
+            assertTrue(delay.compareTo(BASE_DELAY) >= 0);
+            assertTrue(delay.compareTo(MAX_DELAY) <= 0);
+            if (!previous.isZero()) {
+                assertTrue(delay.compareTo(previous.multipliedBy(3)) <= 0);
+            }
+            previous = delay;
+        }
+        assertEquals(BASE_DELAY, retryPolicy.nextDelay(Duration.ZERO));
+    }
+
+    @Test
+    void readsRetryAfterAsSeconds() {
+        assertEquals(Optional.of(Duration.ofSeconds(3)), retryPolicy.retryAfter(headers("3")));
+    }
+
+    @Test
+    void readsRetryAfterAsHttpDate() {
+        assertEquals(
+                Optional.of(Duration.ofSeconds(5)),
+                retryPolicy.retryAfter(headers("Wed, 01 Jun 2022 10:00:05 GMT")));
+        assertEquals(
+                Optional.of(Duration.ZERO),
+                retryPolicy.retryAfter(headers("Wed, 01 Jun 2022 09:59:00 GMT")));
+    }
+
+    @Test
+    void ignoresMissingOrInvalidRetryAfter() {
+        assertEquals(
+                Optional.empty(),
+                retryPolicy.retryAfter(HttpHeaders.of(Map.of(), (name, value) -> true)));
+        assertEquals(Optional.empty(), retryPolicy.retryAfter(headers("soon")));
+    }
+
+    @Test
+    void usesRetryAfterOnlyWhenLongerThanJitteredDelay() {
+        assertEquals(
+                Duration.ofSeconds(3), retryPolicy.delayFor(headers("3"), Duration.ofMillis(200)));
+        assertEquals(
+                Duration.ofMillis(200), retryPolicy.delayFor(headers("0"), Duration.ofMillis(200)));
+    }
+
+    @Test
+    void rejectsFewerThanOneAttempt() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new RetryPolicy(0, BASE_DELAY, MAX_DELAY, duration -> {}, Clock.systemUTC()));
+    }
+
+    private static HttpHeaders headers(String retryAfter) {
+        return HttpHeaders.of(Map.of("Retry-After", List.of(retryAfter)), (name, value) -> true);
+    }
+}
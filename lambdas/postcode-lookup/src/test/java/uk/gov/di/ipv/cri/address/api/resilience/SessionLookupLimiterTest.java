@@ -0,0 +1,186 @@
+package uk.gov.di.ipv.cri.address.api.resilience;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class SessionLookupLimiterTest {
+    private static final String TABLE_NAME = "session";
+
+    private static AmazonDynamoDBLocal dynamoDbLocal;
+    private static DynamoDbClient dynamoDbClient;
+
+    @Mock private EventProbe eventProbe;
+
+    private MutableClock clock;
+    private UUID sessionId;
+
+    @BeforeAll
+    static void startDynamoDbLocal() {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        dynamoDbClient = dynamoDbLocal.dynamoDbClient();
+        dynamoDbClient.createTable(
+                builder ->
+                        builder.tableName(TABLE_NAME)
+                                .billingMode(BillingMode.PAY_PER_REQUEST)
+                                .attributeDefinitions(
+                                        AttributeDefinition.builder()
+                                                .attributeName(SessionLookupLimiter.SESSION_ID)
+                                                .attributeType(ScalarAttributeType.S)
+                                                .build())
+                                .keySchema(
+                                        KeySchemaElement.builder()
+                                                .attributeName(SessionLookupLimiter.SESSION_ID)
+                                                .keyType(KeyType.HASH)
+                                                .build()));
+    }
+
+    @AfterAll
+    static void stopDynamoDbLocal() {
+        dynamoDbLocal.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2022-06-01T10:00:00Z"));
+        sessionId = UUID.randomUUID();
+    }
+
+    @Test
+    void allowsABurstThenRefusesLocally() {
+        SessionLookupLimiter limiter = limiter(3, 6, null);
+
+        assertTrue(limiter.tryAcquire(sessionId.toString()));
+        assertTrue(limiter.tryAcquire(sessionId.toString()));
+        assertTrue(limiter.tryAcquire(sessionId.toString()));
+        assertFalse(limiter.tryAcquire(sessionId.toString()));
+
+        verify(eventProbe).counterMetric(SessionLookupLimiter.LIMITED_METRIC);
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        SessionLookupLimiter limiter = limiter(1, 6, null);
+        assertTrue(limiter.tryAcquire(sessionId.toString()));
+        assertFalse(limiter.tryAcquire(sessionId.toString()));
+
+        clock.advance(Duration.ofSeconds(10));
+
+        assertTrue(limiter.tryAcquire(sessionId.toString()));
+        assertFalse(limiter.tryAcquire(sessionId.toString()));
+    }
+
+    @Test
+    void keepsSessionsApart() {
+        SessionLookupLimiter limiter = limiter(1, 6, null);
+
+        assertTrue(limiter.tryAcquire(sessionId.toString()));
+        assertTrue(limiter.tryAcquire(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    void leavesMissingSessionIdToValidation() {
+        SessionLookupLimiter limiter = limiter(1, 6, null);
+
+        assertTrue(limiter.tryAcquire(null));
+        assertTrue(limiter.tryAcquire(null));
+    }
+
+    @Test
+    void countsLookupsOnTheSessionItem() {
+        putSession();
+        SessionLookupLimiter first = limiter(10, 6, TABLE_NAME);
+        SessionLookupLimiter second = limiter(10, 6, TABLE_NAME);
+
+        assertTrue(first.tryAcquireShared(sessionId));
+        assertTrue(second.tryAcquireShared(sessionId));
+        assertFalse(first.tryAcquireShared(sessionId));
+
+        assertEquals("2", storedCount());
+        verify(eventProbe).counterMetric(SessionLookupLimiter.COUNTER_LIMITED_METRIC);
+    }
+
+    @Test
+    void doesNotCreateItemForUnknownSession() {
+        SessionLookupLimiter limiter = limiter(10, 6, TABLE_NAME);
+
+        assertFalse(limiter.tryAcquireShared(sessionId));
+
+        assertTrue(getSession().isEmpty());
+    }
+
+    @Test
+    void allowsLookupsWhenSessionTableIsUnavailable() {
+        SessionLookupLimiter limiter = limiter(10, 6, "missing-table");
+
+        assertTrue(limiter.tryAcquireShared(sessionId));
+
+        verify(eventProbe).counterMetric(SessionLookupLimiter.COUNTER_ERROR_METRIC);
+    }
+
+    private SessionLookupLimiter limiter(int burst, int lookupsPerMinute, String tableName) {
+        return new SessionLookupLimiter(
+                burst,
+                lookupsPerMinute,
+                tableName == null ? null : dynamoDbClient,
+                tableName,
+                2,
+                eventProbe,
+                clock);
+    }
+
+    private void putSession() {
+        dynamoDbClient.putItem(
+                builder ->
+                        builder.tableName(TABLE_NAME)
+                                .item(
+                                        Map.of(
+                                                SessionLookupLimiter.SESSION_ID,
+                                                AttributeValue.builder()
+                                                        .s(sessionId.toString())
+                                                        .build())));
+    }
+
+    private Map<String, AttributeValue> getSession() {
+        return dynamoDbClient
+                .getItem(
+                        builder ->
+                                builder.tableName(TABLE_NAME)
+                                        .key(
+                                                Map.of(
+                                                        SessionLookupLimiter.SESSION_ID,
+                                                        AttributeValue.builder()
+                                                                .s(sessionId.toString())
+                                                                .build())))
+                .item();
+    }
+
+    private String storedCount() {
+        return getSession().get(SessionLookupLimiter.LOOKUP_COUNT).n();
+    }
+}
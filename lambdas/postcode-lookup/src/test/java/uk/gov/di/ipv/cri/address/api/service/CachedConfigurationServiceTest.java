@@ -0,0 +1,92 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CachedConfigurationServiceTest {
+    private static final Duration PARAMETER_TTL = Duration.ofMinutes(5);
+    private static final Duration SECRET_TTL = Duration.ofMinutes(1);
+
+    @Mock private ConfigurationService configurationService;
+    private final AtomicLong nanos = new AtomicLong();
+    private CachedConfigurationService cachedConfigurationService;
+
+    @BeforeEach
+    void setUp() {
+        cachedConfigurationService =
+                new CachedConfigurationService(
+                        configurationService, PARAMETER_TTL, SECRET_TTL, Runnable::run, nanos::get);
+    }
+
+    @Test
+    void shouldOnlyFetchParameterOnceWithinTtl() {
+        when(configurationService.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("https://api.os.uk/search/places/v1/postcode");
+
+        cachedConfigurationService.getParameterValue("OrdnanceSurveyAPIURL");
+        nanos.addAndGet(PARAMETER_TTL.minusSeconds(1).toNanos());
+
+        assertEquals(
+                "https://api.os.uk/search/places/v1/postcode",
+                cachedConfigurationService.getParameterValue("OrdnanceSurveyAPIURL"));
+        verify(configurationService, times(1)).getParameterValue("OrdnanceSurveyAPIURL");
+    }
+
+    @Test
+    void shouldServeCurrentSecretWhileRefreshingAfterTtl() {
+        when(configurationService.getSecretValue("OrdnanceSurveyAPIKey"))
+                .thenReturn("old-key", "new-key");
+
+        assertEquals("old-key", cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"));
+        nanos.addAndGet(SECRET_TTL.plusSeconds(1).toNanos());
+
+        assertEquals("old-key", cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"));
+        assertEquals("new-key", cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"));
+        verify(configurationService, times(2)).getSecretValue("OrdnanceSurveyAPIKey");
+    }
+
+    @Test
+    void shouldKeepCurrentSecretWhenRefreshFails() {
+        when(configurationService.getSecretValue("OrdnanceSurveyAPIKey"))
+                .thenReturn("old-key")
+                .thenThrow(new IllegalStateException("Secrets Manager unavailable"));
+
+        cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey");
+        nanos.addAndGet(SECRET_TTL.plusSeconds(1).toNanos());
+        cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey");
+
+        assertEquals("old-key", cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"));
+    }
+
+    @Test
+    void shouldFetchSecretAgainAfterInvalidation() {
+        when(configurationService.getSecretValue("OrdnanceSurveyAPIKey"))
+                .thenReturn("old-key", "new-key");
+
+        cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey");
+        cachedConfigurationService.invalidateSecret("OrdnanceSurveyAPIKey");
+
+        assertEquals("new-key", cachedConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"));
+    }
+
+    @Test
+    void shouldPrefetchParameterAndSecret() {
+        cachedConfigurationService.prefetch("OrdnanceSurveyAPIURL", "OrdnanceSurveyAPIKey");
+
+        verify(configurationService).getParameterValue("OrdnanceSurveyAPIURL");
+        verify(configurationService).getSecretValue("OrdnanceSurveyAPIKey");
+    }
+}
@@ -0,0 +1,174 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.address.api.exceptions.OrdnanceSurveyUnavailableException;
+import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class InFlightPostcodeLookupsTest {
+    @Mock private EventProbe eventProbe;
+    private InFlightPostcodeLookups inFlightLookups;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        inFlightLookups = new InFlightPostcodeLookups(eventProbe);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldShareOneLookupBetweenConcurrentCallers() throws Exception {
+        List<CanonicalAddress> addresses = List.of(new CanonicalAddress());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger lookups = new AtomicInteger();
+
+        Future<List<CanonicalAddress>> leader =
+                executor.submit(
+                        () ->
+                                inFlightLookups.coalesce(
+                                        "LS1 1BA",
+                                        () -> {
+                                            lookups.incrementAndGet();
+                                            started.countDown();
+                                            awaitRelease(release);
+                                            return addresses;
+                                        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<List<CanonicalAddress>> follower =
+                executor.submit(
+                        () ->
+                                inFlightLookups.coalesce(
+                                        "ls11ba",
+                                        () -> {
+                                            lookups.incrementAndGet();
+                                            return List.of();
+                                        }));
+        verify(eventProbe, timeout(5000)).counterMetric(InFlightPostcodeLookups.COALESCED_METRIC);
+        release.countDown();
+
+        assertSame(addresses, leader.get(5, TimeUnit.SECONDS));
+        assertSame(addresses, follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, lookups.get());
+        assertEquals(0, inFlightLookups.inFlightCount());
+    }
+
+    @Test
+    void shouldPassLeaderFailureToWaitingCallers() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<List<CanonicalAddress>> leader =
+                executor.submit(
+                        () ->
+                                inFlightLookups.coalesce(
+                                        "LS1 1BA",
+                                        () -> {
+                                            started.countDown();
+                                            awaitRelease(release);
+                                            throw new PostcodeLookupProcessingException(
+                                                    "OS unavailable");
+                                        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<List<CanonicalAddress>> follower =
+                executor.submit(() -> inFlightLookups.coalesce("LS1 1BA", List::of));
+        verify(eventProbe, timeout(5000)).counterMetric(InFlightPostcodeLookups.COALESCED_METRIC);
+        release.countDown();
+
+        ExecutionException leaderFailure =
+                assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        ExecutionException followerFailure =
+                assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(PostcodeLookupProcessingException.class, leaderFailure.getCause());
+        assertSame(leaderFailure.getCause(), followerFailure.getCause());
+        assertEquals(0, inFlightLookups.inFlightCount());
+    }
+
+    @Test
+    void shouldStopWaitingOnAStalledLookupWhenTheCallersDeadlinePasses() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<CanonicalAddress> addresses = List.of(new CanonicalAddress());
+
+        Future<List<CanonicalAddress>> leader =
+                executor.submit(
+                        () ->
+                                inFlightLookups.coalesce(
+                                        "LS1 1BA",
+                                        () -> {
+                                            started.countDown();
+                                            awaitRelease(release);
+                                            return addresses;
+                                        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () ->
+                        inFlightLookups.coalesce(
+                                "LS1 1BA", Deadline.after(Duration.ofMillis(50)), List::of));
+        assertEquals(1, inFlightLookups.inFlightCount());
+
+        release.countDown();
+        assertSame(addresses, leader.get(5, TimeUnit.SECONDS));
+        assertEquals(0, inFlightLookups.inFlightCount());
+    }
+
+    @Test
+    void shouldRunSequentialLookupsSeparately() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+
+        InFlightPostcodeLookups.Lookup lookup =
+                () -> {
+                    lookups.incrementAndGet();
+                    return List.of(new CanonicalAddress());
+                };
+
+        inFlightLookups.coalesce("LS1 1BA", lookup);
+        inFlightLookups.coalesce("LS1 1BA", lookup);
+
+        assertEquals(2, lookups.get());
+        verify(eventProbe, never()).counterMetric(InFlightPostcodeLookups.COALESCED_METRIC);
+    }
+
+    private static void awaitRelease(CountDownLatch release) {
+        try {
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.address.api.resilience.MutableClock;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OrdnanceSurveyApiKeyPoolTest {
+    private static final String SECRET = OrdnanceSurveyRequestTemplate.API_KEY_SECRET;
+
+    @Mock private CachedConfigurationService configuration;
+    @Mock private EventProbe eventProbe;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2022-06-01T12:00:00Z"));
+    private OrdnanceSurveyApiKeyPool keyPool;
+
+    @BeforeEach
+    void setUp() {
+        keyPool =
+                new OrdnanceSurveyApiKeyPool(
+                        configuration,
+                        Duration.ofMinutes(5),
+                        Duration.ofSeconds(2),
+                        Duration.ofSeconds(30),
+                        eventProbe,
+                        clock);
+    }
+
+    @Test
+    void usesPlainSecretAsSingleKey() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("api-key");
+
+        assertEquals(Optional.of("api-key"), keyPool.select());
+        assertEquals(Optional.of("api-key"), keyPool.select());
+    }
+
+    @Test
+    void spreadsSelectionsByWeight() {
+        when(configuration.getSecretValue(SECRET))
+                .thenReturn("[{\"key\": \"key-a\", \"weight\": 3}, \"key-b\"]");
+
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            selected.add(keyPool.select().orElseThrow());
+        }
+
+        assertEquals(6, Collections.frequency(selected, "key-a"));
+        assertEquals(2, Collections.frequency(selected, "key-b"));
+        // Smooth round-robin interleaves the lighter key rather than bunching it
+        assertEquals(List.of("key-a", "key-a", "key-b", "key-a"), selected.subList(0, 4));
+    }
+
+    @Test
+    void takesUnauthorisedKeyOutOfRotationAndReloadsSecret() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("[\"key-a\", \"key-b\"]");
+
+        keyPool.recordUnauthorised(keyPool.select().orElseThrow());
+
+        assertEquals(Optional.of("key-b"), keyPool.select());
+        assertEquals(Optional.of("key-b"), keyPool.select());
+        assertFalse(keyPool.hasAvailableKeyBesides("key-b"));
+        verify(configuration).invalidateSecret(SECRET);
+        verify(eventProbe).counterMetric(OrdnanceSurveyApiKeyPool.UNAUTHORISED_METRIC);
+
+        clock.advance(Duration.ofMinutes(5));
+        assertTrue(keyPool.hasAvailableKeyBesides("key-b"));
+    }
+
+    @Test
+    void keepsOnlyKeyInRotationWhenUnauthorised() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("api-key");
+
+        keyPool.recordUnauthorised(keyPool.select().orElseThrow());
+
+        // Benching the last key would fail every lookup for the whole cooldown
+        assertEquals(Optional.of("api-key"), keyPool.select());
+        assertEquals(Duration.ZERO, keyPool.untilNextAvailable());
+        verify(configuration).invalidateSecret(SECRET);
+        verify(eventProbe).counterMetric(OrdnanceSurveyApiKeyPool.UNAUTHORISED_METRIC);
+    }
+
+    @Test
+    void clearsCooldownOfKeyKeptInReloadedSecret() {
+        when(configuration.getSecretValue(SECRET))
+                .thenReturn("[\"key-a\", \"key-b\"]", "[\"key-a\", \"key-c\"]");
+        keyPool.select();
+        keyPool.recordUnauthorised("key-a");
+
+        assertTrue(keyPool.hasAvailableKeyBesides("key-c"));
+        assertTrue(keyPool.hasAvailableKeyBesides("key-a"));
+    }
+
+    @Test
+    void honoursRetryAfterForThrottledKey() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("api-key");
+
+        keyPool.select();
+        keyPool.recordThrottled("api-key", Optional.of(Duration.ofSeconds(7)));
+
+        assertEquals(Optional.empty(), keyPool.select());
+        assertEquals(Duration.ofSeconds(7), keyPool.untilNextAvailable());
+        clock.advance(Duration.ofSeconds(7));
+        assertEquals(Optional.of("api-key"), keyPool.select());
+        assertEquals(Duration.ZERO, keyPool.untilNextAvailable());
+    }
+
+    @Test
+    void usesDefaultCooldownForThrottledKeyWithoutRetryAfter() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("api-key");
+
+        keyPool.select();
+        keyPool.recordThrottled("api-key", Optional.empty());
+
+        assertEquals(Duration.ofSeconds(2), keyPool.untilNextAvailable());
+        verify(eventProbe).counterMetric(OrdnanceSurveyApiKeyPool.THROTTLED_METRIC);
+    }
+
+    @Test
+    void takesErroringKeyOutOnlyWhileAnotherIsHealthy() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("[\"key-a\", \"key-b\"]");
+        keyPool.select();
+
+        keyPool.recordError("key-a");
+        keyPool.recordError("key-a");
+        keyPool.recordError("key-a");
+        assertFalse(keyPool.hasAvailableKeyBesides("key-b"));
+
+        // Errors on the last key look like OS failing, so it stays in rotation
+        keyPool.recordError("key-b");
+        keyPool.recordError("key-b");
+        keyPool.recordError("key-b");
+        assertEquals(Optional.of("key-b"), keyPool.select());
+    }
+
+    @Test
+    void successResetsErrorCount() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("[\"key-a\", \"key-b\"]");
+        keyPool.select();
+
+        keyPool.recordError("key-a");
+        keyPool.recordError("key-a");
+        keyPool.recordSuccess("key-a");
+        keyPool.recordError("key-a");
+
+        assertTrue(keyPool.hasAvailableKeyBesides("key-b"));
+    }
+
+    @Test
+    void forgetsCooldownOfRotatedOutKey() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("key-a", "key-b", "key-a");
+        keyPool.select();
+        keyPool.recordUnauthorised("key-a");
+
+        assertEquals(Optional.of("key-b"), keyPool.select());
+        assertEquals(Optional.of("key-a"), keyPool.select());
+    }
+
+    @Test
+    void rejectsMalformedSecretWithoutRevealingIt() {
+        when(configuration.getSecretValue(SECRET)).thenReturn("[\"secret-key\"");
+
+        IllegalStateException error =
+                assertThrows(IllegalStateException.class, () -> keyPool.select());
+
+        assertFalse(error.getMessage().contains("secret-key"));
+    }
+
+    @Test
+    void rejectsKeyWithoutPositiveWeight() {
+        when(configuration.getSecretValue(SECRET))
+                .thenReturn("[{\"key\": \"key-a\", \"weight\": 0}]");
+
+        assertThrows(IllegalStateException.class, () -> keyPool.select());
+    }
+}
@@ -0,0 +1,567 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import uk.gov.di.ipv.cri.address.api.exceptions.OrdnanceSurveyUnavailableException;
+import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
+import uk.gov.di.ipv.cri.address.api.resilience.AimdConcurrencyLimiter;
+import uk.gov.di.ipv.cri.address.api.resilience.CircuitBreaker;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
+import uk.gov.di.ipv.cri.address.api.resilience.DynamoDbTokenBucket;
+import uk.gov.di.ipv.cri.address.api.resilience.LatencyTracker;
+import uk.gov.di.ipv.cri.address.api.resilience.MutableClock;
+import uk.gov.di.ipv.cri.address.api.resilience.RetryPolicy;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OrdnanceSurveyClientTest {
+    private static final Duration LATENCY_BUDGET = Duration.ofMillis(500);
+
+    @Mock private HttpClient httpClient;
+    @Mock private OrdnanceSurveyRequestTemplate requestTemplate;
+    @Mock private EventProbe eventProbe;
+    @Mock private HttpResponse<InputStream> mockResponse;
+    @Mock private HttpResponse<InputStream> throttledResponse;
+    @Mock private DynamoDbTokenBucket rateLimiter;
+    @Mock private CachedConfigurationService configuration;
+
+    private final List<Duration> sleeps = new ArrayList<>();
+    private final MutableClock clock = new MutableClock(Instant.parse("2022-06-01T12:00:00Z"));
+    private CircuitBreaker circuitBreaker;
+    private LatencyTracker latencyTracker;
+    private RetryPolicy retryPolicy;
+    private AimdConcurrencyLimiter concurrencyLimiter;
+    private OrdnanceSurveyApiKeyPool keyPool;
+
+    @BeforeEach
+    void setUp() {
+        circuitBreaker =
+                new CircuitBreaker(4, 2, 50, Duration.ofSeconds(30), eventProbe, Clock.systemUTC());
+        latencyTracker = new LatencyTracker(10, 1);
+        concurrencyLimiter =
+                new AimdConcurrencyLimiter(10, 1, 20, Duration.ofSeconds(1), 0.5, eventProbe);
+        retryPolicy =
+                new RetryPolicy(
+                        3,
+                        Duration.ofMillis(10),
+                        Duration.ofMillis(100),
+                        sleep -> {
+                            sleeps.add(sleep);
+                            clock.advance(sleep);
+                        },
+                        Clock.systemUTC());
+        keyPool =
+                new OrdnanceSurveyApiKeyPool(
+                        configuration,
+                        Duration.ofMinutes(5),
+                        Duration.ZERO,
+                        Duration.ofSeconds(30),
+                        eventProbe,
+                        clock);
+        lenient()
+                .when(configuration.getSecretValue(OrdnanceSurveyRequestTemplate.API_KEY_SECRET))
+                .thenReturn("api-key");
+    }
+
+    @Test
+    void refusesCallsWhileCircuitIsOpen() throws URISyntaxException {
+        stubRequest();
+        circuitBreaker.tryAcquire();
+        circuitBreaker.recordFailure();
+        circuitBreaker.tryAcquire();
+        circuitBreaker.recordFailure();
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.unbounded()));
+        verify(httpClient, never())
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+    }
+
+    @Test
+    void timesOutAfterLatencyBudgetAndCountsFailure() throws URISyntaxException {
+        stubRequest();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(new CompletableFuture<>());
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.unbounded()));
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.unbounded()));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        verify(eventProbe, times(2)).counterMetric(OrdnanceSurveyClient.TIMEOUT_METRIC);
+    }
+
+    @Test
+    void countsServerErrorsAsFailuresButReturnsResponse() throws URISyntaxException {
+        stubRequest();
+        when(mockResponse.statusCode()).thenReturn(500);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void hedgedRequestAnswersWhenPrimaryIsSlow() throws URISyntaxException, InterruptedException {
+        stubRequest();
+        latencyTracker.record(Duration.ofMillis(10));
+        when(mockResponse.statusCode()).thenReturn(200);
+        CompletableFuture<HttpResponse<InputStream>> primary = new CompletableFuture<>();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(primary, CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(true);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.HEDGED_METRIC);
+        // The winner is counted on the thread that completed it, just after the caller wakes
+        verify(eventProbe, timeout(1000)).counterMetric(OrdnanceSurveyClient.HEDGE_WON_METRIC);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertThrows(CancellationException.class, () -> primary.get(1, TimeUnit.SECONDS));
+        awaitNoneInFlight(concurrencyLimiter);
+    }
+
+    @Test
+    void cancelsTheHedgeAndReleasesItsPermitWhenThePrimaryAnswersFirst()
+            throws URISyntaxException, InterruptedException {
+        stubRequest();
+        latencyTracker.record(Duration.ofMillis(10));
+        when(mockResponse.statusCode()).thenReturn(200);
+        CompletableFuture<HttpResponse<InputStream>> primary = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<InputStream>> hedge = new CompletableFuture<>();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(primary, hedge);
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS)
+                .execute(() -> primary.complete(mockResponse));
+
+        OrdnanceSurveyClient client = client(true);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.HEDGED_METRIC);
+        assertThrows(CancellationException.class, () -> hedge.get(1, TimeUnit.SECONDS));
+        awaitNoneInFlight(concurrencyLimiter);
+    }
+
+    @Test
+    void doesNotHedgeOnceTheConcurrencyLimitIsReached()
+            throws URISyntaxException, InterruptedException {
+        stubRequest();
+        latencyTracker.record(Duration.ofMillis(10));
+        when(mockResponse.statusCode()).thenReturn(200);
+        CompletableFuture<HttpResponse<InputStream>> primary = new CompletableFuture<>();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(primary);
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS)
+                .execute(() -> primary.complete(mockResponse));
+        AimdConcurrencyLimiter limiter =
+                new AimdConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(1), 0.5, eventProbe);
+
+        OrdnanceSurveyClient client = client(true, DynamoDbTokenBucket.disabled(), limiter);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        verify(httpClient, times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.HEDGE_SKIPPED_METRIC);
+        verify(eventProbe, never()).counterMetric(OrdnanceSurveyClient.HEDGED_METRIC);
+        awaitNoneInFlight(limiter);
+    }
+
+    @Test
+    void doesNotHedgeWithoutARateLimitToken() throws URISyntaxException, InterruptedException {
+        stubRequest();
+        latencyTracker.record(Duration.ofMillis(10));
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(rateLimiter.tryAcquire("api-key")).thenReturn(true, false);
+        CompletableFuture<HttpResponse<InputStream>> primary = new CompletableFuture<>();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(primary);
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS)
+                .execute(() -> primary.complete(mockResponse));
+
+        OrdnanceSurveyClient client = client(true, rateLimiter);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        verify(httpClient, times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+        verify(rateLimiter, times(2)).tryAcquire("api-key");
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.HEDGE_SKIPPED_METRIC);
+        awaitNoneInFlight(concurrencyLimiter);
+    }
+
+    @Test
+    void doesNotHedgeWithoutLatencyHistory() throws URISyntaxException {
+        stubRequest();
+        when(mockResponse.statusCode()).thenReturn(200);
+        CompletableFuture<HttpResponse<InputStream>> primary = new CompletableFuture<>();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(primary);
+        CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)
+                .execute(() -> primary.complete(mockResponse));
+
+        OrdnanceSurveyClient client = client(true);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        verify(httpClient, timeout(100).times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+        verify(eventProbe, never()).counterMetric(OrdnanceSurveyClient.HEDGED_METRIC);
+    }
+
+    @Test
+    void retriesThrottledRequestWithJitteredDelay() throws URISyntaxException {
+        stubRequest();
+        stubThrottled(Map.of());
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(
+                        CompletableFuture.completedFuture(throttledResponse),
+                        CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        assertEquals(1, sleeps.size());
+        assertTrue(sleeps.get(0).compareTo(Duration.ofMillis(10)) >= 0);
+        assertTrue(sleeps.get(0).compareTo(Duration.ofMillis(100)) <= 0);
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.RETRY_METRIC);
+    }
+
+    @Test
+    void waitsForRetryAfterWhenLongerThanJitter() throws URISyntaxException {
+        stubRequest();
+        stubThrottled(Map.of("Retry-After", List.of("2")));
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(
+                        CompletableFuture.completedFuture(throttledResponse),
+                        CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.after(Duration.ofSeconds(10))));
+        assertEquals(List.of(Duration.ofSeconds(2)), sleeps);
+    }
+
+    @Test
+    void givesUpWhenRetryAfterIsBeyondDeadline() throws URISyntaxException {
+        stubRequest();
+        stubThrottled(Map.of("Retry-After", List.of("30")));
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(throttledResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.after(Duration.ofSeconds(5))));
+        assertTrue(sleeps.isEmpty());
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.RETRIES_EXHAUSTED_METRIC);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws URISyntaxException {
+        stubRequest();
+        stubThrottled(Map.of());
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(throttledResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.unbounded()));
+        assertEquals(2, sleeps.size());
+        verify(httpClient, times(3))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+    }
+
+    @Test
+    void refusesToCallWhenDeadlineHasPassed() {
+        OrdnanceSurveyClient client = client(false);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.after(Duration.ZERO)));
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.TIMEOUT_METRIC);
+    }
+
+    @Test
+    void waitsForFleetRateLimitWithoutCallingOs() throws URISyntaxException {
+        stubRequest();
+        when(rateLimiter.tryAcquire("api-key")).thenReturn(false, true);
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false, rateLimiter);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        assertEquals(1, sleeps.size());
+        verify(httpClient, times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+    }
+
+    @Test
+    void givesUpWhenFleetRateLimitDoesNotClear() {
+        when(rateLimiter.tryAcquire("api-key")).thenReturn(false);
+
+        OrdnanceSurveyClient client = client(false, rateLimiter);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.unbounded()));
+        verify(httpClient, never())
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+    }
+
+    @Test
+    void shedsLookupsOverTheConcurrencyLimit() throws URISyntaxException {
+        stubRequest();
+        CompletableFuture<HttpResponse<InputStream>> slowResponse = new CompletableFuture<>();
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(slowResponse);
+        AimdConcurrencyLimiter limiter =
+                new AimdConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(1), 0.5, eventProbe);
+        OrdnanceSurveyClient client = client(false, DynamoDbTokenBucket.disabled(), limiter);
+
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.after(Duration.ofMillis(50))));
+        // OS has not answered the first call, so the second is refused without waiting
+        assertThrows(
+                OrdnanceSurveyUnavailableException.class,
+                () -> client.send("LS1 1BA", Deadline.unbounded()));
+        verify(httpClient, times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+
+        slowResponse.completeExceptionally(new HttpTimeoutException("timed out"));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void releasesConcurrencyPermitWhenOsAnswers() throws URISyntaxException {
+        stubRequest();
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false);
+        client.send("LS1 1BA", Deadline.unbounded());
+
+        assertEquals(0, concurrencyLimiter.getInFlight());
+    }
+
+    @Test
+    void releasesPermitsWhenTheRequestCannotBeSent() throws URISyntaxException {
+        stubRequest();
+        circuitBreaker = new CircuitBreaker(4, 2, 50, Duration.ofSeconds(30), eventProbe, clock);
+        circuitBreaker.tryAcquire();
+        circuitBreaker.recordFailure();
+        circuitBreaker.tryAcquire();
+        circuitBreaker.recordFailure();
+        clock.advance(Duration.ofSeconds(31));
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenThrow(new IllegalArgumentException("unsupported request"));
+
+        OrdnanceSurveyClient client = client(false);
+
+        PostcodeLookupProcessingException exception =
+                assertThrows(
+                        PostcodeLookupProcessingException.class,
+                        () -> client.send("LS1 1BA", Deadline.unbounded()));
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+        assertEquals(0, concurrencyLimiter.getInFlight());
+        // The half-open trial was handed back, so the next call may still probe OS
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    void failsOverToAnotherKeyWithoutWaitingWhenUnauthorised() throws URISyntaxException {
+        stubRequest();
+        when(configuration.getSecretValue(OrdnanceSurveyRequestTemplate.API_KEY_SECRET))
+                .thenReturn("[\"key-a\", \"key-b\"]");
+        when(throttledResponse.statusCode()).thenReturn(401);
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(
+                        CompletableFuture.completedFuture(throttledResponse),
+                        CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.unbounded()));
+        assertTrue(sleeps.isEmpty());
+        InOrder order = inOrder(requestTemplate);
+        order.verify(requestTemplate).create(anyString(), eq("key-a"), any(Duration.class));
+        order.verify(requestTemplate).create(anyString(), eq("key-b"), any(Duration.class));
+        verify(configuration).invalidateSecret(OrdnanceSurveyRequestTemplate.API_KEY_SECRET);
+        verify(eventProbe).counterMetric(OrdnanceSurveyClient.KEY_FAILOVER_METRIC);
+    }
+
+    @Test
+    void waitsForThrottledKeyWhenNoOtherKeyIsAvailable() throws URISyntaxException {
+        stubRequest();
+        stubThrottled(Map.of("Retry-After", List.of("1")));
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(
+                        CompletableFuture.completedFuture(throttledResponse),
+                        CompletableFuture.completedFuture(mockResponse));
+
+        OrdnanceSurveyClient client = client(false);
+
+        assertSame(mockResponse, client.send("LS1 1BA", Deadline.after(Duration.ofSeconds(10))));
+        assertEquals(List.of(Duration.ofSeconds(1)), sleeps);
+        verify(eventProbe, never()).counterMetric(OrdnanceSurveyClient.KEY_FAILOVER_METRIC);
+    }
+
+    private static void awaitNoneInFlight(AimdConcurrencyLimiter limiter)
+            throws InterruptedException {
+        // Permits are handed back on the thread that completed the request
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (limiter.getInFlight() > 0 && System.nanoTime() < giveUp) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private void stubThrottled(Map<String, List<String>> headers) {
+        when(throttledResponse.statusCode()).thenReturn(429);
+        when(throttledResponse.headers())
+                .thenReturn(HttpHeaders.of(headers, (name, value) -> true));
+    }
+
+    private void stubRequest() throws URISyntaxException {
+        when(requestTemplate.create(anyString(), anyString(), any(Duration.class)))
+                .thenReturn(
+                        HttpRequest.newBuilder(URI.create("http://localhost:8080/?postcode=LS1"))
+                                .build());
+    }
+
+    private OrdnanceSurveyClient client(boolean hedgingEnabled) {
+        return client(hedgingEnabled, DynamoDbTokenBucket.disabled());
+    }
+
+    private OrdnanceSurveyClient client(boolean hedgingEnabled, DynamoDbTokenBucket rateLimiter) {
+        return client(hedgingEnabled, rateLimiter, concurrencyLimiter);
+    }
+
+    private OrdnanceSurveyClient client(
+            boolean hedgingEnabled,
+            DynamoDbTokenBucket rateLimiter,
+            AimdConcurrencyLimiter concurrencyLimiter) {
+        return new OrdnanceSurveyClient(
+                httpClient,
+                requestTemplate,
+                keyPool,
+                circuitBreaker,
+                latencyTracker,
+                retryPolicy,
+                rateLimiter,
+                concurrencyLimiter,
+                LATENCY_BUDGET,
+                hedgingEnabled,
+                95,
+                eventProbe);
+    }
+}
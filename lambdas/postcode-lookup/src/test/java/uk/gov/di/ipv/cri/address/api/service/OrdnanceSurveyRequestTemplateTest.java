@@ -0,0 +1,79 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OrdnanceSurveyRequestTemplateTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    @Mock private CachedConfigurationService configuration;
+    private OrdnanceSurveyRequestTemplate requestTemplate;
+
+    @BeforeEach
+    void setUp() {
+        requestTemplate = new OrdnanceSurveyRequestTemplate(configuration);
+    }
+
+    @Test
+    void shouldAppendEncodedPostcodeToTemplate() throws URISyntaxException {
+        when(configuration.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("https://api.os.uk/search/places/v1/postcode");
+
+        HttpRequest request = requestTemplate.create("LS1 1BA", "a key/1", TIMEOUT);
+
+        assertEquals(
+                "https://api.os.uk/search/places/v1/postcode?key=a%20key%2F1&postcode=LS1%201BA",
+                request.uri().toString());
+        assertEquals("application/json", request.headers().firstValue("Accept").orElseThrow());
+        assertEquals("GET", request.method());
+        assertEquals(TIMEOUT, request.timeout().orElseThrow());
+    }
+
+    @Test
+    void shouldKeepTemplatePerKey() throws URISyntaxException {
+        when(configuration.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("http://localhost:8080/");
+
+        assertEquals(
+                "http://localhost:8080/?key=key-a&postcode=LS11BA",
+                requestTemplate.create("LS11BA", "key-a", TIMEOUT).uri().toString());
+        assertEquals(
+                "http://localhost:8080/?key=key-b&postcode=LS11BA",
+                requestTemplate.create("LS11BA", "key-b", TIMEOUT).uri().toString());
+        assertEquals(
+                "http://localhost:8080/?key=key-a&postcode=LS11BA",
+                requestTemplate.create("LS11BA", "key-a", TIMEOUT).uri().toString());
+    }
+
+    @Test
+    void shouldRebuildTemplateWhenUrlChanges() throws URISyntaxException {
+        when(configuration.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("http://localhost:8080/", "http://localhost:9090/");
+
+        requestTemplate.create("LS11BA", "key-a", TIMEOUT);
+
+        assertEquals(
+                "http://localhost:9090/?key=key-a&postcode=LS11BA",
+                requestTemplate.create("LS11BA", "key-a", TIMEOUT).uri().toString());
+    }
+
+    @Test
+    void shouldRejectInvalidUrl() {
+        when(configuration.getParameterValue("OrdnanceSurveyAPIURL")).thenReturn("invalidURL{}");
+
+        assertThrows(
+                URISyntaxException.class, () -> requestTemplate.create("LS11BA", "key-a", TIMEOUT));
+    }
+}
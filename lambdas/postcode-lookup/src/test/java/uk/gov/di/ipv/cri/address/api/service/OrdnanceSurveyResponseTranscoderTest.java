@@ -0,0 +1,169 @@
+package uk.gov.di.ipv.cri.address.api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import uk.gov.di.ipv.cri.address.api.models.OrdnanceSurveyPostcodeResponse;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrdnanceSurveyResponseTranscoderTest {
+    private static final String HEADER =
+            "\"header\":{\"uri\":\"http://localhost:8080/postcode?postcode=ZZ1+1ZZ\",\"query\":\"postcode=ZZ11ZZ\",\"offset\":0,\"totalresults\":1,\"format\":\"JSON\",\"dataset\":\"DPA\",\"lr\":\"EN,CY\",\"maxresults\":100,\"epoch\":\"90\",\"output_srs\":\"EPSG:27700\"}";
+    private static final String SINGLE_DPA =
+            "{\"UPRN\":\"12345567\",\"UDPRN\":\"12345678\",\"ADDRESS\":\"TESTADDRESS,TESTSTREET,TESTTOWN,ZZ11ZZ\",\"BUILDING_NUMBER\":\"TESTADDRESS\",\"THOROUGHFARE_NAME\":\"TESTSTREET\",\"POST_TOWN\":\"TESTTOWN\",\"POSTCODE\":\"ZZ11ZZ\",\"RPC\":\"1\",\"X_COORDINATE\":123456.78,\"Y_COORDINATE\":234567.89,\"STATUS\":\"APPROVED\",\"LOGICAL_STATUS_CODE\":\"1\",\"CLASSIFICATION_CODE\":\"RD03\",\"CLASSIFICATION_CODE_DESCRIPTION\":\"Semi-Detached\",\"LOCAL_CUSTODIAN_CODE\":1234,\"LOCAL_CUSTODIAN_CODE_DESCRIPTION\":\"TESTTOWN\",\"COUNTRY_CODE\":\"E\",\"COUNTRY_CODE_DESCRIPTION\":\"ThisrecordiswithinEngland\",\"POSTAL_ADDRESS_CODE\":\"D\",\"POSTAL_ADDRESS_CODE_DESCRIPTION\":\"ArecordwhichislinkedtoPAF\",\"BLPU_STATE_CODE\":\"2\",\"BLPU_STATE_CODE_DESCRIPTION\":\"Inuse\",\"TOPOGRAPHY_LAYER_TOID\":\"osgb12345567890\",\"LAST_UPDATE_DATE\":\"10/02/2016\",\"ENTRY_DATE\":\"12/01/2000\",\"BLPU_STATE_DATE\":\"15/06/2009\",\"LANGUAGE\":\"EN\",\"MATCH\":1.0,\"MATCH_DESCRIPTION\":\"EXACT\",\"DELIVERY_POINT_SUFFIX\":\"1A\"}";
+
+    private final OrdnanceSurveyResponseTranscoder transcoder =
+            new OrdnanceSurveyResponseTranscoder();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void shouldMatchMapperForSingleAddress() throws IOException {
+        assertMatchesMapper(response(SINGLE_DPA));
+    }
+
+    @Test
+    void shouldMatchMapperForLargeBlockOfFlats() throws IOException {
+        String[] dpas = new String[150];
+        for (int i = 0; i < dpas.length; i++) {
+            dpas[i] = flat(i);
+        }
+
+        List<CanonicalAddress> addresses = assertMatchesMapper(response(dpas));
+
+        assertEquals(150, addresses.size());
+    }
+
+    @Test
+    void shouldMatchMapperWhenOptionalFieldsArePresent() throws IOException {
+        String dpa =
+                "{\"UPRN\":\"100023336956\",\"ORGANISATION_NAME\":\"TEST LTD\",\"DEPARTMENT_NAME\":\"ACCOUNTS\",\"SUB_BUILDING_NAME\":\"UNIT 2\",\"BUILDING_NAME\":\"TEST HOUSE\",\"BUILDING_NUMBER\":\"8\",\"DEPENDENT_THOROUGHFARE_NAME\":\"TEST MEWS\",\"THOROUGHFARE_NAME\":\"TEST ROAD\",\"DOUBLE_DEPENDENT_LOCALITY\":\"TEST VILLAGE\",\"DEPENDENT_LOCALITY\":\"TEST DISTRICT\",\"POST_TOWN\":\"TESTTOWN\",\"POSTCODE\":\"ZZ1 1ZZ\",\"X_COORDINATE\":1.5,\"MATCH\":1.0}";
+
+        CanonicalAddress address = assertMatchesMapper(response(dpa)).get(0);
+
+        assertEquals(100023336956L, address.getUprn());
+        assertEquals("UNIT 2", address.getSubBuildingName());
+        assertEquals("TEST MEWS", address.getDependentStreetName());
+        assertEquals("TEST VILLAGE", address.getDoubleDependentAddressLocality());
+        assertEquals("GB", address.getAddressCountry());
+    }
+
+    @Test
+    void shouldMatchMapperForNullsEscapesAndNumericValues() throws IOException {
+        String dpa =
+                "{\"UPRN\":12345,\"BUILDING_NAME\":null,\"BUILDING_NUMBER\":12,\"THOROUGHFARE_NAME\":\"HEOL \\\"Y\\\" BONT \\u0174\",\"POST_TOWN\":\"ABERTAWE\",\"POSTCODE\":\"SA1 1AA\",\"LANGUAGE\":\"CY\"}";
+
+        CanonicalAddress address = assertMatchesMapper(response(dpa)).get(0);
+
+        assertEquals(12345L, address.getUprn());
+        assertEquals("12", address.getBuildingNumber());
+        assertEquals("HEOL \"Y\" BONT \u0174", address.getStreetName());
+        assertNull(address.getBuildingName());
+    }
+
+    @Test
+    void shouldMatchMapperWhenUprnIsEmpty() throws IOException {
+        CanonicalAddress address =
+                assertMatchesMapper(response("{\"UPRN\":\"\",\"POSTCODE\":\"ZZ1 1ZZ\"}")).get(0);
+
+        assertNull(address.getUprn());
+    }
+
+    @Test
+    void shouldMatchMapperForResultsWithoutDpa() throws IOException {
+        String body = "{" + HEADER + ",\"results\":[{\"DPA\":null},{\"DPA\":" + SINGLE_DPA + "}]}";
+
+        assertEquals(1, assertMatchesMapper(body).size());
+    }
+
+    @Test
+    void shouldMatchMapperForNoResults() throws IOException {
+        assertTrue(assertMatchesMapper("{" + HEADER + ",\"results\":[]}").isEmpty());
+    }
+
+    @Test
+    void shouldSkipLpiResults() throws IOException {
+        String body =
+                "{"
+                        + HEADER
+                        + ",\"results\":[{\"LPI\":{\"UPRN\":\"1\",\"POSTCODE_LOCATOR\":\"ZZ11ZZ\"}},{\"DPA\":"
+                        + SINGLE_DPA
+                        + "}]}";
+
+        List<CanonicalAddress> addresses = transcode(body);
+
+        assertEquals(1, addresses.size());
+        assertEquals(12345567L, addresses.get(0).getUprn());
+    }
+
+    @Test
+    void shouldReturnNoAddressesWhenResultsAreMissing() throws IOException {
+        assertTrue(transcode("{" + HEADER + "}").isEmpty());
+    }
+
+    @Test
+    void shouldRejectMalformedResponses() {
+        assertThrows(JsonProcessingException.class, () -> transcode("[]"));
+        assertThrows(JsonProcessingException.class, () -> transcode("{\"results\":[1]}"));
+        assertThrows(
+                JsonProcessingException.class,
+                () -> transcode("{\"results\":[{\"DPA\":{\"POSTCODE\":{}}}]}"));
+        assertThrows(
+                JsonProcessingException.class,
+                () -> transcode("{\"results\":[{\"DPA\":{\"POSTCODE\":\"ZZ1 1ZZ\""));
+    }
+
+    private List<CanonicalAddress> assertMatchesMapper(String body) throws IOException {
+        OrdnanceSurveyPostcodeResponse postcodeResponse =
+                objectMapper.readValue(body, OrdnanceSurveyPostcodeResponse.class);
+        List<CanonicalAddress> expected =
+                postcodeResponse.getResults().stream()
+                        .filter(result -> result.getDpa() != null)
+                        .map(result -> result.getDpa().toCanonicalAddress())
+                        .collect(Collectors.toList());
+
+        List<CanonicalAddress> actual = transcode(body);
+
+        assertEquals(
+                objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(actual));
+        return actual;
+    }
+
+    private List<CanonicalAddress> transcode(String body) throws IOException {
+        return transcoder.transcode(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String response(String... dpas) {
+        StringBuilder body = new StringBuilder("{").append(HEADER).append(",\"results\":[");
+        for (int i = 0; i < dpas.length; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"DPA\":").append(dpas[i]).append('}');
+        }
+        return body.append("]}").toString();
+    }
+
+    private static String flat(int number) {
+        return "{\"UPRN\":\""
+                + (10090000000L + number)
+                + "\",\"UDPRN\":\""
+                + (50000000 + number)
+                + "\",\"ADDRESS\":\"FLAT "
+                + number
+                + ", TEST COURT, 1, TEST STREET, TESTTOWN, ZZ1 1ZZ\",\"SUB_BUILDING_NAME\":\"FLAT "
+                + number
+                + "\",\"BUILDING_NAME\":\"TEST COURT\",\"BUILDING_NUMBER\":\"1\",\"THOROUGHFARE_NAME\":\"TEST STREET\",\"POST_TOWN\":\"TESTTOWN\",\"POSTCODE\":\"ZZ1 1ZZ\",\"RPC\":\"1\",\"X_COORDINATE\":123456.0,\"Y_COORDINATE\":234567.0,\"STATUS\":\"APPROVED\",\"LOGICAL_STATUS_CODE\":\"1\",\"CLASSIFICATION_CODE\":\"RD06\",\"CLASSIFICATION_CODE_DESCRIPTION\":\"Self Contained Flat\",\"LOCAL_CUSTODIAN_CODE\":1234,\"COUNTRY_CODE\":\"E\",\"POSTAL_ADDRESS_CODE\":\"D\",\"BLPU_STATE_CODE\":null,\"BLPU_STATE_CODE_DESCRIPTION\":\"Unknown/Not applicable\",\"TOPOGRAPHY_LAYER_TOID\":\"osgb1000000000\",\"PARENT_UPRN\":\"10090000999\",\"LAST_UPDATE_DATE\":\"10/02/2016\",\"ENTRY_DATE\":\"12/01/2000\",\"LANGUAGE\":\"EN\",\"MATCH\":1.0,\"MATCH_DESCRIPTION\":\"EXACT\",\"DELIVERY_POINT_SUFFIX\":\"1A\"}";
+    }
+}
@@ -4,22 +4,36 @@ import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.http.HttpStatusCode;
+import uk.gov.di.ipv.cri.address.api.cache.NegativePostcodeCache;
+import uk.gov.di.ipv.cri.address.api.cache.PostcodeResultCache;
+import uk.gov.di.ipv.cri.address.api.cache.RedisPostcodeCache;
+import uk.gov.di.ipv.cri.address.api.cache.TieredPostcodeCache;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupProcessingException;
 import uk.gov.di.ipv.cri.address.api.exceptions.PostcodeLookupValidationException;
+import uk.gov.di.ipv.cri.address.api.resilience.Deadline;
 import uk.gov.di.ipv.cri.common.library.domain.AuditEventContext;
 import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
 import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -28,22 +42,38 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.contains;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class PostcodeLookupServiceTest {
+    private static final String VALID_RESPONSE_BODY =
+            "{\"header\":{\"uri\":\"http://localhost:8080/postcode?postcode=ZZ1+1ZZ\",\"query\":\"postcode=ZZ11ZZ\",\"offset\":0,\"totalresults\":32,\"format\":\"JSON\",\"dataset\":\"DPA\",\"lr\":\"EN,CY\",\"maxresults\":1000,\"epoch\":\"90\",\"output_srs\":\"EPSG:27700\"},\"results\":[{\"DPA\":{\"UPRN\":\"12345567\",\"UDPRN\":\"12345678\",\"ADDRESS\":\"TESTADDRESS,TESTSTREET,TESTTOWN,ZZ11ZZ\",\"BUILDING_NUMBER\":\"TESTADDRESS\",\"THOROUGHFARE_NAME\":\"TESTSTREET\",\"POST_TOWN\":\"TESTTOWN\",\"POSTCODE\":\"ZZ11ZZ\",\"RPC\":\"1\",\"X_COORDINATE\":123456.78,\"Y_COORDINATE\":234567.89,\"STATUS\":\"APPROVED\",\"LOGICAL_STATUS_CODE\":\"1\",\"CLASSIFICATION_CODE\":\"RD03\",\"CLASSIFICATION_CODE_DESCRIPTION\":\"Semi-Detached\",\"LOCAL_CUSTODIAN_CODE\":1234,\"LOCAL_CUSTODIAN_CODE_DESCRIPTION\":\"TESTTOWN\",\"COUNTRY_CODE\":\"E\",\"COUNTRY_CODE_DESCRIPTION\":\"ThisrecordiswithinEngland\",\"POSTAL_ADDRESS_CODE\":\"D\",\"POSTAL_ADDRESS_CODE_DESCRIPTION\":\"ArecordwhichislinkedtoPAF\",\"BLPU_STATE_CODE\":\"2\",\"BLPU_STATE_CODE_DESCRIPTION\":\"Inuse\",\"TOPOGRAPHY_LAYER_TOID\":\"osgb12345567890\",\"LAST_UPDATE_DATE\":\"10/02/2016\",\"ENTRY_DATE\":\"12/01/2000\",\"BLPU_STATE_DATE\":\"15/06/2009\",\"LANGUAGE\":\"EN\",\"MATCH\":1.0,\"MATCH_DESCRIPTION\":\"EXACT\",\"DELIVERY_POINT_SUFFIX\":\"1A\"}}]}";
+
     @Mock private ConfigurationService mockConfigurationService;
-    @Mock private HttpResponse<String> mockResponse;
+    @Mock private HttpResponse<InputStream> mockResponse;
     @Spy private HttpClient httpClient;
     @Mock private Logger log;
+    @Mock private EventProbe eventProbe;
     private PostcodeLookupService postcodeLookupService;
 
     @BeforeEach
     void setUp() {
+        lenient()
+                .when(mockConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"))
+                .thenReturn("api-key");
         postcodeLookupService =
-                new PostcodeLookupService(mockConfigurationService, httpClient, log);
+                new PostcodeLookupService(
+                        OrdnanceSurveyClient.fromEnvironment(
+                                mockConfigurationService, httpClient, eventProbe),
+                        log,
+                        new TieredPostcodeCache(
+                                new PostcodeResultCache(100, Duration.ofMinutes(5), eventProbe),
+                                new NegativePostcodeCache(100, Duration.ofMinutes(1), eventProbe),
+                                RedisPostcodeCache.disabled()),
+                        new InFlightPostcodeLookups(eventProbe));
     }
 
     @Test
@@ -64,22 +94,24 @@ class PostcodeLookupServiceTest {
                 .thenReturn("http://localhost:8080/");
 
         // Simulate Http Client IO Failure
-        when(httpClient.send(
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenThrow(IOException.class);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.failedFuture(new IOException()));
         assertThrows(
                 PostcodeLookupProcessingException.class,
                 () -> postcodeLookupService.lookupPostcode("ZZ1 1ZZ"));
 
-        // Simulate Http Client Interrupted
-        when(httpClient.send(
+        // Simulate the thread being interrupted while waiting for OS
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenThrow(InterruptedException.class);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(new CompletableFuture<>());
+        Thread.currentThread().interrupt();
         assertThrows(
                 PostcodeLookupProcessingException.class,
                 () -> postcodeLookupService.lookupPostcode("ZZ1 1ZZ"));
+        assertTrue(Thread.interrupted());
     }
 
     @Test
@@ -99,10 +131,10 @@ class PostcodeLookupServiceTest {
                 .thenReturn("http://localhost:8080/");
         // Simulate a 404 response
         when(mockResponse.statusCode()).thenReturn(HttpStatusCode.NOT_FOUND);
-        when(httpClient.send(
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenReturn(mockResponse);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
         assertTrue(postcodeLookupService.lookupPostcode("ZZ1 1ZZ").isEmpty());
         verify(log).error(contains("404: Not Found"), any(String.class));
     }
@@ -116,10 +148,10 @@ class PostcodeLookupServiceTest {
         when(mockResponse.statusCode()).thenReturn(HttpStatusCode.BAD_REQUEST);
         // Do NOT simulate a body
 
-        when(httpClient.send(
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenReturn(mockResponse);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
         assertTrue(postcodeLookupService.lookupPostcode("ZZ1 1ZZ").isEmpty());
         verify(log, times(1)).error(contains("unknown error"), any(String.class), any());
     }
@@ -135,16 +167,17 @@ class PostcodeLookupServiceTest {
         // Simulate a sammple response body
         when(mockResponse.body())
                 .thenReturn(
-                        "{\n"
-                                + "  \"error\" : {\n"
-                                + "    \"statuscode\" : 400,\n"
-                                + "    \"message\" : \"Requested postcode must contain a minimum of the sector plus 1 digit of the district e.g. SO1. Requested postcode was 5WF12LZ\"\n"
-                                + "  }\n"
-                                + "}");
-        when(httpClient.send(
+                        stream(
+                                "{\n"
+                                        + "  \"error\" : {\n"
+                                        + "    \"statuscode\" : 400,\n"
+                                        + "    \"message\" : \"Requested postcode must contain a minimum of the sector plus 1 digit of the district e.g. SO1. Requested postcode was 5WF12LZ\"\n"
+                                        + "  }\n"
+                                        + "}"));
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenReturn(mockResponse);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
         assertTrue(postcodeLookupService.lookupPostcode("ZZ1 1ZZ").isEmpty());
         verify(log, times(1))
                 .error(
@@ -154,6 +187,28 @@ class PostcodeLookupServiceTest {
                         contains("Requested postcode must contain a minimum of the sector"));
     }
 
+    @Test
+    void repeatNotFoundIsServedFromNegativeCache() throws IOException, InterruptedException {
+        // Mock a valid url so service doesn't fall over validating URI
+        when(mockConfigurationService.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("http://localhost:8080/");
+        // Simulate a 404 response
+        when(mockResponse.statusCode()).thenReturn(HttpStatusCode.NOT_FOUND);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        assertTrue(postcodeLookupService.lookupPostcode("ZZ1 1ZZ").isEmpty());
+        assertTrue(postcodeLookupService.lookupPostcode("ZZ11ZZ").isEmpty());
+
+        verify(httpClient, times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+        verify(eventProbe).counterMetric("postcode_lookup_negative_cache_hit");
+    }
+
     @Test
     void non200ThrowsProcessingException() throws IOException, InterruptedException {
         // Mock a valid url so service doesn't fall over validating URI
@@ -161,16 +216,43 @@ class PostcodeLookupServiceTest {
                 .thenReturn("http://localhost:8080/");
         // Simulate a 500 response
         when(mockResponse.statusCode()).thenReturn(HttpStatusCode.INTERNAL_SERVER_ERROR);
-        when(httpClient.send(
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenReturn(mockResponse);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
         assertThrows(
                 PostcodeLookupProcessingException.class,
                 () -> postcodeLookupService.lookupPostcode("ZZ1 1ZZ"));
         verify(log, times(1)).error(contains("unknown error"), any(String.class), any());
     }
 
+    @Test
+    void unauthorisedFailsOverToRotatedApiKey() throws IOException, InterruptedException {
+        // Mock a valid url so service doesn't fall over validating URI
+        when(mockConfigurationService.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("http://localhost:8080/");
+        when(mockConfigurationService.getSecretValue("OrdnanceSurveyAPIKey"))
+                .thenReturn("revoked-key", "rotated-key");
+        // Simulate a 401 response
+        when(mockResponse.statusCode()).thenReturn(HttpStatusCode.UNAUTHORIZED);
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        assertThrows(
+                PostcodeLookupProcessingException.class,
+                () -> postcodeLookupService.lookupPostcode("ZZ1 1ZZ"));
+
+        ArgumentCaptor<HttpRequest> requests = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(httpClient, times(2))
+                .sendAsync(
+                        requests.capture(),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+        assertTrue(requests.getAllValues().get(0).uri().getQuery().contains("key=revoked-key"));
+        assertTrue(requests.getAllValues().get(1).uri().getQuery().contains("key=rotated-key"));
+    }
+
     @Test
     void validPostcodeReturnsResults() throws IOException, InterruptedException {
         // Mock a valid url so service doesn't fall over validating URI
@@ -178,17 +260,67 @@ class PostcodeLookupServiceTest {
                 .thenReturn("http://localhost:8080/");
         // Simulate a 200 response
         when(mockResponse.statusCode()).thenReturn(HttpStatusCode.OK);
-        when(mockResponse.body())
-                .thenReturn(
-                        "{\"header\":{\"uri\":\"http://localhost:8080/postcode?postcode=ZZ1+1ZZ\",\"query\":\"postcode=ZZ11ZZ\",\"offset\":0,\"totalresults\":32,\"format\":\"JSON\",\"dataset\":\"DPA\",\"lr\":\"EN,CY\",\"maxresults\":1000,\"epoch\":\"90\",\"output_srs\":\"EPSG:27700\"},\"results\":[{\"DPA\":{\"UPRN\":\"12345567\",\"UDPRN\":\"12345678\",\"ADDRESS\":\"TESTADDRESS,TESTSTREET,TESTTOWN,ZZ11ZZ\",\"BUILDING_NUMBER\":\"TESTADDRESS\",\"THOROUGHFARE_NAME\":\"TESTSTREET\",\"POST_TOWN\":\"TESTTOWN\",\"POSTCODE\":\"ZZ11ZZ\",\"RPC\":\"1\",\"X_COORDINATE\":123456.78,\"Y_COORDINATE\":234567.89,\"STATUS\":\"APPROVED\",\"LOGICAL_STATUS_CODE\":\"1\",\"CLASSIFICATION_CODE\":\"RD03\",\"CLASSIFICATION_CODE_DESCRIPTION\":\"Semi-Detached\",\"LOCAL_CUSTODIAN_CODE\":1234,\"LOCAL_CUSTODIAN_CODE_DESCRIPTION\":\"TESTTOWN\",\"COUNTRY_CODE\":\"E\",\"COUNTRY_CODE_DESCRIPTION\":\"ThisrecordiswithinEngland\",\"POSTAL_ADDRESS_CODE\":\"D\",\"POSTAL_ADDRESS_CODE_DESCRIPTION\":\"ArecordwhichislinkedtoPAF\",\"BLPU_STATE_CODE\":\"2\",\"BLPU_STATE_CODE_DESCRIPTION\":\"Inuse\",\"TOPOGRAPHY_LAYER_TOID\":\"osgb12345567890\",\"LAST_UPDATE_DATE\":\"10/02/2016\",\"ENTRY_DATE\":\"12/01/2000\",\"BLPU_STATE_DATE\":\"15/06/2009\",\"LANGUAGE\":\"EN\",\"MATCH\":1.0,\"MATCH_DESCRIPTION\":\"EXACT\",\"DELIVERY_POINT_SUFFIX\":\"1A\"}}]}");
+        when(mockResponse.body()).thenReturn(stream(VALID_RESPONSE_BODY));
 
-        when(httpClient.send(
+        when(httpClient.sendAsync(
                         any(HttpRequest.class),
-                        ArgumentMatchers.<HttpResponse.BodyHandler<String>>any()))
-                .thenReturn(mockResponse);
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
         assertFalse(postcodeLookupService.lookupPostcode("ZZ1 1ZZ").isEmpty());
     }
 
+    @Test
+    void repeatLookupIsServedFromCache() throws IOException, InterruptedException {
+        // Mock a valid url so service doesn't fall over validating URI
+        when(mockConfigurationService.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("http://localhost:8080/");
+        // Simulate a 200 response
+        when(mockResponse.statusCode()).thenReturn(HttpStatusCode.OK);
+        when(mockResponse.body()).thenReturn(stream(VALID_RESPONSE_BODY));
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        assertEquals(1, postcodeLookupService.lookupPostcode("ZZ1 1ZZ").size());
+        assertEquals(1, postcodeLookupService.lookupPostcode("zz11zz").size());
+
+        verify(httpClient, times(1))
+                .sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any());
+        verify(eventProbe).counterMetric("postcode_lookup_cache_miss");
+        verify(eventProbe).counterMetric("postcode_lookup_cache_hit");
+    }
+
+    @Test
+    void asyncLookupCompletesWithResultsOrTheLookupException() throws Exception {
+        // Mock a valid url so service doesn't fall over validating URI
+        when(mockConfigurationService.getParameterValue("OrdnanceSurveyAPIURL"))
+                .thenReturn("http://localhost:8080/");
+        when(mockResponse.statusCode()).thenReturn(HttpStatusCode.OK);
+        when(mockResponse.body()).thenReturn(stream(VALID_RESPONSE_BODY));
+        when(httpClient.sendAsync(
+                        any(HttpRequest.class),
+                        ArgumentMatchers.<HttpResponse.BodyHandler<InputStream>>any()))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        assertEquals(
+                1,
+                postcodeLookupService
+                        .lookupPostcodeAsync("ZZ1 1ZZ", Deadline.unbounded())
+                        .get(5, TimeUnit.SECONDS)
+                        .size());
+        ExecutionException failure =
+                assertThrows(
+                        ExecutionException.class,
+                        () ->
+                                postcodeLookupService
+                                        .lookupPostcodeAsync("", Deadline.unbounded())
+                                        .get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof PostcodeLookupValidationException);
+    }
+
     @Test
     void shouldGetAuditEventContext() {
         String postcode = "LS1 1BA";
@@ -224,4 +356,8 @@ class PostcodeLookupServiceTest {
                                 "LS1 1BA", Map.of("key", "value"), null),
                 "sessionItem must not be null");
     }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
 }
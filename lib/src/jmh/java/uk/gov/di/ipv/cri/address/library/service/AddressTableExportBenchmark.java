@@ -0,0 +1,128 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports a table of {@value #ITEM_COUNT} address items from DynamoDB Local with different segment
+ * counts. Run with {@code ./gradlew :lib:jmh -Pjmh.includes=AddressTableExportBenchmark}.
+ *
+ * <p>DynamoDB Local runs in the benchmark's JVM, so it shares the CPU with the exporter and shows
+ * less scaling than a real table, where each segment is served separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddressTableExportBenchmark {
+
+    private static final String TABLE_NAME = "address";
+    private static final int ITEM_COUNT = 5000;
+
+    @Param({"1", "2", "4", "8"})
+    public int segments;
+
+    private AmazonDynamoDBLocal dynamoDbLocal;
+    private AddressTableExporter exporter;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        DynamoDbAsyncClient dynamoDbClient = dynamoDbLocal.dynamoDbAsyncClient();
+        dynamoDbClient
+                .createTable(
+                        builder ->
+                                builder.tableName(TABLE_NAME)
+                                        .billingMode(BillingMode.PAY_PER_REQUEST)
+                                        .attributeDefinitions(
+                                                AttributeDefinition.builder()
+                                                        .attributeName("sessionId")
+                                                        .attributeType(ScalarAttributeType.S)
+                                                        .build())
+                                        .keySchema(
+                                                KeySchemaElement.builder()
+                                                        .attributeName("sessionId")
+                                                        .keyType(KeyType.HASH)
+                                                        .build()))
+                .join();
+        DynamoDbAsyncTable<AddressItem> addressTable =
+                DynamoDbEnhancedAsyncClient.builder()
+                        .dynamoDbClient(dynamoDbClient)
+                        .build()
+                        .table(TABLE_NAME, TableSchema.fromBean(AddressItem.class));
+
+        List<CompletableFuture<Void>> puts = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            puts.add(addressTable.putItem(addressItem(i)));
+        }
+        CompletableFuture.allOf(puts.toArray(CompletableFuture[]::new)).join();
+
+        exporter = new AddressTableExporter(addressTable, JsonMappers.newObjectMapper());
+        file = Files.createTempFile("addresses", ".ndjson");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dynamoDbLocal.shutdown();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        return exporter.export(file, segments);
+    }
+
+    private static AddressItem addressItem(int i) {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setUprn(72262801L + i);
+        address.setBuildingNumber(String.valueOf(i + 1));
+        address.setStreetName("GRANGE FIELDS WAY");
+        address.setAddressLocality("LEEDS");
+        address.setPostalCode("LS10 4QL");
+        address.setAddressCountry("GB");
+        address.setValidFrom(LocalDate.of(2010, 2, 26));
+
+        AddressItem addressItem = new AddressItem();
+        addressItem.setSessionId(UUID.randomUUID());
+        addressItem.setAddresses(List.of(address));
+        return addressItem;
+    }
+}
@@ -0,0 +1,85 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON and protobuf address encodings. Run with {@code ./gradlew :lib:jmh}; each trial
+ * also prints the size of one encoded list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddressPayloadBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int addressCount;
+
+    @Param({"JSON", "PROTOBUF"})
+    public PayloadEncoding encoding;
+
+    private AddressPayloadCodec codec;
+    private List<CanonicalAddress> addresses;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        codec = new AddressPayloadCodec(encoding);
+        addresses = new ArrayList<>(addressCount);
+        for (int i = 0; i < addressCount; i++) {
+            CanonicalAddress address = new CanonicalAddress();
+            address.setUprn(72262801L + i);
+            address.setBuildingNumber(String.valueOf(i + 1));
+            address.setStreetName("GRANGE FIELDS WAY");
+            address.setDependentAddressLocality("LOFTHOUSE");
+            address.setAddressLocality("LEEDS");
+            address.setPostalCode("LS10 4QL");
+            address.setAddressCountry("GB");
+            address.setValidFrom(LocalDate.of(2010, 2, 26));
+            address.setValidUntil(LocalDate.of(2021, 1, 16));
+            addresses.add(address);
+        }
+        encoded = codec.encode(addresses);
+    }
+
+    @TearDown(Level.Trial)
+    public void reportSize() {
+        System.out.printf(
+                "%n%d addresses as %s: %d bytes%n", addressCount, encoding, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(addresses);
+    }
+
+    @Benchmark
+    public List<CanonicalAddress> decode() {
+        return codec.decode(encoded);
+    }
+
+    @Benchmark
+    public List<CanonicalAddress> roundTrip() {
+        return codec.decode(codec.encode(addresses));
+    }
+}
@@ -1,4 +1,4 @@
-package uk.gov.di.ipv.cri.address.api.domain;
+package uk.gov.di.ipv.cri.address.library.domain;
 
 public class VerifiableCredentialConstants {
     public static final String VC_CONTEXT = "@context";
@@ -0,0 +1,12 @@
+package uk.gov.di.ipv.cri.address.library.exception;
+
+public class AddressValidationException extends AddressProcessingException {
+
+    public AddressValidationException(String message) {
+        super(message);
+    }
+
+    public AddressValidationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,195 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.enhanced.dynamodb.AttributeConverter;
+import software.amazon.awssdk.enhanced.dynamodb.AttributeValueType;
+import software.amazon.awssdk.enhanced.dynamodb.EnhancedType;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import uk.gov.di.ipv.cri.address.library.util.AddressPayloadCodec;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores a list of addresses as one binary attribute rather than a list of maps.
+ *
+ * <p>The first byte is a format tag: {@value #RAW} for an {@link AddressPayloadCodec} payload as
+ * is, or {@value #DEFLATED} for one compressed with deflate, which is used whenever it comes out
+ * smaller. Items written before this converter hold a list of maps, which is still read, so
+ * existing items stay readable and are rewritten in the new format as they are next saved. The
+ * change is one way: code from before this converter cannot read the binary attribute, so rolling
+ * back past it leaves items saved since unreadable until they expire.
+ *
+ * <p>Addresses are read as a {@link StoredAddressList} holding the attribute they came from, and a
+ * {@code StoredAddressList} is only encoded the first time it is written, so neither a save nor the
+ * size metrics encode and deflate the same addresses twice.
+ */
+public class AddressListConverter implements AttributeConverter<List<CanonicalAddress>> {
+
+    static final byte RAW = 1;
+    static final byte DEFLATED = 2;
+
+    // Far more than any item can hold once inflated, but stops a corrupt value exhausting memory
+    private static final int MAX_INFLATED_BYTES = 4 * 1024 * 1024;
+
+    private static final TableSchema<CanonicalAddress> LEGACY_SCHEMA =
+            TableSchema.fromBean(CanonicalAddress.class);
+
+    private final AddressPayloadCodec codec;
+
+    // The enhanced client needs a no-argument constructor for @DynamoDbConvertedBy
+    public AddressListConverter() {
+        this(AddressPayloadCodec.fromEnvironment());
+    }
+
+    public AddressListConverter(AddressPayloadCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public AttributeValue transformFrom(List<CanonicalAddress> addresses) {
+        if (!(addresses instanceof StoredAddressList)) {
+            return encode(addresses);
+        }
+        StoredAddressList storedAddresses = (StoredAddressList) addresses;
+        AttributeValue stored = storedAddresses.getStoredValue();
+        // Addresses read as a list of maps are written back in the binary format
+        if (stored == null || stored.b() == null) {
+            stored = encode(addresses);
+            storedAddresses.setStoredValue(stored);
+        }
+        return stored;
+    }
+
+    /**
+     * The attribute the addresses were last read or written as, encoding them only if they have
+     * been neither. Unlike {@link #transformFrom}, addresses read as a list of maps are given as
+     * read, since that is what DynamoDB holds.
+     */
+    public AttributeValue storedValue(List<CanonicalAddress> addresses) {
+        if (addresses instanceof StoredAddressList) {
+            AttributeValue stored = ((StoredAddressList) addresses).getStoredValue();
+            if (stored != null) {
+                return stored;
+            }
+        }
+        return transformFrom(addresses);
+    }
+
+    @Override
+    public List<CanonicalAddress> transformTo(AttributeValue attributeValue) {
+        return new StoredAddressList(decode(attributeValue), attributeValue);
+    }
+
+    private AttributeValue encode(List<CanonicalAddress> addresses) {
+        byte[] encoded = codec.encode(addresses);
+        byte[] deflated = deflate(encoded);
+        byte[] stored =
+                deflated.length < encoded.length ? tag(DEFLATED, deflated) : tag(RAW, encoded);
+        return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(stored)).build();
+    }
+
+    private List<CanonicalAddress> decode(AttributeValue attributeValue) {
+        if (attributeValue.b() != null) {
+            byte[] stored = attributeValue.b().asByteArrayUnsafe();
+            if (stored.length == 0) {
+                throw new IllegalArgumentException("Empty address attribute");
+            }
+            byte[] payload = Arrays.copyOfRange(stored, 1, stored.length);
+            switch (stored[0]) {
+                case RAW:
+                    return codec.decode(payload);
+                case DEFLATED:
+                    return codec.decode(inflate(payload));
+                default:
+                    throw new IllegalArgumentException("Unknown address format " + stored[0]);
+            }
+        }
+        if (attributeValue.hasL()) {
+            return fromLegacy(attributeValue);
+        }
+        // Written as null before the list defaulted to empty
+        return new ArrayList<>();
+    }
+
+    @Override
+    public EnhancedType<List<CanonicalAddress>> type() {
+        return EnhancedType.listOf(CanonicalAddress.class);
+    }
+
+    @Override
+    public AttributeValueType attributeValueType() {
+        return AttributeValueType.B;
+    }
+
+    /** The list of maps the enhanced client wrote for these addresses before this converter. */
+    public static AttributeValue toLegacy(List<CanonicalAddress> addresses) {
+        List<AttributeValue> maps = new ArrayList<>(addresses.size());
+        for (CanonicalAddress address : addresses) {
+            maps.add(AttributeValue.builder().m(LEGACY_SCHEMA.itemToMap(address, true)).build());
+        }
+        return AttributeValue.builder().l(maps).build();
+    }
+
+    private static List<CanonicalAddress> fromLegacy(AttributeValue attributeValue) {
+        List<CanonicalAddress> addresses = new ArrayList<>(attributeValue.l().size());
+        for (AttributeValue address : attributeValue.l()) {
+            addresses.add(LEGACY_SCHEMA.mapToItem(address.m()));
+        }
+        return addresses;
+    }
+
+    private static byte[] tag(byte format, byte[] payload) {
+        byte[] stored = new byte[payload.length + 1];
+        stored[0] = format;
+        System.arraycopy(payload, 0, stored, 1, payload.length);
+        return stored;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated address attribute");
+                }
+                out.write(buffer, 0, inflated);
+                if (out.size() > MAX_INFLATED_BYTES) {
+                    throw new IllegalArgumentException("Address attribute inflates too far");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed address attribute", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.PutItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactPutItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactUpdateItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.TransactWriteItemsEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.persistence.item.SessionAddressItem;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
+import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
+import uk.gov.di.ipv.cri.common.library.persistence.DataStore;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Saves an address item and issues the session's authorization code in one {@code
+ * TransactWriteItems} call, so a session never holds a code without its addresses or the other way
+ * round.
+ *
+ * <p>The code is generated the same way as {@code SessionService.createAuthorizationCode}, which
+ * can't take part in a transaction as it writes through its own data store.
+ *
+ * <p>With {@value #COLOCATE_ADDRESSES} set, the session is also given a copy of the addresses and
+ * any pre-signed credential (see {@link SessionAddressItem}). Otherwise any copy left from an
+ * earlier submission is removed, so it can never be read in place of newer addresses.
+ */
+public class AddressSessionTransaction {
+    public static final String COLOCATE_ADDRESSES = "ADDRESS_SESSION_COLOCATION";
+
+    private static final String CONDITIONAL_CHECK_FAILED = "ConditionalCheckFailed";
+    // Positions of the writes in the transaction, which cancellation reasons follow
+    private static final int ADDRESS_WRITE = 0;
+    private static final int SESSION_WRITE = 1;
+
+    private final DynamoDbEnhancedClient client;
+    private final DynamoDbTable<AddressItem> addressTable;
+    private final DynamoDbTable<SessionAddressItem> sessionTable;
+    private final ConfigurationService configurationService;
+    private final boolean colocateAddresses;
+    private final Clock clock;
+
+    @ExcludeFromGeneratedCoverageReport
+    public AddressSessionTransaction(ConfigurationService configurationService) {
+        this(
+                DataStore.getClient(),
+                configurationService.getParameterValue("AddressTableName"),
+                configurationService.getParameterValue("SessionTableName"),
+                configurationService,
+                EnvironmentVariables.getBoolean(COLOCATE_ADDRESSES, false),
+                Clock.systemUTC());
+    }
+
+    public AddressSessionTransaction(
+            DynamoDbEnhancedClient client,
+            String addressTableName,
+            String sessionTableName,
+            ConfigurationService configurationService,
+            boolean colocateAddresses,
+            Clock clock) {
+        this.client = client;
+        this.addressTable = client.table(addressTableName, TableSchema.fromBean(AddressItem.class));
+        this.sessionTable =
+                client.table(sessionTableName, TableSchema.fromBean(SessionAddressItem.class));
+        this.configurationService = configurationService;
+        this.colocateAddresses = colocateAddresses;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns false, leaving the session's authorization code as it was, when the session already
+     * has an address item with the same {@link AddressItem#getAddressesDigest() digest}, as it does
+     * when a submission is retried while the code it was given is still valid. Once that code has
+     * expired the addresses are saved again with a new code, as the client has no usable code.
+     */
+    public boolean saveWithAuthorizationCode(AddressItem addressItem, SessionItem session) {
+        String previousCode = session.getAuthorizationCode();
+        long previousCodeExpiry = session.getAuthorizationCodeExpiryDate();
+        boolean previousCodeValid =
+                previousCode != null && previousCodeExpiry > clock.instant().getEpochSecond();
+        session.setAuthorizationCode(UUID.randomUUID().toString());
+        session.setAuthorizationCodeExpiryDate(
+                configurationService.getAuthorizationCodeExpirationEpoch());
+
+        // While the code from an earlier submission is still valid, only replace addresses that
+        // differ, so a retry is a no-op rather than a new code
+        Expression addressesChanged = previousCodeValid ? addressesChanged(addressItem) : null;
+        // Only update a session that still exists, rather than recreating one that has expired
+        Expression sessionExists =
+                Expression.builder()
+                        .expression("attribute_exists(#sessionId)")
+                        .expressionNames(Map.of("#sessionId", "sessionId"))
+                        .build();
+        SessionAddressItem sessionWrite =
+                SessionAddressItem.from(session, colocateAddresses ? addressItem : null);
+
+        try {
+            client.transactWriteItems(
+                    TransactWriteItemsEnhancedRequest.builder()
+                            .addPutItem(
+                                    addressTable,
+                                    TransactPutItemEnhancedRequest.builder(AddressItem.class)
+                                            .item(addressItem)
+                                            .conditionExpression(addressesChanged)
+                                            .build())
+                            .addUpdateItem(
+                                    sessionTable,
+                                    TransactUpdateItemEnhancedRequest.builder(
+                                                    SessionAddressItem.class)
+                                            .item(sessionWrite)
+                                            .conditionExpression(sessionExists)
+                                            .build())
+                            .build());
+            return true;
+        } catch (TransactionCanceledException e) {
+            if (conditionFailed(e, SESSION_WRITE)) {
+                throw new SessionNotFoundException(
+                        "Session " + session.getSessionId() + " no longer exists");
+            }
+            if (conditionFailed(e, ADDRESS_WRITE)) {
+                session.setAuthorizationCode(previousCode);
+                session.setAuthorizationCodeExpiryDate(previousCodeExpiry);
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the credential set on an address item already saved by {@link
+     * #saveWithAuthorizationCode}, and on the session's copy of the addresses when colocating.
+     * Returns false, storing nothing, if another submission has replaced the addresses or the
+     * session's code since.
+     */
+    public boolean saveVerifiableCredential(AddressItem addressItem, SessionItem session) {
+        Expression sameAddresses =
+                Expression.builder()
+                        .expression("#digest = :digest")
+                        .expressionNames(Map.of("#digest", "addressesDigest"))
+                        .expressionValues(
+                                Map.of(
+                                        ":digest",
+                                        AttributeValue.builder()
+                                                .s(addressItem.getAddressesDigest())
+                                                .build()))
+                        .build();
+        if (!colocateAddresses) {
+            try {
+                addressTable.putItem(
+                        PutItemEnhancedRequest.builder(AddressItem.class)
+                                .item(addressItem)
+                                .conditionExpression(sameAddresses)
+                                .build());
+                return true;
+            } catch (ConditionalCheckFailedException e) {
+                return false;
+            }
+        }
+
+        Expression sameCode =
+                Expression.builder()
+                        .expression("#code = :code")
+                        .expressionNames(Map.of("#code", "authorizationCode"))
+                        .expressionValues(
+                                Map.of(
+                                        ":code",
+                                        AttributeValue.builder()
+                                                .s(session.getAuthorizationCode())
+                                                .build()))
+                        .build();
+        try {
+            client.transactWriteItems(
+                    TransactWriteItemsEnhancedRequest.builder()
+                            .addPutItem(
+                                    addressTable,
+                                    TransactPutItemEnhancedRequest.builder(AddressItem.class)
+                                            .item(addressItem)
+                                            .conditionExpression(sameAddresses)
+                                            .build())
+                            .addUpdateItem(
+                                    sessionTable,
+                                    TransactUpdateItemEnhancedRequest.builder(
+                                                    SessionAddressItem.class)
+                                            .item(SessionAddressItem.from(session, addressItem))
+                                            .conditionExpression(sameCode)
+                                            .build())
+                            .build());
+            return true;
+        } catch (TransactionCanceledException e) {
+            if (conditionFailed(e, ADDRESS_WRITE) || conditionFailed(e, SESSION_WRITE)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static Expression addressesChanged(AddressItem addressItem) {
+        return Expression.builder()
+                .expression("attribute_not_exists(#sessionId) OR NOT (#digest = :digest)")
+                .expressionNames(Map.of("#sessionId", "sessionId", "#digest", "addressesDigest"))
+                .expressionValues(
+                        Map.of(
+                                ":digest",
+                                AttributeValue.builder()
+                                        .s(addressItem.getAddressesDigest())
+                                        .build()))
+                .build();
+    }
+
+    private static boolean conditionFailed(TransactionCanceledException e, int write) {
+        List<CancellationReason> reasons = e.cancellationReasons();
+        return e.hasCancellationReasons()
+                && reasons.size() > write
+                && CONDITIONAL_CHECK_FAILED.equals(reasons.get(write).code());
+    }
+}
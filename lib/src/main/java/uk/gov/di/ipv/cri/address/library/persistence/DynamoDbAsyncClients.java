@@ -0,0 +1,30 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+/**
+ * Builds the async DynamoDB client the same way {@code DataStore.getClient()} builds the sync one,
+ * so both reach the same tables with the same credentials rather than whatever the SDK's default
+ * chains happen to find.
+ */
+public class DynamoDbAsyncClients {
+
+    private DynamoDbAsyncClients() {
+        throw new IllegalStateException(
+                "This class is not meant to be instantiated, it only holds helper methods");
+    }
+
+    public static DynamoDbEnhancedAsyncClient enhancedClient() {
+        DynamoDbAsyncClient client =
+                DynamoDbAsyncClient.builder()
+                        .httpClientBuilder(NettyNioAsyncHttpClient.builder())
+                        .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                        .region(Region.EU_WEST_2)
+                        .build();
+        return DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(client).build();
+    }
+}
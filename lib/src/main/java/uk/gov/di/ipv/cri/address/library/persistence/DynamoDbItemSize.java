@@ -0,0 +1,89 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the size DynamoDB bills an item at, following the published sizing rules, and the
+ * capacity units reading or writing it costs.
+ */
+public class DynamoDbItemSize {
+
+    private static final int WRITE_UNIT_BYTES = 1024;
+    private static final int READ_UNIT_BYTES = 4 * 1024;
+    // Every list or map costs this much on top of its contents, plus a byte per element
+    private static final int CONTAINER_OVERHEAD = 3;
+
+    private DynamoDbItemSize() {
+        throw new IllegalStateException(
+                "This class is not meant to be instantiated, it only holds helper methods");
+    }
+
+    public static int of(Map<String, AttributeValue> item) {
+        int size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += utf8Length(attribute.getKey()) + of(attribute.getValue());
+        }
+        return size;
+    }
+
+    public static int writeUnits(int itemBytes) {
+        return Math.max(1, (itemBytes + WRITE_UNIT_BYTES - 1) / WRITE_UNIT_BYTES);
+    }
+
+    /** Units for a strongly consistent read; an eventually consistent read costs half. */
+    public static int readUnits(int itemBytes) {
+        return Math.max(1, (itemBytes + READ_UNIT_BYTES - 1) / READ_UNIT_BYTES);
+    }
+
+    private static int of(AttributeValue value) {
+        if (value.s() != null) {
+            return utf8Length(value.s());
+        }
+        if (value.n() != null) {
+            return numberLength(value.n());
+        }
+        if (value.b() != null) {
+            return value.b().asByteArrayUnsafe().length;
+        }
+        if (value.hasM()) {
+            return CONTAINER_OVERHEAD + value.m().size() + of(value.m());
+        }
+        if (value.hasL()) {
+            return CONTAINER_OVERHEAD + value.l().size() + sum(value.l());
+        }
+        if (value.hasSs()) {
+            return value.ss().stream().mapToInt(DynamoDbItemSize::utf8Length).sum();
+        }
+        if (value.hasNs()) {
+            return value.ns().stream().mapToInt(DynamoDbItemSize::numberLength).sum();
+        }
+        if (value.hasBs()) {
+            return value.bs().stream().mapToInt(bytes -> bytes.asByteArrayUnsafe().length).sum();
+        }
+        // BOOL and NULL
+        return 1;
+    }
+
+    private static int sum(List<AttributeValue> values) {
+        int size = 0;
+        for (AttributeValue value : values) {
+            size += of(value);
+        }
+        return size;
+    }
+
+    private static int numberLength(String number) {
+        // Two significant digits to a byte, plus one
+        String digits = new BigDecimal(number).unscaledValue().abs().toString();
+        return (digits.length() + 1) / 2 + 1;
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
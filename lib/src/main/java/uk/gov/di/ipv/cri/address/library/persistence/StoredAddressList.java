@@ -0,0 +1,50 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Addresses together with the attribute {@link AddressListConverter} last read or wrote them as, so
+ * saving the same list again, or sizing the item it is on, needs no second encoding.
+ *
+ * <p>The list can't be changed, so the attribute always matches it. The addresses in it should not
+ * be changed either once it has been stored.
+ */
+public class StoredAddressList extends AbstractList<CanonicalAddress> implements RandomAccess {
+    private final List<CanonicalAddress> addresses;
+    private volatile AttributeValue storedValue;
+
+    public StoredAddressList(List<CanonicalAddress> addresses) {
+        this(new ArrayList<>(addresses), null);
+    }
+
+    // Takes the list as it is, so the caller must not keep it
+    StoredAddressList(List<CanonicalAddress> addresses, AttributeValue storedValue) {
+        this.addresses = Collections.unmodifiableList(addresses);
+        this.storedValue = storedValue;
+    }
+
+    @Override
+    public CanonicalAddress get(int index) {
+        return addresses.get(index);
+    }
+
+    @Override
+    public int size() {
+        return addresses.size();
+    }
+
+    AttributeValue getStoredValue() {
+        return storedValue;
+    }
+
+    void setStoredValue(AttributeValue storedValue) {
+        this.storedValue = storedValue;
+    }
+}
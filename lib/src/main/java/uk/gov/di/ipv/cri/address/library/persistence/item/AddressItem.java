@@ -1,7 +1,9 @@
 package uk.gov.di.ipv.cri.address.library.persistence.item;
 
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbConvertedBy;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressListConverter;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
 
 import java.util.ArrayList;
@@ -13,6 +15,9 @@ import java.util.UUID;
 public class AddressItem {
     private UUID sessionId;
     private List<CanonicalAddress> addresses = new ArrayList<>();
+    private long expiryDate;
+    private String addressesDigest;
+    private String verifiableCredential;
 
     @DynamoDbPartitionKey()
     public UUID getSessionId() {
@@ -23,6 +28,7 @@ public class AddressItem {
         this.sessionId = sessionId;
     }
 
+    @DynamoDbConvertedBy(AddressListConverter.class)
     public List<CanonicalAddress> getAddresses() {
         return addresses;
     }
@@ -30,4 +36,30 @@ public class AddressItem {
     public void setAddresses(List<CanonicalAddress> addresses) {
         this.addresses = Objects.requireNonNullElseGet(addresses, ArrayList::new);
     }
+
+    public long getExpiryDate() {
+        return expiryDate;
+    }
+
+    public void setExpiryDate(long expiryDate) {
+        this.expiryDate = expiryDate;
+    }
+
+    /** SHA-256 of the addresses in canonical form, to recognise a repeated submission. */
+    public String getAddressesDigest() {
+        return addressesDigest;
+    }
+
+    public void setAddressesDigest(String addressesDigest) {
+        this.addressesDigest = addressesDigest;
+    }
+
+    /** The credential signed when the addresses were submitted, if it was signed then. */
+    public String getVerifiableCredential() {
+        return verifiableCredential;
+    }
+
+    public void setVerifiableCredential(String verifiableCredential) {
+        this.verifiableCredential = verifiableCredential;
+    }
 }
@@ -0,0 +1,58 @@
+package uk.gov.di.ipv.cri.address.library.persistence.item;
+
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbConvertedBy;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressListConverter;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
+
+import java.util.List;
+
+/**
+ * A session item with a copy of the session's addresses kept on it, so the credential can be issued
+ * from the item the access token leads to without reading the address table as well.
+ *
+ * <p>The addresses are null when the session was saved without them, in which case the address
+ * table is the only copy.
+ */
+@DynamoDbBean
+public class SessionAddressItem extends SessionItem {
+    private static final TableSchema<SessionItem> SESSION_SCHEMA =
+            TableSchema.fromBean(SessionItem.class);
+    private static final TableSchema<SessionAddressItem> SCHEMA =
+            TableSchema.fromBean(SessionAddressItem.class);
+
+    private List<CanonicalAddress> addresses;
+    private String verifiableCredential;
+
+    /**
+     * Copies every attribute of the session, so it can be written back with the address item's
+     * addresses and credential, or without them when the address item is null.
+     */
+    public static SessionAddressItem from(SessionItem session, AddressItem addressItem) {
+        SessionAddressItem item = SCHEMA.mapToItem(SESSION_SCHEMA.itemToMap(session, true));
+        if (addressItem != null) {
+            item.setAddresses(addressItem.getAddresses());
+            item.setVerifiableCredential(addressItem.getVerifiableCredential());
+        }
+        return item;
+    }
+
+    @DynamoDbConvertedBy(AddressListConverter.class)
+    public List<CanonicalAddress> getAddresses() {
+        return addresses;
+    }
+
+    public void setAddresses(List<CanonicalAddress> addresses) {
+        this.addresses = addresses;
+    }
+
+    public String getVerifiableCredential() {
+        return verifiableCredential;
+    }
+
+    public void setVerifiableCredential(String verifiableCredential) {
+        this.verifiableCredential = verifiableCredential;
+    }
+}
@@ -1,74 +1,351 @@
 package uk.gov.di.ipv.cri.address.library.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import uk.gov.di.ipv.cri.address.library.exception.AddressProcessingException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchGetItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.ReadBatch;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import uk.gov.di.ipv.cri.address.library.exception.AddressValidationException;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressListConverter;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressSessionTransaction;
+import uk.gov.di.ipv.cri.address.library.persistence.DynamoDbAsyncClients;
+import uk.gov.di.ipv.cri.address.library.persistence.DynamoDbItemSize;
+import uk.gov.di.ipv.cri.address.library.persistence.StoredAddressList;
 import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.util.AddressProtobuf;
+import uk.gov.di.ipv.cri.address.library.util.BoundedAddressReader;
 import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
-import uk.gov.di.ipv.cri.common.library.persistence.DataStore;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
 import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class AddressService {
-    private final DataStore<AddressItem> dataStore;
-    private final ObjectMapper objectMapper;
-    private ObjectReader addressReader;
+    static final String ITEM_SIZE_METRIC = "address_item_size_bytes";
+    static final String WRITE_UNITS_METRIC = "address_item_write_units";
+    static final String READ_UNITS_METRIC = "address_item_read_units";
+    static final String DUPLICATE_SUBMISSION_METRIC = "address_duplicate_submission";
+
+    // BatchGetItem takes at most this many keys a call
+    static final int MAX_BATCH_GET_KEYS = 100;
+    static final int MAX_BATCH_GET_ATTEMPTS = 6;
+    private static final long BATCH_GET_BACKOFF_MILLIS = 50;
+
+    private static final TableSchema<AddressItem> ADDRESS_ITEM_SCHEMA =
+            TableSchema.fromBean(AddressItem.class);
+    private static final String ADDRESSES_ATTRIBUTE = "addresses";
+    // Everything but the addresses, which are sized from the attribute they are stored as
+    private static final List<String> OTHER_ATTRIBUTES =
+            ADDRESS_ITEM_SCHEMA.attributeNames().stream()
+                    .filter(attribute -> !ADDRESSES_ATTRIBUTE.equals(attribute))
+                    .collect(Collectors.toList());
+    private static final AddressListConverter ADDRESS_CONVERTER = new AddressListConverter();
+
+    private final DynamoDbEnhancedAsyncClient client;
+    private final DynamoDbAsyncTable<AddressItem> addressTable;
+    private final AddressSessionTransaction sessionTransaction;
+    private final BoundedAddressReader addressReader;
+    private final EventProbe eventProbe;
+    private final ConfigurationService configurationService;
+    private final Clock clock;
 
     @ExcludeFromGeneratedCoverageReport
     public AddressService(ConfigurationService configurationService, ObjectMapper objectMapper) {
         this(
-                new DataStore<>(
-                        configurationService.getParameterValue("AddressTableName"),
-                        AddressItem.class,
-                        DataStore.getClient()),
-                objectMapper);
+                DynamoDbAsyncClients.enhancedClient(),
+                configurationService.getParameterValue("AddressTableName"),
+                new AddressSessionTransaction(configurationService),
+                objectMapper,
+                new EventProbe(),
+                configurationService,
+                Clock.systemUTC());
     }
 
-    public AddressService(DataStore<AddressItem> dataStore, ObjectMapper objectMapper) {
-        this.dataStore = dataStore;
-        this.objectMapper = objectMapper;
+    public AddressService(
+            DynamoDbEnhancedAsyncClient client,
+            String addressTableName,
+            AddressSessionTransaction sessionTransaction,
+            ObjectMapper objectMapper,
+            EventProbe eventProbe,
+            ConfigurationService configurationService,
+            Clock clock) {
+        this.client = client;
+        this.addressTable = client.table(addressTableName, ADDRESS_ITEM_SCHEMA);
+        this.sessionTransaction = sessionTransaction;
+        this.eventProbe = eventProbe;
+        this.configurationService = configurationService;
+        this.clock = clock;
+        this.addressReader = BoundedAddressReader.fromEnvironment(objectMapper);
     }
 
+    /**
+     * Parses the addresses, rejecting bodies that break the {@link BoundedAddressReader} limits
+     * before more of them is read.
+     */
     public List<CanonicalAddress> parseAddresses(String addressBody)
-            throws AddressProcessingException {
-        List<CanonicalAddress> addresses;
-        try {
-            addresses = getAddressReader().readValue(addressBody);
-        } catch (JsonProcessingException e) {
-            throw new AddressProcessingException(
-                    "could not parse addresses..." + e.getMessage(), e);
-        }
-
-        return addresses;
+            throws AddressValidationException {
+        return addressReader.read(addressBody);
     }
 
     public AddressItem saveAddresses(UUID sessionId, List<CanonicalAddress> addresses) {
+        return join(saveAddressesAsync(sessionId, addresses));
+    }
+
+    /** Completes with the saved item once DynamoDB has accepted the write. */
+    public CompletableFuture<AddressItem> saveAddressesAsync(
+            UUID sessionId, List<CanonicalAddress> addresses) {
         AddressItem addressItem = new AddressItem();
 
         addressItem.setSessionId(sessionId);
-        addressItem.setAddresses(addresses);
-        dataStore.create(addressItem);
+        addressItem.setAddresses(new StoredAddressList(addresses));
+        addressItem.setAddressesDigest(digest(addresses));
+        addressItem.setExpiryDate(
+                clock.instant().plusSeconds(configurationService.getSessionTtl()).getEpochSecond());
+        return addressTable
+                .putItem(addressItem)
+                .thenApply(
+                        saved -> {
+                            recordItemSize(addressItem);
+                            return addressItem;
+                        });
+    }
+
+    /**
+     * Saves the addresses and gives the session its authorization code in a single transaction, so
+     * neither is written without the other. Resubmitting the addresses the session already has
+     * writes nothing and keeps the code already issued.
+     */
+    public AddressItem saveAddressesWithAuthorizationCode(
+            SessionItem session, List<CanonicalAddress> addresses) {
+        return saveAddressesWithAuthorizationCode(session, addresses, () -> null);
+    }
+
+    /**
+     * As {@link #saveAddressesWithAuthorizationCode(SessionItem, List)}, then stores a credential
+     * signed for the addresses so it can be issued without signing another. The signer is only
+     * called once new addresses have been saved, so a resubmission is never signed again. It may
+     * return null to store no credential.
+     */
+    public AddressItem saveAddressesWithAuthorizationCode(
+            SessionItem session,
+            List<CanonicalAddress> addresses,
+            Supplier<String> credentialSigner) {
+        AddressItem addressItem = new AddressItem();
+
+        addressItem.setSessionId(session.getSessionId());
+        addressItem.setAddresses(new StoredAddressList(addresses));
+        addressItem.setAddressesDigest(digest(addresses));
+        // Go when the session does, as nothing can read the addresses without it
+        addressItem.setExpiryDate(session.getExpiryDate());
+        if (sessionTransaction.saveWithAuthorizationCode(addressItem, session)) {
+            recordItemSize(addressItem);
+            saveVerifiableCredential(addressItem, session, credentialSigner.get());
+        } else {
+            eventProbe.counterMetric(DUPLICATE_SUBMISSION_METRIC);
+        }
 
         return addressItem;
     }
 
     public AddressItem getAddressItem(UUID sessionId) {
-        return dataStore.getItem(String.valueOf(sessionId));
+        return join(getAddressItemAsync(sessionId));
+    }
+
+    /**
+     * Completes with the session's address item, or null if it has none. An item past its expiry
+     * counts as none, since DynamoDB can take a while to delete it.
+     */
+    public CompletableFuture<AddressItem> getAddressItemAsync(UUID sessionId) {
+        return addressTable
+                .getItem(key(sessionId))
+                .thenApply(this::recordReadUnits)
+                .thenApply(addressItem -> isLive(addressItem) ? addressItem : null);
+    }
+
+    public List<AddressItem> getAddressItems(Collection<UUID> sessionIds) {
+        return join(getAddressItemsAsync(sessionIds));
+    }
+
+    /**
+     * Completes with the address items held for any of the sessions, in no particular order.
+     * Sessions without an item, or whose item has expired, are left out. Keys DynamoDB leaves
+     * unprocessed are retried with backoff, failing only if some are still unprocessed after
+     * {@value #MAX_BATCH_GET_ATTEMPTS} attempts.
+     */
+    public CompletableFuture<List<AddressItem>> getAddressItemsAsync(Collection<UUID> sessionIds) {
+        List<Key> keys =
+                sessionIds.stream()
+                        .distinct()
+                        .map(AddressService::key)
+                        .collect(Collectors.toList());
+
+        List<CompletableFuture<List<AddressItem>>> batches = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += MAX_BATCH_GET_KEYS) {
+            int to = Math.min(from + MAX_BATCH_GET_KEYS, keys.size());
+            batches.add(batchGet(keys.subList(from, to), 1));
+        }
+
+        return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new))
+                .thenApply(
+                        done -> {
+                            List<AddressItem> addressItems = new ArrayList<>(keys.size());
+                            batches.forEach(batch -> addressItems.addAll(batch.join()));
+                            recordReadUnits(addressItems);
+                            addressItems.removeIf(addressItem -> !isLive(addressItem));
+                            return addressItems;
+                        });
+    }
+
+    private CompletableFuture<List<AddressItem>> batchGet(List<Key> keys, int attempt) {
+        ReadBatch.Builder<AddressItem> readBatch =
+                ReadBatch.builder(AddressItem.class).mappedTableResource(addressTable);
+        keys.forEach(readBatch::addGetItem);
+
+        List<AddressItem> addressItems = new ArrayList<>(keys.size());
+        List<Key> unprocessedKeys = new ArrayList<>();
+        // The client would follow unprocessed keys itself, but straight away; take one page so
+        // the retries can back off
+        return client.batchGetItem(
+                        BatchGetItemEnhancedRequest.builder()
+                                .readBatches(readBatch.build())
+                                .build())
+                .limit(1)
+                .subscribe(
+                        page -> {
+                            addressItems.addAll(page.resultsForTable(addressTable));
+                            unprocessedKeys.addAll(page.unprocessedKeysForTable(addressTable));
+                        })
+                .thenCompose(
+                        done -> {
+                            if (unprocessedKeys.isEmpty()) {
+                                return CompletableFuture.completedFuture(addressItems);
+                            }
+                            if (attempt >= MAX_BATCH_GET_ATTEMPTS) {
+                                throw SdkClientException.create(
+                                        unprocessedKeys.size()
+                                                + " address items still unprocessed after "
+                                                + attempt
+                                                + " attempts");
+                            }
+                            Executor backoff =
+                                    CompletableFuture.delayedExecutor(
+                                            BATCH_GET_BACKOFF_MILLIS << (attempt - 1),
+                                            TimeUnit.MILLISECONDS);
+                            return CompletableFuture.supplyAsync(() -> unprocessedKeys, backoff)
+                                    .thenCompose(retry -> batchGet(retry, attempt + 1))
+                                    .thenApply(
+                                            retried -> {
+                                                addressItems.addAll(retried);
+                                                return addressItems;
+                                            });
+                        });
     }
 
-    private ObjectReader getAddressReader() {
-        if (Objects.isNull(this.addressReader)) {
-            this.addressReader =
-                    this.objectMapper
-                            .readerForListOf(CanonicalAddress.class)
-                            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private void saveVerifiableCredential(
+            AddressItem addressItem, SessionItem session, String verifiableCredential) {
+        if (verifiableCredential == null) {
+            return;
+        }
+        addressItem.setVerifiableCredential(verifiableCredential);
+        if (sessionTransaction.saveVerifiableCredential(addressItem, session)) {
+            recordItemSize(addressItem);
+        } else {
+            // Replaced by a later submission, so this credential is for addresses no longer held
+            addressItem.setVerifiableCredential(null);
+        }
+    }
+
+    private void recordItemSize(AddressItem addressItem) {
+        int itemBytes = itemBytes(addressItem);
+
+        eventProbe
+                .counterMetric(ITEM_SIZE_METRIC, itemBytes)
+                .counterMetric(WRITE_UNITS_METRIC, DynamoDbItemSize.writeUnits(itemBytes));
+    }
+
+    private boolean isLive(AddressItem addressItem) {
+        // Items saved before they had an expiry never expire
+        return addressItem != null
+                && (addressItem.getExpiryDate() == 0
+                        || addressItem.getExpiryDate() > clock.instant().getEpochSecond());
+    }
+
+    private AddressItem recordReadUnits(AddressItem addressItem) {
+        if (addressItem != null) {
+            recordReadUnits(List.of(addressItem));
+        }
+        return addressItem;
+    }
+
+    private void recordReadUnits(List<AddressItem> addressItems) {
+        if (addressItems.isEmpty()) {
+            return;
+        }
+        // A batch is billed per item, the same as reading each on its own
+        int readUnits = 0;
+        for (AddressItem addressItem : addressItems) {
+            readUnits += DynamoDbItemSize.readUnits(itemBytes(addressItem));
+        }
+        eventProbe.counterMetric(READ_UNITS_METRIC, readUnits);
+    }
+
+    private static int itemBytes(AddressItem addressItem) {
+        Map<String, AttributeValue> item =
+                new HashMap<>(ADDRESS_ITEM_SCHEMA.itemToMap(addressItem, OTHER_ATTRIBUTES));
+        // Attributes left unset are not stored
+        item.values().removeIf(Objects::isNull);
+        // The addresses the write or read just handled, rather than encoding them again
+        item.put(ADDRESSES_ATTRIBUTE, ADDRESS_CONVERTER.storedValue(addressItem.getAddresses()));
+        return DynamoDbItemSize.of(item);
+    }
+
+    static String digest(List<CanonicalAddress> addresses) {
+        try {
+            // Protobuf writes each field in field-number order, so equal lists hash the same
+            byte[] digest =
+                    MessageDigest.getInstance("SHA-256")
+                            .digest(AddressProtobuf.encodeAddresses(addresses));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Key key(UUID sessionId) {
+        return Key.builder().partitionValue(String.valueOf(sessionId)).build();
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow what the client threw, so callers see the same exceptions as a blocking call
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
-        return this.addressReader;
     }
 }
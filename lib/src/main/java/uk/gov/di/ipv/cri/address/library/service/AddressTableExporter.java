@@ -0,0 +1,121 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.ScanEnhancedRequest;
+import uk.gov.di.ipv.cri.address.library.persistence.DynamoDbAsyncClients;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes every address item to a file as newline-delimited JSON, scanning the table in parallel
+ * segments.
+ *
+ * <p>Each segment asks for its next item only once the last one is written, so memory stays at
+ * about one scan page a segment however large the table is. Lines are in no particular order.
+ */
+public class AddressTableExporter {
+
+    // The most segments DynamoDB allows a parallel scan
+    static final int MAX_SEGMENTS = 1_000_000;
+
+    private static final byte NEWLINE = '\n';
+
+    private final DynamoDbAsyncTable<AddressItem> addressTable;
+    private final ObjectWriter itemWriter;
+
+    @ExcludeFromGeneratedCoverageReport
+    public AddressTableExporter(
+            ConfigurationService configurationService, ObjectMapper objectMapper) {
+        this(
+                DynamoDbAsyncClients.enhancedClient()
+                        .table(
+                                configurationService.getParameterValue("AddressTableName"),
+                                TableSchema.fromBean(AddressItem.class)),
+                objectMapper);
+    }
+
+    public AddressTableExporter(
+            DynamoDbAsyncTable<AddressItem> addressTable, ObjectMapper objectMapper) {
+        this.addressTable = addressTable;
+        this.itemWriter = objectMapper.writerFor(AddressItem.class);
+    }
+
+    /** Exports the table to the file, replacing it, and returns the number of items written. */
+    public long export(Path file, int totalSegments) throws IOException {
+        if (totalSegments < 1 || totalSegments > MAX_SEGMENTS) {
+            throw new IllegalArgumentException(
+                    "Segments must be between 1 and " + MAX_SEGMENTS + ", not " + totalSegments);
+        }
+
+        AtomicLong exported = new AtomicLong();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            List<CompletableFuture<Void>> segments = new ArrayList<>(totalSegments);
+            for (int segment = 0; segment < totalSegments; segment++) {
+                ScanEnhancedRequest request =
+                        ScanEnhancedRequest.builder()
+                                .segment(segment)
+                                .totalSegments(totalSegments)
+                                .build();
+                segments.add(
+                        addressTable
+                                .scan(request)
+                                .items()
+                                .subscribe(
+                                        addressItem -> {
+                                            write(out, addressItem);
+                                            exported.incrementAndGet();
+                                        }));
+            }
+            await(segments);
+        }
+        return exported.get();
+    }
+
+    private void write(OutputStream out, AddressItem addressItem) {
+        try {
+            // Serialise outside the lock so segments only queue for the copy into the buffer
+            byte[] line = itemWriter.writeValueAsBytes(addressItem);
+            synchronized (out) {
+                out.write(line);
+                out.write(NEWLINE);
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(
+                    "Could not serialise address item " + addressItem.getSessionId(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void await(List<CompletableFuture<Void>> segments) throws IOException {
+        try {
+            CompletableFuture.allOf(segments.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            // Rethrow what the segment threw, so it is reported as it would be if run inline
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import uk.gov.di.ipv.cri.address.library.util.AddressProtobuf;
+import uk.gov.di.ipv.cri.address.library.util.PayloadEncoding;
+import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
+import uk.gov.di.ipv.cri.common.library.domain.AuditEventContext;
+import uk.gov.di.ipv.cri.common.library.domain.AuditEventType;
+import uk.gov.di.ipv.cri.common.library.exception.SqsException;
+import uk.gov.di.ipv.cri.common.library.service.AuditEventFactory;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Sends audit events to the audit queue in batches, off the request thread.
+ *
+ * <p>Events are serialised as they are sent but only queued locally. {@link #flushAsync()} sends
+ * whatever is queued with {@code SendMessageBatch} and returns straight away, so a handler can
+ * build its response while SQS answers. {@link #flush()} then waits for every send started so far
+ * and throws {@link SqsException} if any event was not accepted, as {@code AuditService} does.
+ * Handlers must call {@link #flush()} before returning, from a {@code finally} block so that a
+ * failed invocation does too, since a Lambda environment may be frozen as soon as the invocation
+ * ends and anything left queued would be sent, and waited on, by the next one.
+ *
+ * <p>With {@value #ENCODING} set to {@code PROTOBUF}, each event is sent as a base64 encoded {@code
+ * AuditEvent} message from {@code address.proto}, with a {@value #CONTENT_TYPE} attribute so
+ * consumers can tell it from JSON.
+ */
+public class BufferedAuditEmitter {
+
+    public static final String ENCODING = "AUDIT_EVENT_ENCODING";
+    public static final String CONTENT_TYPE = "contentType";
+    public static final String PROTOBUF_CONTENT_TYPE = "application/x-protobuf";
+
+    // SendMessageBatch limits
+    static final int MAX_BATCH_ENTRIES = 10;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private static final MessageAttributeValue PROTOBUF_ATTRIBUTE =
+            MessageAttributeValue.builder()
+                    .dataType("String")
+                    .stringValue(PROTOBUF_CONTENT_TYPE)
+                    .build();
+
+    private final SqsAsyncClient sqs;
+    private final String queueUrl;
+    private final ObjectMapper objectMapper;
+    private final AuditEventFactory auditEventFactory;
+    private final PayloadEncoding encoding;
+    private final Queue<SendMessageBatchRequestEntry> queued = new ConcurrentLinkedQueue<>();
+    private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+
+    @ExcludeFromGeneratedCoverageReport
+    public BufferedAuditEmitter(
+            ConfigurationService configurationService, ObjectMapper objectMapper) {
+        this(
+                SqsAsyncClient.create(),
+                configurationService.getSqsAuditEventQueueUrl(),
+                objectMapper,
+                new AuditEventFactory(configurationService, Clock.systemUTC()),
+                PayloadEncoding.fromEnvironment(ENCODING));
+    }
+
+    public BufferedAuditEmitter(
+            SqsAsyncClient sqs,
+            String queueUrl,
+            ObjectMapper objectMapper,
+            AuditEventFactory auditEventFactory,
+            PayloadEncoding encoding) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.objectMapper = objectMapper;
+        this.auditEventFactory = auditEventFactory;
+        this.encoding = encoding;
+    }
+
+    public void sendAuditEvent(AuditEventType eventType) throws SqsException {
+        sendAuditEvent(eventType, null, null);
+    }
+
+    public void sendAuditEvent(AuditEventType eventType, AuditEventContext context)
+            throws SqsException {
+        sendAuditEvent(eventType, context, null);
+    }
+
+    public <T> void sendAuditEvent(
+            AuditEventType eventType, AuditEventContext context, T extensions) throws SqsException {
+        var event = auditEventFactory.create(eventType.toString(), context, extensions);
+        if (encoding == PayloadEncoding.PROTOBUF) {
+            byte[] message = AddressProtobuf.encodeAuditEvent(objectMapper.valueToTree(event));
+            queued.add(
+                    SendMessageBatchRequestEntry.builder()
+                            .messageBody(Base64.getEncoder().encodeToString(message))
+                            .messageAttributes(Map.of(CONTENT_TYPE, PROTOBUF_ATTRIBUTE))
+                            .build());
+            return;
+        }
+        try {
+            queued.add(
+                    SendMessageBatchRequestEntry.builder()
+                            .messageBody(objectMapper.writeValueAsString(event))
+                            .build());
+        } catch (JsonProcessingException e) {
+            throw new SqsException(e);
+        }
+    }
+
+    /** Starts sending every queued event without waiting for SQS. */
+    public void flushAsync() {
+        List<SendMessageBatchRequestEntry> messages = new ArrayList<>();
+        for (SendMessageBatchRequestEntry message = queued.poll();
+                message != null;
+                message = queued.poll()) {
+            messages.add(message);
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        List<SendMessageBatchRequestEntry> batch = new ArrayList<>();
+        int batchBytes = 0;
+        for (SendMessageBatchRequestEntry message : messages) {
+            int messageBytes = size(message);
+            if (batch.size() == MAX_BATCH_ENTRIES
+                    || (!batch.isEmpty() && batchBytes + messageBytes > MAX_BATCH_BYTES)) {
+                batches.add(send(batch));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(message);
+            batchBytes += messageBytes;
+        }
+        batches.add(send(batch));
+
+        synchronized (inFlight) {
+            inFlight.add(CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new)));
+        }
+    }
+
+    /** Sends anything still queued and waits until SQS has accepted every event. */
+    public void flush() throws SqsException {
+        flushAsync();
+        List<CompletableFuture<Void>> sends;
+        synchronized (inFlight) {
+            sends = new ArrayList<>(inFlight);
+            inFlight.clear();
+        }
+
+        SqsException failure = null;
+        for (CompletableFuture<Void> send : sends) {
+            try {
+                send.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SqsException(e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure =
+                            e.getCause() instanceof SqsException
+                                    ? (SqsException) e.getCause()
+                                    : new SqsException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private CompletableFuture<Void> send(List<SendMessageBatchRequestEntry> messages) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            entries.add(messages.get(i).toBuilder().id(String.valueOf(i)).build());
+        }
+        return sqs.sendMessageBatch(builder -> builder.queueUrl(queueUrl).entries(entries))
+                .thenAccept(BufferedAuditEmitter::checkAllSent);
+    }
+
+    private static int size(SendMessageBatchRequestEntry message) {
+        // Attribute names, types and values count towards the limit as well as the body
+        int size = message.messageBody().getBytes(StandardCharsets.UTF_8).length;
+        for (Map.Entry<String, MessageAttributeValue> attribute :
+                message.messageAttributes().entrySet()) {
+            size +=
+                    attribute.getKey().length()
+                            + attribute.getValue().dataType().length()
+                            + attribute.getValue().stringValue().length();
+        }
+        return size;
+    }
+
+    private static void checkAllSent(SendMessageBatchResponse response) {
+        if (response.hasFailed() && !response.failed().isEmpty()) {
+            throw new CompletionException(
+                    new SqsException(
+                            "Failed to send "
+                                    + response.failed().size()
+                                    + " audit events: "
+                                    + response.failed().stream()
+                                            .map(BatchResultErrorEntry::code)
+                                            .distinct()
+                                            .collect(Collectors.joining(", "))));
+        }
+    }
+}
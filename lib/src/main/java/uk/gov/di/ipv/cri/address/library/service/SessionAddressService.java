@@ -0,0 +1,95 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbIndex;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressSessionTransaction;
+import uk.gov.di.ipv.cri.address.library.persistence.item.SessionAddressItem;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.common.library.annotations.ExcludeFromGeneratedCoverageReport;
+import uk.gov.di.ipv.cri.common.library.exception.AccessTokenExpiredException;
+import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
+import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
+import uk.gov.di.ipv.cri.common.library.persistence.DataStore;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.time.Clock;
+
+/**
+ * Finds a session by its access token the same way as {@code
+ * SessionService.getSessionByAccessToken}, but reads it with any addresses {@link
+ * AddressSessionTransaction} kept on it, so those don't need reading from the address table too.
+ */
+public class SessionAddressService {
+    static final String ACCESS_TOKEN_INDEX = "access-token-index";
+
+    private final DynamoDbTable<SessionAddressItem> sessionTable;
+    private final DynamoDbIndex<SessionAddressItem> accessTokenIndex;
+    private final Clock clock;
+    private final boolean colocatedAddresses;
+
+    @ExcludeFromGeneratedCoverageReport
+    public SessionAddressService(ConfigurationService configurationService) {
+        this(
+                DataStore.getClient(),
+                configurationService.getParameterValue("SessionTableName"),
+                Clock.systemUTC(),
+                EnvironmentVariables.getBoolean(
+                        AddressSessionTransaction.COLOCATE_ADDRESSES, false));
+    }
+
+    public SessionAddressService(
+            DynamoDbEnhancedClient client,
+            String sessionTableName,
+            Clock clock,
+            boolean colocatedAddresses) {
+        this.sessionTable =
+                client.table(sessionTableName, TableSchema.fromBean(SessionAddressItem.class));
+        this.accessTokenIndex = sessionTable.index(ACCESS_TOKEN_INDEX);
+        this.clock = clock;
+        this.colocatedAddresses = colocatedAddresses;
+    }
+
+    /** Whether sessions are being saved with their addresses, and so worth reading this way. */
+    public boolean isColocatedAddresses() {
+        return colocatedAddresses;
+    }
+
+    public SessionAddressItem getSessionByAccessToken(AccessToken accessToken) {
+        // Stored the way the session service stores it when the token is issued
+        String token = accessToken.toAuthorizationHeader();
+        SessionItem indexed =
+                accessTokenIndex.query(QueryConditional.keyEqualTo(key(token))).stream()
+                        .flatMap(page -> page.items().stream())
+                        .findFirst()
+                        .orElseThrow(
+                                () ->
+                                        new SessionNotFoundException(
+                                                "No session found for the access token"));
+
+        // The index only holds some of the session, so read all of it from the table
+        SessionAddressItem session = sessionTable.getItem(key(indexed.getSessionId().toString()));
+        if (session == null) {
+            throw new SessionNotFoundException(
+                    "Session " + indexed.getSessionId() + " no longer exists");
+        }
+        long now = clock.instant().getEpochSecond();
+        if (session.getExpiryDate() < now) {
+            throw new SessionExpiredException("Session " + session.getSessionId() + " has expired");
+        }
+        if (session.getAccessTokenExpiryDate() < now) {
+            throw new AccessTokenExpiredException(
+                    "Access token for session " + session.getSessionId() + " has expired");
+        }
+        return session;
+    }
+
+    private static Key key(String value) {
+        return Key.builder().partitionValue(value).build();
+    }
+}
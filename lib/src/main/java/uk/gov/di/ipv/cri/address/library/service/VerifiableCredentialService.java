@@ -0,0 +1,172 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import uk.gov.di.ipv.cri.address.library.util.EnvironmentVariables;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.KMSSigner;
+import uk.gov.di.ipv.cri.common.library.util.SignedJWTFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.nimbusds.jwt.JWTClaimNames.EXPIRATION_TIME;
+import static com.nimbusds.jwt.JWTClaimNames.ISSUER;
+import static com.nimbusds.jwt.JWTClaimNames.NOT_BEFORE;
+import static com.nimbusds.jwt.JWTClaimNames.SUBJECT;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.ADDRESS_CREDENTIAL_TYPE;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.DI_CONTEXT;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_ADDRESS_KEY;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_CLAIM;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_CONTEXT;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_CREDENTIAL_SUBJECT;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_TYPE;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VERIFIABLE_CREDENTIAL_TYPE;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.W3_BASE_CONTEXT;
+
+public class VerifiableCredentialService {
+    // Sign the credential when the addresses are submitted, rather than when it is issued
+    public static final String PREGENERATE_CREDENTIAL = "ADDRESS_VC_PREGENERATION";
+    public static final String CREDENTIAL_MAX_AGE = "ADDRESS_VC_MAX_AGE";
+
+    // Comfortably longer than the authorization code lasts, so the usual issuance can reuse it
+    static final Duration DEFAULT_CREDENTIAL_MAX_AGE = Duration.ofMinutes(10);
+
+    private final SignedJWTFactory signedJwtFactory;
+    private final ConfigurationService configurationService;
+
+    private final Clock clock;
+    private final Duration credentialMaxAge;
+
+    public VerifiableCredentialService() {
+        this.configurationService = new ConfigurationService();
+        this.signedJwtFactory =
+                new SignedJWTFactory(
+                        new KMSSigner(
+                                configurationService.getVerifiableCredentialKmsSigningKeyId()));
+        this.clock = Clock.systemUTC();
+        this.credentialMaxAge =
+                EnvironmentVariables.getSeconds(CREDENTIAL_MAX_AGE, DEFAULT_CREDENTIAL_MAX_AGE);
+    }
+
+    public VerifiableCredentialService(
+            SignedJWTFactory signedClaimSetJwt, ConfigurationService configurationService) {
+        this(
+                signedClaimSetJwt,
+                configurationService,
+                Clock.systemUTC(),
+                DEFAULT_CREDENTIAL_MAX_AGE);
+    }
+
+    public VerifiableCredentialService(
+            SignedJWTFactory signedClaimSetJwt,
+            ConfigurationService configurationService,
+            Clock clock,
+            Duration credentialMaxAge) {
+        this.signedJwtFactory = signedClaimSetJwt;
+        this.configurationService = configurationService;
+        this.clock = clock;
+        this.credentialMaxAge = credentialMaxAge;
+    }
+
+    public static boolean isPregenerationEnabled() {
+        return EnvironmentVariables.getBoolean(PREGENERATE_CREDENTIAL, false);
+    }
+
+    public SignedJWT generateSignedVerifiableCredentialJwt(
+            String subject, List<CanonicalAddress> canonicalAddresses) throws JOSEException {
+        var now = clock.instant();
+
+        var claimsSet =
+                new JWTClaimsSet.Builder()
+                        .claim(SUBJECT, subject)
+                        .claim(ISSUER, configurationService.getVerifiableCredentialIssuer())
+                        .claim(NOT_BEFORE, now.getEpochSecond())
+                        .claim(
+                                EXPIRATION_TIME,
+                                now.plusSeconds(configurationService.getMaxJwtTtl())
+                                        .getEpochSecond())
+                        .claim(
+                                VC_CLAIM,
+                                Map.of(
+                                        VC_TYPE,
+                                        new String[] {
+                                            VERIFIABLE_CREDENTIAL_TYPE, ADDRESS_CREDENTIAL_TYPE
+                                        },
+                                        VC_CONTEXT,
+                                        new String[] {W3_BASE_CONTEXT, DI_CONTEXT},
+                                        VC_CREDENTIAL_SUBJECT,
+                                        Map.of(
+                                                VC_ADDRESS_KEY,
+                                                convertAddresses(canonicalAddresses))))
+                        .build();
+
+        return signedJwtFactory.createSignedJwt(claimsSet);
+    }
+
+    /**
+     * Returns a credential signed earlier if it can still be issued to the subject, or null if it
+     * can't be read, belongs to someone else, comes from another issuer, or is outside its validity
+     * or older than {@value #CREDENTIAL_MAX_AGE} allows. A new credential should then be signed.
+     */
+    public SignedJWT getFreshCredential(String credential, String subject) {
+        JWTClaimsSet claims;
+        SignedJWT signedJwt;
+        try {
+            signedJwt = SignedJWT.parse(credential);
+            claims = signedJwt.getJWTClaimsSet();
+        } catch (ParseException e) {
+            return null;
+        }
+
+        Instant now = clock.instant();
+        Date notBefore = claims.getNotBeforeTime();
+        Date expires = claims.getExpirationTime();
+        boolean fresh =
+                notBefore != null
+                        && expires != null
+                        && !notBefore.toInstant().isAfter(now)
+                        && !notBefore.toInstant().plus(credentialMaxAge).isBefore(now)
+                        && expires.toInstant().isAfter(now);
+        boolean ours =
+                Objects.equals(subject, claims.getSubject())
+                        && Objects.equals(
+                                configurationService.getVerifiableCredentialIssuer(),
+                                claims.getIssuer());
+        return fresh && ours ? signedJwt : null;
+    }
+
+    public Map<String, Object> getAuditEventExtensions(List<CanonicalAddress> addresses) {
+        return Map.of(
+                ISSUER,
+                Objects.requireNonNull(
+                        configurationService.getVerifiableCredentialIssuer(),
+                        "VC issuer must not be null"),
+                "addressesEntered",
+                Objects.nonNull(addresses) ? addresses.size() : 0);
+    }
+
+    private static Object[] convertAddresses(List<CanonicalAddress> addresses) {
+        try {
+            List<Map<String, Object>> converted =
+                    JsonMappers.convert(
+                            addresses,
+                            JsonMappers.CANONICAL_ADDRESS_LIST_WRITER,
+                            JsonMappers.CREDENTIAL_ADDRESSES_READER);
+            return converted.toArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not convert the addresses for the credential", e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encodes canonical address lists as JSON or protobuf, whichever {@value #ENCODING} selects.
+ *
+ * <p>Decoding accepts either format whatever the setting, telling them apart by the first byte: a
+ * JSON list starts with {@code [} while an encoded {@code AddressList} starts with the tag of its
+ * only field. Stored values therefore stay readable when the setting is changed.
+ */
+public class AddressPayloadCodec {
+
+    public static final String ENCODING = "ADDRESS_PAYLOAD_ENCODING";
+
+    private static final byte JSON_ARRAY_START = '[';
+
+    private final PayloadEncoding encoding;
+
+    public AddressPayloadCodec(PayloadEncoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public static AddressPayloadCodec fromEnvironment() {
+        return new AddressPayloadCodec(PayloadEncoding.fromEnvironment(ENCODING));
+    }
+
+    public PayloadEncoding getEncoding() {
+        return encoding;
+    }
+
+    public byte[] encode(List<CanonicalAddress> addresses) {
+        if (encoding == PayloadEncoding.PROTOBUF) {
+            return AddressProtobuf.encodeAddresses(addresses);
+        }
+        try {
+            return JsonMappers.CANONICAL_ADDRESS_LIST_WRITER.writeValueAsBytes(addresses);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to encode addresses", e);
+        }
+    }
+
+    public List<CanonicalAddress> decode(byte[] encoded) {
+        if (encoded.length == 0 || encoded[0] != JSON_ARRAY_START) {
+            return AddressProtobuf.decodeAddresses(encoded);
+        }
+        try {
+            return JsonMappers.CANONICAL_ADDRESS_LIST_READER.readValue(encoded);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed address list", e);
+        }
+    }
+}
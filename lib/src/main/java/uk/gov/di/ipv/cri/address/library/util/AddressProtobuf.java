@@ -0,0 +1,330 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+import uk.gov.di.ipv.cri.address.library.proto.Address;
+import uk.gov.di.ipv.cri.address.library.proto.AddressAuditExtensions;
+import uk.gov.di.ipv.cri.address.library.proto.AddressList;
+import uk.gov.di.ipv.cri.address.library.proto.AuditEvent;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts between the address payloads and the messages in {@code address.proto}.
+ *
+ * <p>Audit events are mapped from their JSON form, so the envelope the common library builds does
+ * not need to be known here. The timestamp, event name and address extensions get typed fields;
+ * anything else is carried in a {@link Struct}, so converting back gives the same JSON apart from
+ * numbers in the struct, which protobuf holds as doubles.
+ */
+public class AddressProtobuf {
+
+    static final String TIMESTAMP = "timestamp";
+    static final String EVENT_NAME = "event_name";
+    static final String EXTENSIONS = "extensions";
+    static final String ISSUER = "iss";
+    static final String ADDRESSES_ENTERED = "addressesEntered";
+    static final String ADDRESSES = "addresses";
+
+    private static final Set<String> EXTENSION_FIELDS =
+            Set.of(ISSUER, ADDRESSES_ENTERED, ADDRESSES);
+
+    private AddressProtobuf() {
+        throw new IllegalStateException(
+                "This class is not meant to be instantiated, it only holds helper methods");
+    }
+
+    public static byte[] encodeAddresses(List<CanonicalAddress> addresses) {
+        AddressList.Builder list = AddressList.newBuilder();
+        for (CanonicalAddress address : addresses) {
+            list.addAddresses(toProto(address));
+        }
+        return list.build().toByteArray();
+    }
+
+    public static List<CanonicalAddress> decodeAddresses(byte[] encoded) {
+        try {
+            return fromProto(AddressList.parseFrom(encoded).getAddressesList());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Malformed address list", e);
+        }
+    }
+
+    public static byte[] encodeAuditEvent(JsonNode event) {
+        AuditEvent.Builder proto = AuditEvent.newBuilder();
+        Struct.Builder context = Struct.newBuilder();
+        for (Iterator<Map.Entry<String, JsonNode>> fields = event.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            if (TIMESTAMP.equals(field.getKey()) && value.canConvertToLong()) {
+                proto.setTimestamp(value.longValue());
+            } else if (EVENT_NAME.equals(field.getKey()) && value.isTextual()) {
+                proto.setEventName(value.textValue());
+            } else if (EXTENSIONS.equals(field.getKey()) && isAddressExtensions(value)) {
+                proto.setExtensions(toExtensions(value));
+            } else {
+                context.putFields(field.getKey(), toValue(value));
+            }
+        }
+        return proto.setContext(context).build().toByteArray();
+    }
+
+    public static ObjectNode decodeAuditEvent(byte[] encoded) {
+        AuditEvent proto;
+        try {
+            proto = AuditEvent.parseFrom(encoded);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Malformed audit event", e);
+        }
+        ObjectNode event = toJson(proto.getContext());
+        if (proto.getTimestamp() != 0) {
+            event.put(TIMESTAMP, proto.getTimestamp());
+        }
+        if (!proto.getEventName().isEmpty()) {
+            event.put(EVENT_NAME, proto.getEventName());
+        }
+        if (proto.hasExtensions()) {
+            event.set(EXTENSIONS, fromExtensions(proto.getExtensions()));
+        }
+        return event;
+    }
+
+    static Address toProto(CanonicalAddress address) {
+        Address.Builder proto = Address.newBuilder();
+        if (address.getUprn() != null) {
+            proto.setUprn(address.getUprn());
+        }
+        if (address.getOrganisationName() != null) {
+            proto.setOrganisationName(address.getOrganisationName());
+        }
+        if (address.getDepartmentName() != null) {
+            proto.setDepartmentName(address.getDepartmentName());
+        }
+        if (address.getSubBuildingName() != null) {
+            proto.setSubBuildingName(address.getSubBuildingName());
+        }
+        if (address.getBuildingNumber() != null) {
+            proto.setBuildingNumber(address.getBuildingNumber());
+        }
+        if (address.getBuildingName() != null) {
+            proto.setBuildingName(address.getBuildingName());
+        }
+        if (address.getDependentStreetName() != null) {
+            proto.setDependentStreetName(address.getDependentStreetName());
+        }
+        if (address.getStreetName() != null) {
+            proto.setStreetName(address.getStreetName());
+        }
+        if (address.getDoubleDependentAddressLocality() != null) {
+            proto.setDoubleDependentAddressLocality(address.getDoubleDependentAddressLocality());
+        }
+        if (address.getDependentAddressLocality() != null) {
+            proto.setDependentAddressLocality(address.getDependentAddressLocality());
+        }
+        if (address.getAddressLocality() != null) {
+            proto.setAddressLocality(address.getAddressLocality());
+        }
+        if (address.getPostalCode() != null) {
+            proto.setPostalCode(address.getPostalCode());
+        }
+        if (address.getAddressCountry() != null) {
+            proto.setAddressCountry(address.getAddressCountry());
+        }
+        if (address.getValidFrom() != null) {
+            proto.setValidFrom(address.getValidFrom().toEpochDay());
+        }
+        if (address.getValidUntil() != null) {
+            proto.setValidUntil(address.getValidUntil().toEpochDay());
+        }
+        return proto.build();
+    }
+
+    static List<CanonicalAddress> fromProto(List<Address> protos) {
+        List<CanonicalAddress> addresses = new ArrayList<>(protos.size());
+        for (Address proto : protos) {
+            addresses.add(fromProto(proto));
+        }
+        return addresses;
+    }
+
+    static CanonicalAddress fromProto(Address proto) {
+        CanonicalAddress address = new CanonicalAddress();
+        if (proto.hasUprn()) {
+            address.setUprn(proto.getUprn());
+        }
+        if (proto.hasOrganisationName()) {
+            address.setOrganisationName(proto.getOrganisationName());
+        }
+        if (proto.hasDepartmentName()) {
+            address.setDepartmentName(proto.getDepartmentName());
+        }
+        if (proto.hasSubBuildingName()) {
+            address.setSubBuildingName(proto.getSubBuildingName());
+        }
+        if (proto.hasBuildingNumber()) {
+            address.setBuildingNumber(proto.getBuildingNumber());
+        }
+        if (proto.hasBuildingName()) {
+            address.setBuildingName(proto.getBuildingName());
+        }
+        if (proto.hasDependentStreetName()) {
+            address.setDependentStreetName(proto.getDependentStreetName());
+        }
+        if (proto.hasStreetName()) {
+            address.setStreetName(proto.getStreetName());
+        }
+        if (proto.hasDoubleDependentAddressLocality()) {
+            address.setDoubleDependentAddressLocality(proto.getDoubleDependentAddressLocality());
+        }
+        if (proto.hasDependentAddressLocality()) {
+            address.setDependentAddressLocality(proto.getDependentAddressLocality());
+        }
+        if (proto.hasAddressLocality()) {
+            address.setAddressLocality(proto.getAddressLocality());
+        }
+        if (proto.hasPostalCode()) {
+            address.setPostalCode(proto.getPostalCode());
+        }
+        if (proto.hasAddressCountry()) {
+            address.setAddressCountry(proto.getAddressCountry());
+        }
+        if (proto.hasValidFrom()) {
+            address.setValidFrom(LocalDate.ofEpochDay(proto.getValidFrom()));
+        }
+        if (proto.hasValidUntil()) {
+            address.setValidUntil(LocalDate.ofEpochDay(proto.getValidUntil()));
+        }
+        return address;
+    }
+
+    private static boolean isAddressExtensions(JsonNode extensions) {
+        if (!extensions.isObject()) {
+            return false;
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> fields = extensions.fields();
+                fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!EXTENSION_FIELDS.contains(field.getKey())) {
+                return false;
+            }
+        }
+        JsonNode issuer = extensions.get(ISSUER);
+        JsonNode addressesEntered = extensions.get(ADDRESSES_ENTERED);
+        JsonNode addresses = extensions.get(ADDRESSES);
+        return (issuer == null || issuer.isTextual())
+                && (addressesEntered == null || addressesEntered.canConvertToInt())
+                && (addresses == null || addresses.isArray());
+    }
+
+    private static AddressAuditExtensions toExtensions(JsonNode extensions) {
+        AddressAuditExtensions.Builder proto = AddressAuditExtensions.newBuilder();
+        if (extensions.has(ISSUER)) {
+            proto.setIss(extensions.get(ISSUER).textValue());
+        }
+        if (extensions.has(ADDRESSES_ENTERED)) {
+            proto.setAddressesEntered(extensions.get(ADDRESSES_ENTERED).intValue());
+        }
+        if (extensions.has(ADDRESSES)) {
+            for (JsonNode address : extensions.get(ADDRESSES)) {
+                try {
+                    proto.addAddresses(
+                            toProto(JsonMappers.CANONICAL_ADDRESS_READER.readValue(address)));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Malformed address in audit event", e);
+                }
+            }
+        }
+        return proto.build();
+    }
+
+    private static ObjectNode fromExtensions(AddressAuditExtensions proto) {
+        ObjectNode extensions = JsonNodeFactory.instance.objectNode();
+        if (proto.hasIss()) {
+            extensions.put(ISSUER, proto.getIss());
+        }
+        if (proto.hasAddressesEntered()) {
+            extensions.put(ADDRESSES_ENTERED, proto.getAddressesEntered());
+        }
+        if (proto.getAddressesCount() > 0) {
+            try {
+                extensions.set(
+                        ADDRESSES,
+                        JsonMappers.<JsonNode>convert(
+                                fromProto(proto.getAddressesList()),
+                                JsonMappers.CANONICAL_ADDRESS_LIST_WRITER,
+                                JsonMappers.TREE_READER));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return extensions;
+    }
+
+    private static Value toValue(JsonNode node) {
+        if (node.isObject()) {
+            Struct.Builder struct = Struct.newBuilder();
+            node.fields()
+                    .forEachRemaining(
+                            field -> struct.putFields(field.getKey(), toValue(field.getValue())));
+            return Value.newBuilder().setStructValue(struct).build();
+        }
+        if (node.isArray()) {
+            ListValue.Builder list = ListValue.newBuilder();
+            node.forEach(element -> list.addValues(toValue(element)));
+            return Value.newBuilder().setListValue(list).build();
+        }
+        if (node.isNumber()) {
+            return Value.newBuilder().setNumberValue(node.doubleValue()).build();
+        }
+        if (node.isBoolean()) {
+            return Value.newBuilder().setBoolValue(node.booleanValue()).build();
+        }
+        if (node.isNull()) {
+            return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+        }
+        return Value.newBuilder().setStringValue(node.asText()).build();
+    }
+
+    private static ObjectNode toJson(Struct struct) {
+        ObjectNode object = JsonNodeFactory.instance.objectNode();
+        struct.getFieldsMap().forEach((name, value) -> object.set(name, toJson(value)));
+        return object;
+    }
+
+    private static JsonNode toJson(Value value) {
+        switch (value.getKindCase()) {
+            case STRUCT_VALUE:
+                return toJson(value.getStructValue());
+            case LIST_VALUE:
+                ArrayNode array = JsonNodeFactory.instance.arrayNode();
+                value.getListValue().getValuesList().forEach(element -> array.add(toJson(element)));
+                return array;
+            case NUMBER_VALUE:
+                double number = value.getNumberValue();
+                return number == Math.rint(number) && Math.abs(number) < 1L << 53
+                        ? JsonNodeFactory.instance.numberNode((long) number)
+                        : JsonNodeFactory.instance.numberNode(number);
+            case BOOL_VALUE:
+                return JsonNodeFactory.instance.booleanNode(value.getBoolValue());
+            case STRING_VALUE:
+                return JsonNodeFactory.instance.textNode(value.getStringValue());
+            default:
+                return JsonNodeFactory.instance.nullNode();
+        }
+    }
+}
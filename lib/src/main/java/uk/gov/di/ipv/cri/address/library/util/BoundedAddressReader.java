@@ -0,0 +1,133 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import uk.gov.di.ipv.cri.address.library.exception.AddressValidationException;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a JSON array of addresses a token at a time, giving up as soon as the body breaks a limit
+ * rather than after binding all of it.
+ *
+ * <p>Each address is checked token by token before it is bound, so a body that breaks a limit is
+ * rejected without the rest of it being read. Unknown properties are still ignored, but are held to
+ * the same limits. A body that breaks a limit or is not an array of addresses is rejected with an
+ * {@link AddressValidationException}, as the fault is the caller's.
+ */
+public class BoundedAddressReader {
+
+    public static final String MAX_ADDRESSES = "ADDRESS_MAX_COUNT";
+    public static final String MAX_FIELD_LENGTH = "ADDRESS_MAX_FIELD_LENGTH";
+    public static final String MAX_NESTING_DEPTH = "ADDRESS_MAX_NESTING_DEPTH";
+
+    // Far more than anyone's address history, and longer than any real address line
+    static final int DEFAULT_MAX_ADDRESSES = 50;
+    static final int DEFAULT_MAX_FIELD_LENGTH = 512;
+    // The array, each address, and one level below for properties we don't know about
+    static final int DEFAULT_MAX_NESTING_DEPTH = 3;
+
+    private final JsonFactory jsonFactory;
+    private final ObjectReader addressReader;
+    private final int maxAddresses;
+    private final int maxFieldLength;
+    private final int maxNestingDepth;
+
+    public BoundedAddressReader(
+            ObjectMapper objectMapper, int maxAddresses, int maxFieldLength, int maxNestingDepth) {
+        this.jsonFactory = objectMapper.getFactory();
+        this.addressReader =
+                objectMapper
+                        .readerFor(CanonicalAddress.class)
+                        .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.maxAddresses = maxAddresses;
+        this.maxFieldLength = maxFieldLength;
+        this.maxNestingDepth = maxNestingDepth;
+    }
+
+    public static BoundedAddressReader fromEnvironment(ObjectMapper objectMapper) {
+        return new BoundedAddressReader(
+                objectMapper,
+                EnvironmentVariables.getInt(MAX_ADDRESSES, DEFAULT_MAX_ADDRESSES),
+                EnvironmentVariables.getInt(MAX_FIELD_LENGTH, DEFAULT_MAX_FIELD_LENGTH),
+                EnvironmentVariables.getInt(MAX_NESTING_DEPTH, DEFAULT_MAX_NESTING_DEPTH));
+    }
+
+    public List<CanonicalAddress> read(String body) throws AddressValidationException {
+        if (body == null) {
+            throw new AddressValidationException("No addresses were sent");
+        }
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new AddressValidationException("Addresses must be a JSON array");
+            }
+
+            List<CanonicalAddress> addresses = new ArrayList<>();
+            for (JsonToken token = nextToken(parser);
+                    token != JsonToken.END_ARRAY;
+                    token = nextToken(parser)) {
+                if (addresses.size() == maxAddresses) {
+                    throw new AddressValidationException(
+                            "More than " + maxAddresses + " addresses");
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    throw new AddressValidationException("Each address must be a JSON object");
+                }
+                addresses.add(addressReader.readValue(bufferAddress(parser)));
+            }
+
+            if (parser.nextToken() != null) {
+                throw new AddressValidationException("Unexpected content after the addresses");
+            }
+            return addresses;
+        } catch (IOException e) {
+            throw new AddressValidationException(
+                    "could not parse addresses..." + e.getMessage(), e);
+        }
+    }
+
+    // Copies one address from the parser, checking it against the limits as it goes
+    private JsonParser bufferAddress(JsonParser parser)
+            throws IOException, AddressValidationException {
+        TokenBuffer address = new TokenBuffer(parser);
+        // Inside the array already
+        int depth = 1;
+        JsonToken token = parser.currentToken();
+        while (true) {
+            if (token.isStructStart() && ++depth > maxNestingDepth) {
+                throw new AddressValidationException(
+                        "Addresses nested deeper than " + maxNestingDepth + " levels");
+            }
+            if (token.isStructEnd()) {
+                depth--;
+            }
+            if ((token == JsonToken.FIELD_NAME || token.isScalarValue())
+                    && parser.getTextLength() > maxFieldLength) {
+                throw new AddressValidationException(
+                        "Address field longer than " + maxFieldLength + " characters");
+            }
+            address.copyCurrentEvent(parser);
+            if (depth == 1) {
+                return address.asParser();
+            }
+            token = nextToken(parser);
+        }
+    }
+
+    private static JsonToken nextToken(JsonParser parser)
+            throws IOException, AddressValidationException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new AddressValidationException("Addresses end unexpectedly");
+        }
+        return token;
+    }
+}
@@ -0,0 +1,44 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.nimbusds.oauth2.sdk.util.StringUtils;
+
+import java.time.Duration;
+
+public class EnvironmentVariables {
+
+    private EnvironmentVariables() {
+        throw new IllegalStateException(
+                "This class is not meant to be instantiated, it only holds helper methods");
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return StringUtils.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(
+                    "Environment variable " + name + " must be a number but was " + value, e);
+        }
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        return Math.toIntExact(getLong(name, defaultValue));
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public static Duration getSeconds(String name, Duration defaultValue) {
+        return Duration.ofSeconds(getLong(name, defaultValue.toSeconds()));
+    }
+}
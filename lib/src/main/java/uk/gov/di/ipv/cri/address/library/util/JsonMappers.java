@@ -0,0 +1,116 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Readers and writers built once per bound type from one {@link ObjectMapper} configuration shared
+ * by every lambda.
+ *
+ * <p>{@link ObjectReader} and {@link ObjectWriter} are immutable and thread safe, so handlers
+ * should hold them in static fields and let the type introspection happen during init rather than
+ * on the first request. The mapper itself is never handed out, as anything holding it could
+ * reconfigure it for everyone; code that needs a mapper gets its own {@link #newObjectMapper()
+ * copy}. Setting {@value #BYTECODE_SERIALISERS} to {@code true} registers the Blackbird module,
+ * which replaces reflective property access with generated lambdas.
+ */
+public class JsonMappers {
+
+    public static final String BYTECODE_SERIALISERS = "JSON_BYTECODE_SERIALISERS_ENABLED";
+
+    private static final ObjectMapper OBJECT_MAPPER =
+            createObjectMapper(EnvironmentVariables.getBoolean(BYTECODE_SERIALISERS, false));
+    private static final Map<JavaType, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final Map<JavaType, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    public static final ObjectReader CANONICAL_ADDRESS_LIST_READER =
+            readerForListOf(CanonicalAddress.class);
+    public static final ObjectWriter CANONICAL_ADDRESS_LIST_WRITER =
+            writerForListOf(CanonicalAddress.class);
+    public static final ObjectReader CANONICAL_ADDRESS_READER = readerFor(CanonicalAddress.class);
+    public static final ObjectReader TREE_READER = readerFor(JsonNode.class);
+    // Addresses as the plain maps the credential's claims are built from
+    public static final ObjectReader CREDENTIAL_ADDRESSES_READER =
+            reader(
+                    OBJECT_MAPPER
+                            .getTypeFactory()
+                            .constructCollectionType(
+                                    List.class,
+                                    OBJECT_MAPPER
+                                            .getTypeFactory()
+                                            .constructMapType(
+                                                    Map.class, String.class, Object.class)));
+
+    private JsonMappers() {
+        throw new IllegalStateException(
+                "This class is not meant to be instantiated, it only holds helper methods");
+    }
+
+    /** A mapper configured like the shared one, which the caller is free to change. */
+    public static ObjectMapper newObjectMapper() {
+        return OBJECT_MAPPER.copy();
+    }
+
+    /**
+     * Converts a value by writing it with the writer and reading the result with the reader, as
+     * {@link ObjectMapper#convertValue} does, but without a mapper.
+     */
+    public static <T> T convert(Object value, ObjectWriter writer, ObjectReader reader)
+            throws IOException {
+        TokenBuffer buffer = new TokenBuffer(null, false);
+        writer.writeValue(buffer, value);
+        return reader.readValue(buffer.asParser());
+    }
+
+    public static ObjectReader readerFor(Class<?> type) {
+        return reader(OBJECT_MAPPER.constructType(type));
+    }
+
+    public static ObjectReader readerForListOf(Class<?> elementType) {
+        return reader(
+                OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, elementType));
+    }
+
+    public static ObjectWriter writerFor(Class<?> type) {
+        return writer(OBJECT_MAPPER.constructType(type));
+    }
+
+    public static ObjectWriter writerForListOf(Class<?> elementType) {
+        return writer(
+                OBJECT_MAPPER.getTypeFactory().constructCollectionType(List.class, elementType));
+    }
+
+    static ObjectMapper createObjectMapper(boolean bytecodeSerialisers) {
+        ObjectMapper objectMapper =
+                new ObjectMapper()
+                        .registerModule(new Jdk8Module())
+                        .registerModule(new JavaTimeModule());
+        if (bytecodeSerialisers) {
+            objectMapper.registerModule(new BlackbirdModule());
+        }
+        return objectMapper;
+    }
+
+    private static ObjectReader reader(JavaType type) {
+        // readerFor and writerFor resolve the root (de)serializer eagerly, so the introspection
+        // cost is paid here rather than on first use
+        return READERS.computeIfAbsent(type, OBJECT_MAPPER::readerFor);
+    }
+
+    private static ObjectWriter writer(JavaType type) {
+        return WRITERS.computeIfAbsent(type, OBJECT_MAPPER::writerFor);
+    }
+}
@@ -0,0 +1,20 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import java.util.Locale;
+
+/** Wire format for payloads the address lambdas send or store. */
+public enum PayloadEncoding {
+    JSON,
+    PROTOBUF;
+
+    public static PayloadEncoding fromEnvironment(String name) {
+        String value = EnvironmentVariables.getString(name, JSON.name());
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException(
+                    "Environment variable " + name + " must be JSON or PROTOBUF but was " + value,
+                    e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.util.AddressPayloadCodec;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.address.library.util.PayloadEncoding;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AddressListConverterTest {
+    private final AddressListConverter converter =
+            new AddressListConverter(new AddressPayloadCodec(PayloadEncoding.JSON));
+
+    @ParameterizedTest
+    @EnumSource(PayloadEncoding.class)
+    void shouldRoundTripAddressesAsOneBinaryAttribute(PayloadEncoding encoding) {
+        AddressListConverter converter =
+                new AddressListConverter(new AddressPayloadCodec(encoding));
+        List<CanonicalAddress> addresses = addresses(5);
+
+        AttributeValue stored = converter.transformFrom(addresses);
+
+        assertEquals(AddressListConverter.DEFLATED, stored.b().asByteArray()[0]);
+        assertEquals(json(addresses), json(converter.transformTo(stored)));
+    }
+
+    @Test
+    void shouldStoreSmallListsUncompressedWhenDeflateDoesNotHelp() {
+        AddressListConverter converter =
+                new AddressListConverter(new AddressPayloadCodec(PayloadEncoding.PROTOBUF));
+
+        AttributeValue stored = converter.transformFrom(List.of());
+
+        assertEquals(AddressListConverter.RAW, stored.b().asByteArray()[0]);
+        assertTrue(converter.transformTo(stored).isEmpty());
+    }
+
+    @Test
+    void shouldReadItemsWrittenAsAListOfMaps() {
+        List<CanonicalAddress> addresses = addresses(3);
+        UUID sessionId = UUID.randomUUID();
+
+        AddressItem item =
+                TableSchema.fromBean(AddressItem.class)
+                        .mapToItem(
+                                Map.of(
+                                        "sessionId",
+                                        AttributeValue.builder().s(sessionId.toString()).build(),
+                                        "addresses",
+                                        AddressListConverter.toLegacy(addresses)));
+
+        assertEquals(sessionId, item.getSessionId());
+        assertEquals(json(addresses), json(item.getAddresses()));
+    }
+
+    @Test
+    void shouldShrinkTheItem() {
+        List<CanonicalAddress> addresses = addresses(10);
+
+        int binary = DynamoDbItemSize.of(Map.of("addresses", converter.transformFrom(addresses)));
+        int legacy =
+                DynamoDbItemSize.of(Map.of("addresses", AddressListConverter.toLegacy(addresses)));
+
+        assertTrue(binary * 4 < legacy, binary + " vs " + legacy);
+    }
+
+    @Test
+    void shouldEncodeAStoredListOnlyOnce() {
+        StoredAddressList addresses = new StoredAddressList(addresses(5));
+
+        AttributeValue stored = converter.transformFrom(addresses);
+
+        assertSame(stored, converter.transformFrom(addresses));
+        assertSame(stored, converter.storedValue(addresses));
+    }
+
+    @Test
+    void shouldWriteBackTheAttributeTheAddressesWereReadFrom() {
+        AttributeValue stored = converter.transformFrom(addresses(5));
+
+        List<CanonicalAddress> read = converter.transformTo(stored);
+
+        assertInstanceOf(StoredAddressList.class, read);
+        assertSame(stored, converter.transformFrom(read));
+        assertThrows(UnsupportedOperationException.class, () -> read.add(new CanonicalAddress()));
+    }
+
+    @Test
+    void shouldSizeAddressesReadAsAListOfMapsAsStoredButRewriteThemAsBinary() {
+        AttributeValue legacy = AddressListConverter.toLegacy(addresses(3));
+
+        List<CanonicalAddress> read = converter.transformTo(legacy);
+
+        assertSame(legacy, converter.storedValue(read));
+        AttributeValue rewritten = converter.transformFrom(read);
+        assertEquals(AddressListConverter.DEFLATED, rewritten.b().asByteArray()[0]);
+        assertSame(rewritten, converter.storedValue(read));
+    }
+
+    @Test
+    void shouldRejectUnknownFormats() {
+        AttributeValue unknown =
+                AttributeValue.builder().b(SdkBytes.fromByteArray(new byte[] {9, 1, 2})).build();
+        AttributeValue truncated =
+                AttributeValue.builder()
+                        .b(SdkBytes.fromByteArray(new byte[] {AddressListConverter.DEFLATED, 0x78}))
+                        .build();
+
+        assertThrows(IllegalArgumentException.class, () -> converter.transformTo(unknown));
+        assertThrows(IllegalArgumentException.class, () -> converter.transformTo(truncated));
+    }
+
+    private static List<CanonicalAddress> addresses(int count) {
+        List<CanonicalAddress> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CanonicalAddress address = new CanonicalAddress();
+            address.setUprn(72262801L + i);
+            address.setBuildingNumber(String.valueOf(i + 1));
+            address.setStreetName("GRANGE FIELDS WAY");
+            address.setAddressLocality("LEEDS");
+            address.setPostalCode("LS10 4QL");
+            address.setAddressCountry("GB");
+            address.setValidFrom(LocalDate.of(2010, 2, 26));
+            address.setValidUntil(LocalDate.of(2021, 1, 16));
+            addresses.add(address);
+        }
+        return addresses;
+    }
+
+    private static JsonNode json(List<CanonicalAddress> addresses) {
+        return JsonMappers.newObjectMapper().valueToTree(addresses);
+    }
+}
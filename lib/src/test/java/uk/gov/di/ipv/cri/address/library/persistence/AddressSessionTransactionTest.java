@@ -0,0 +1,322 @@
+package uk.gov.di.ipv.cri.address.library.persistence;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.persistence.item.SessionAddressItem;
+import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AddressSessionTransactionTest {
+    private static final String ADDRESS_TABLE = "address";
+    private static final String SESSION_TABLE = "session";
+    private static final long AUTHORIZATION_CODE_EXPIRY = 1654084800L;
+    private static final Clock CLOCK =
+            Clock.fixed(Instant.ofEpochSecond(AUTHORIZATION_CODE_EXPIRY - 600), ZoneOffset.UTC);
+
+    private static AmazonDynamoDBLocal dynamoDbLocal;
+    private static DynamoDbEnhancedClient enhancedClient;
+
+    @Mock private ConfigurationService configurationService;
+
+    private DynamoDbTable<AddressItem> addressTable;
+    private DynamoDbTable<SessionItem> sessionTable;
+    private AddressSessionTransaction transaction;
+
+    @BeforeAll
+    static void startDynamoDbLocal() {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        DynamoDbClient dynamoDbClient = dynamoDbLocal.dynamoDbClient();
+        createTable(dynamoDbClient, ADDRESS_TABLE);
+        createTable(dynamoDbClient, SESSION_TABLE);
+        enhancedClient = DynamoDbEnhancedClient.builder().dynamoDbClient(dynamoDbClient).build();
+    }
+
+    @AfterAll
+    static void stopDynamoDbLocal() {
+        dynamoDbLocal.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() {
+        addressTable = enhancedClient.table(ADDRESS_TABLE, TableSchema.fromBean(AddressItem.class));
+        sessionTable = enhancedClient.table(SESSION_TABLE, TableSchema.fromBean(SessionItem.class));
+        transaction =
+                new AddressSessionTransaction(
+                        enhancedClient,
+                        ADDRESS_TABLE,
+                        SESSION_TABLE,
+                        configurationService,
+                        false,
+                        CLOCK);
+    }
+
+    @Test
+    void shouldSaveTheAddressesAndAuthorizationCodeTogether() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        session.setClientId("ipv-core");
+        sessionTable.putItem(session);
+
+        transaction.saveWithAuthorizationCode(
+                addressItem(session.getSessionId(), "digest"), session);
+
+        SessionItem savedSession = sessionTable.getItem(key(session.getSessionId()));
+        assertNotNull(savedSession.getAuthorizationCode());
+        assertEquals(session.getAuthorizationCode(), savedSession.getAuthorizationCode());
+        assertEquals(AUTHORIZATION_CODE_EXPIRY, savedSession.getAuthorizationCodeExpiryDate());
+        assertEquals("ipv-core", savedSession.getClientId());
+
+        AddressItem savedAddresses = addressTable.getItem(key(session.getSessionId()));
+        assertEquals(1, savedAddresses.getAddresses().size());
+        assertEquals("LS10 4QL", savedAddresses.getAddresses().get(0).getPostalCode());
+    }
+
+    @Test
+    void shouldKeepTheFirstCodeWhenTheSameAddressesAreResubmitted() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY, AUTHORIZATION_CODE_EXPIRY + 60);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        sessionTable.putItem(session);
+
+        assertTrue(
+                transaction.saveWithAuthorizationCode(
+                        addressItem(session.getSessionId(), "digest"), session));
+        String firstCode = session.getAuthorizationCode();
+
+        assertFalse(
+                transaction.saveWithAuthorizationCode(
+                        addressItem(session.getSessionId(), "digest"), session));
+
+        assertEquals(firstCode, session.getAuthorizationCode());
+        assertEquals(AUTHORIZATION_CODE_EXPIRY, session.getAuthorizationCodeExpiryDate());
+        SessionItem savedSession = sessionTable.getItem(key(session.getSessionId()));
+        assertEquals(firstCode, savedSession.getAuthorizationCode());
+        assertEquals(AUTHORIZATION_CODE_EXPIRY, savedSession.getAuthorizationCodeExpiryDate());
+    }
+
+    @Test
+    void shouldIssueANewCodeWhenTheSameAddressesAreResubmittedAfterTheFirstCodeExpired() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(CLOCK.instant().getEpochSecond(), AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        sessionTable.putItem(session);
+
+        assertTrue(
+                transaction.saveWithAuthorizationCode(
+                        addressItem(session.getSessionId(), "digest"), session));
+        String expiredCode = session.getAuthorizationCode();
+
+        assertTrue(
+                transaction.saveWithAuthorizationCode(
+                        addressItem(session.getSessionId(), "digest"), session));
+
+        assertNotEquals(expiredCode, session.getAuthorizationCode());
+        SessionItem savedSession = sessionTable.getItem(key(session.getSessionId()));
+        assertEquals(session.getAuthorizationCode(), savedSession.getAuthorizationCode());
+        assertEquals(AUTHORIZATION_CODE_EXPIRY, savedSession.getAuthorizationCodeExpiryDate());
+    }
+
+    @Test
+    void shouldIssueANewCodeWhenDifferentAddressesAreSubmitted() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        sessionTable.putItem(session);
+
+        assertTrue(
+                transaction.saveWithAuthorizationCode(
+                        addressItem(session.getSessionId(), "digest"), session));
+        String firstCode = session.getAuthorizationCode();
+
+        assertTrue(
+                transaction.saveWithAuthorizationCode(
+                        addressItem(session.getSessionId(), "other digest"), session));
+
+        SessionItem savedSession = sessionTable.getItem(key(session.getSessionId()));
+        assertNotEquals(firstCode, savedSession.getAuthorizationCode());
+        assertEquals(
+                "other digest",
+                addressTable.getItem(key(session.getSessionId())).getAddressesDigest());
+    }
+
+    @Test
+    void shouldKeepACopyOfTheAddressesOnTheSessionWhenColocating() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        session.setSubject("subject");
+        sessionTable.putItem(session);
+        DynamoDbTable<SessionAddressItem> sessionAddressTable =
+                enhancedClient.table(SESSION_TABLE, TableSchema.fromBean(SessionAddressItem.class));
+
+        AddressItem addressItem = addressItem(session.getSessionId(), "digest");
+        addressItem.setVerifiableCredential("signed credential");
+
+        new AddressSessionTransaction(
+                        enhancedClient,
+                        ADDRESS_TABLE,
+                        SESSION_TABLE,
+                        configurationService,
+                        true,
+                        CLOCK)
+                .saveWithAuthorizationCode(addressItem, session);
+
+        SessionAddressItem savedSession = sessionAddressTable.getItem(key(session.getSessionId()));
+        assertEquals("subject", savedSession.getSubject());
+        assertEquals(session.getAuthorizationCode(), savedSession.getAuthorizationCode());
+        assertEquals("LS10 4QL", savedSession.getAddresses().get(0).getPostalCode());
+        assertEquals("signed credential", savedSession.getVerifiableCredential());
+
+        // Saving again without colocating must not leave the old copy to be read
+        transaction.saveWithAuthorizationCode(
+                addressItem(session.getSessionId(), "other digest"), session);
+
+        assertNull(sessionAddressTable.getItem(key(session.getSessionId())).getAddresses());
+    }
+
+    @Test
+    void shouldStoreACredentialSignedAfterTheAddressesWereSaved() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        sessionTable.putItem(session);
+        DynamoDbTable<SessionAddressItem> sessionAddressTable =
+                enhancedClient.table(SESSION_TABLE, TableSchema.fromBean(SessionAddressItem.class));
+        AddressSessionTransaction colocatingTransaction =
+                new AddressSessionTransaction(
+                        enhancedClient,
+                        ADDRESS_TABLE,
+                        SESSION_TABLE,
+                        configurationService,
+                        true,
+                        CLOCK);
+
+        AddressItem addressItem = addressItem(session.getSessionId(), "digest");
+        colocatingTransaction.saveWithAuthorizationCode(addressItem, session);
+        addressItem.setVerifiableCredential("signed credential");
+
+        assertTrue(colocatingTransaction.saveVerifiableCredential(addressItem, session));
+
+        assertEquals(
+                "signed credential",
+                addressTable.getItem(key(session.getSessionId())).getVerifiableCredential());
+        SessionAddressItem savedSession = sessionAddressTable.getItem(key(session.getSessionId()));
+        assertEquals("signed credential", savedSession.getVerifiableCredential());
+        assertEquals(session.getAuthorizationCode(), savedSession.getAuthorizationCode());
+    }
+
+    @Test
+    void shouldNotStoreACredentialForAddressesSinceReplaced() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+        sessionTable.putItem(session);
+
+        AddressItem addressItem = addressItem(session.getSessionId(), "digest");
+        transaction.saveWithAuthorizationCode(addressItem, session);
+        transaction.saveWithAuthorizationCode(
+                addressItem(session.getSessionId(), "other digest"), session);
+        addressItem.setVerifiableCredential("signed credential");
+
+        assertFalse(transaction.saveVerifiableCredential(addressItem, session));
+
+        AddressItem savedAddresses = addressTable.getItem(key(session.getSessionId()));
+        assertEquals("other digest", savedAddresses.getAddressesDigest());
+        assertNull(savedAddresses.getVerifiableCredential());
+    }
+
+    @Test
+    void shouldSaveNeitherWhenTheSessionHasGone() {
+        when(configurationService.getAuthorizationCodeExpirationEpoch())
+                .thenReturn(AUTHORIZATION_CODE_EXPIRY);
+        SessionItem session = new SessionItem();
+        session.setSessionId(UUID.randomUUID());
+
+        assertThrows(
+                SessionNotFoundException.class,
+                () ->
+                        transaction.saveWithAuthorizationCode(
+                                addressItem(session.getSessionId(), "digest"), session));
+
+        assertNull(sessionTable.getItem(key(session.getSessionId())));
+        assertNull(addressTable.getItem(key(session.getSessionId())));
+    }
+
+    private static AddressItem addressItem(UUID sessionId, String digest) {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setBuildingNumber("8");
+        address.setStreetName("GRANGE FIELDS WAY");
+        address.setPostalCode("LS10 4QL");
+
+        AddressItem addressItem = new AddressItem();
+        addressItem.setSessionId(sessionId);
+        addressItem.setAddresses(List.of(address));
+        addressItem.setAddressesDigest(digest);
+        return addressItem;
+    }
+
+    private static Key key(UUID sessionId) {
+        return Key.builder().partitionValue(sessionId.toString()).build();
+    }
+
+    private static void createTable(DynamoDbClient dynamoDbClient, String tableName) {
+        dynamoDbClient.createTable(
+                builder ->
+                        builder.tableName(tableName)
+                                .billingMode(BillingMode.PAY_PER_REQUEST)
+                                .attributeDefinitions(
+                                        AttributeDefinition.builder()
+                                                .attributeName("sessionId")
+                                                .attributeType(ScalarAttributeType.S)
+                                                .build())
+                                .keySchema(
+                                        KeySchemaElement.builder()
+                                                .attributeName("sessionId")
+                                                .keyType(KeyType.HASH)
+                                                .build()));
+    }
+}
@@ -0,0 +1,157 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressSessionTransaction;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class AddressServiceBatchGetTest {
+    private static final String TABLE_NAME = "address";
+    // More than fits in one BatchGetItem call
+    private static final int ITEM_COUNT = 2 * AddressService.MAX_BATCH_GET_KEYS + 30;
+
+    private static AmazonDynamoDBLocal dynamoDbLocal;
+    private static DynamoDbEnhancedAsyncClient enhancedClient;
+    private static final List<UUID> SESSION_IDS = new ArrayList<>();
+    private static final UUID EXPIRED_SESSION_ID = UUID.randomUUID();
+
+    @Mock private AddressSessionTransaction sessionTransaction;
+    @Mock private EventProbe eventProbe;
+    @Mock private ConfigurationService configurationService;
+
+    private AddressService addressService;
+
+    @BeforeAll
+    static void startDynamoDbLocal() {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        DynamoDbAsyncClient dynamoDbClient = dynamoDbLocal.dynamoDbAsyncClient();
+        dynamoDbClient
+                .createTable(
+                        builder ->
+                                builder.tableName(TABLE_NAME)
+                                        .billingMode(BillingMode.PAY_PER_REQUEST)
+                                        .attributeDefinitions(
+                                                AttributeDefinition.builder()
+                                                        .attributeName("sessionId")
+                                                        .attributeType(ScalarAttributeType.S)
+                                                        .build())
+                                        .keySchema(
+                                                KeySchemaElement.builder()
+                                                        .attributeName("sessionId")
+                                                        .keyType(KeyType.HASH)
+                                                        .build()))
+                .join();
+        enhancedClient =
+                DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDbClient).build();
+
+        DynamoDbAsyncTable<AddressItem> addressTable =
+                enhancedClient.table(TABLE_NAME, TableSchema.fromBean(AddressItem.class));
+        CompletableFuture<?>[] puts = new CompletableFuture<?>[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            CanonicalAddress address = new CanonicalAddress();
+            address.setPostalCode("LS10 4QL");
+
+            AddressItem addressItem = new AddressItem();
+            addressItem.setSessionId(UUID.randomUUID());
+            addressItem.setAddresses(List.of(address));
+            addressItem.setExpiryDate(Instant.now().plusSeconds(7200).getEpochSecond());
+            SESSION_IDS.add(addressItem.getSessionId());
+            puts[i] = addressTable.putItem(addressItem);
+        }
+        CompletableFuture.allOf(puts).join();
+
+        AddressItem expired = new AddressItem();
+        expired.setSessionId(EXPIRED_SESSION_ID);
+        expired.setExpiryDate(Instant.now().minusSeconds(60).getEpochSecond());
+        addressTable.putItem(expired).join();
+    }
+
+    @AfterAll
+    static void stopDynamoDbLocal() {
+        dynamoDbLocal.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() {
+        addressService =
+                new AddressService(
+                        enhancedClient,
+                        TABLE_NAME,
+                        sessionTransaction,
+                        JsonMappers.newObjectMapper(),
+                        eventProbe,
+                        configurationService,
+                        Clock.systemUTC());
+    }
+
+    @Test
+    void shouldGetEveryItemAcrossBatches() {
+        List<AddressItem> addressItems = addressService.getAddressItems(SESSION_IDS);
+
+        assertEquals(Set.copyOf(SESSION_IDS), sessionIds(addressItems));
+        assertEquals(ITEM_COUNT, addressItems.size());
+        verify(eventProbe).counterMetric(AddressService.READ_UNITS_METRIC, ITEM_COUNT);
+    }
+
+    @Test
+    void shouldSkipDuplicatesAndSessionsWithoutLiveAddresses() {
+        UUID unknown = UUID.randomUUID();
+        List<UUID> requested =
+                List.of(
+                        SESSION_IDS.get(0),
+                        SESSION_IDS.get(1),
+                        SESSION_IDS.get(0),
+                        unknown,
+                        EXPIRED_SESSION_ID);
+
+        List<AddressItem> addressItems = addressService.getAddressItems(requested);
+
+        assertEquals(Set.of(SESSION_IDS.get(0), SESSION_IDS.get(1)), sessionIds(addressItems));
+        assertEquals(2, addressItems.size());
+    }
+
+    @Test
+    void shouldNotCallDynamoDbForNoSessions() {
+        assertTrue(addressService.getAddressItems(List.of()).isEmpty());
+        verifyNoInteractions(eventProbe);
+    }
+
+    private static Set<UUID> sessionIds(List<AddressItem> addressItems) {
+        return addressItems.stream().map(AddressItem::getSessionId).collect(Collectors.toSet());
+    }
+}
@@ -1,47 +1,91 @@
 package uk.gov.di.ipv.cri.address.library.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
 import org.hamcrest.MatcherAssert;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
 import uk.gov.di.ipv.cri.address.library.exception.AddressProcessingException;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressListConverter;
+import uk.gov.di.ipv.cri.address.library.persistence.AddressSessionTransaction;
+import uk.gov.di.ipv.cri.address.library.persistence.DynamoDbItemSize;
 import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
-import uk.gov.di.ipv.cri.common.library.persistence.DataStore;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+import uk.gov.di.ipv.cri.common.library.persistence.item.SessionItem;
+import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
+import uk.gov.di.ipv.cri.common.library.util.EventProbe;
 
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class AddressServiceTest {
     private static final UUID SESSION_ID = UUID.randomUUID();
-    @Mock private DataStore<AddressItem> mockDataStore;
-    @Mock private ObjectMapper mockObjectMapper;
+    private static final String ADDRESS_TABLE = "address";
+    private static final Instant NOW = Instant.parse("2022-06-01T10:00:00Z");
+    private static final Clock CLOCK = Clock.fixed(NOW, ZoneOffset.UTC);
+    @Mock private DynamoDbEnhancedAsyncClient mockClient;
+    @Mock private DynamoDbAsyncTable<AddressItem> mockAddressTable;
+    @Mock private AddressSessionTransaction mockSessionTransaction;
+    @Mock private EventProbe mockEventProbe;
+    @Mock private ConfigurationService mockConfigurationService;
 
     private AddressService addressService;
 
     @BeforeEach
     void setup() {
-        this.addressService = new AddressService(mockDataStore, mockObjectMapper);
+        when(mockClient.table(eq(ADDRESS_TABLE), any(TableSchema.class)))
+                .thenReturn(mockAddressTable);
+        this.addressService =
+                new AddressService(
+                        mockClient,
+                        ADDRESS_TABLE,
+                        mockSessionTransaction,
+                        JsonMappers.newObjectMapper(),
+                        mockEventProbe,
+                        mockConfigurationService,
+                        CLOCK);
     }
 
     @Test
-    void shouldParseAddresses() throws AddressProcessingException, JsonProcessingException {
+    void shouldParseAddresses() throws AddressProcessingException {
         String addresses =
                 "[\n"
                         + "   {\n"
@@ -76,23 +120,30 @@ class AddressServiceTest {
                         + "   }\n"
                         + "]";
 
-        List<CanonicalAddress> readValueResult = List.of(new CanonicalAddress());
-        ObjectReader mockObjectReader = Mockito.mock(ObjectReader.class);
-        when(mockObjectReader.without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES))
-                .thenReturn(mockObjectReader);
-        when(mockObjectMapper.readerForListOf(CanonicalAddress.class)).thenReturn(mockObjectReader);
-        when(mockObjectReader.readValue(addresses)).thenReturn(readValueResult);
-
         List<CanonicalAddress> parsedAddresses = addressService.parseAddresses(addresses);
 
-        assertThat(parsedAddresses.size(), equalTo(readValueResult.size()));
-        verify(mockObjectMapper).readerForListOf(CanonicalAddress.class);
-        verify(mockObjectReader).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-        verify(mockObjectReader).readValue(addresses);
+        assertThat(parsedAddresses.size(), equalTo(3));
+        assertThat(parsedAddresses.get(0).getUprn(), equalTo(72262801L));
+        assertThat(parsedAddresses.get(1).getStreetName(), equalTo("RIDINGS LANE"));
+        assertThat(parsedAddresses.get(2).getValidFrom(), equalTo(LocalDate.of(2021, 8, 2)));
+        assertThat(parsedAddresses.get(2).getValidUntil(), equalTo(null));
+    }
+
+    @Test
+    void shouldRejectAddressesBeyondTheLimitsBeforeBindingThem() {
+        String tooMany = "[" + "{\"postalCode\": \"LS10 4QL\"},".repeat(60) + "{}]";
+
+        AddressProcessingException exception =
+                assertThrows(
+                        AddressProcessingException.class,
+                        () -> addressService.parseAddresses(tooMany));
+        assertThat(exception.getMessage(), equalTo("More than 50 addresses"));
     }
 
     @Test
     void shouldPersistAddresses() {
+        when(mockEventProbe.counterMetric(anyString(), anyDouble())).thenReturn(mockEventProbe);
+        when(mockConfigurationService.getSessionTtl()).thenReturn(7200L);
         List<CanonicalAddress> addresses = new ArrayList<>();
         CanonicalAddress address1 = new CanonicalAddress();
         address1.setUprn(Long.valueOf("72262801"));
@@ -128,19 +179,231 @@ class AddressServiceTest {
         addresses.add(address2);
         addresses.add(address3);
 
-        addressService.saveAddresses(SESSION_ID, addresses);
         ArgumentCaptor<AddressItem> addressItemArgumentCaptor =
                 ArgumentCaptor.forClass(AddressItem.class);
-        verify(mockDataStore).create(addressItemArgumentCaptor.capture());
+        when(mockAddressTable.putItem(addressItemArgumentCaptor.capture()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        addressService.saveAddresses(SESSION_ID, addresses);
         MatcherAssert.assertThat(
                 addressItemArgumentCaptor.getValue().getAddresses(), equalTo(addresses));
         MatcherAssert.assertThat(
                 addressItemArgumentCaptor.getValue().getSessionId(), equalTo(SESSION_ID));
+        MatcherAssert.assertThat(
+                addressItemArgumentCaptor.getValue().getExpiryDate(),
+                equalTo(NOW.plusSeconds(7200).getEpochSecond()));
+
+        ArgumentCaptor<Double> itemSize = ArgumentCaptor.forClass(Double.class);
+        verify(mockEventProbe)
+                .counterMetric(eq(AddressService.ITEM_SIZE_METRIC), itemSize.capture());
+        verify(mockEventProbe).counterMetric(AddressService.WRITE_UNITS_METRIC, 1d);
+        // What the item would have cost stored as a list of maps
+        Map<String, AttributeValue> legacyItem =
+                new HashMap<>(
+                        TableSchema.fromBean(AddressItem.class)
+                                .itemToMap(addressItemArgumentCaptor.getValue(), true));
+        legacyItem.put("addresses", AddressListConverter.toLegacy(addresses));
+        assertThat(itemSize.getValue(), lessThan((double) DynamoDbItemSize.of(legacyItem)));
+    }
+
+    @Test
+    void shouldPersistAddressesWithTheAuthorizationCode() {
+        when(mockEventProbe.counterMetric(anyString(), anyDouble())).thenReturn(mockEventProbe);
+        SessionItem session = new SessionItem();
+        session.setSessionId(SESSION_ID);
+        session.setExpiryDate(NOW.plusSeconds(3600).getEpochSecond());
+        List<CanonicalAddress> addresses = List.of(new CanonicalAddress());
+        when(mockSessionTransaction.saveWithAuthorizationCode(any(AddressItem.class), eq(session)))
+                .thenReturn(true);
+
+        AddressItem addressItem =
+                addressService.saveAddressesWithAuthorizationCode(session, addresses);
+
+        MatcherAssert.assertThat(addressItem.getSessionId(), equalTo(SESSION_ID));
+        MatcherAssert.assertThat(addressItem.getAddresses(), equalTo(addresses));
+        MatcherAssert.assertThat(addressItem.getExpiryDate(), equalTo(session.getExpiryDate()));
+        MatcherAssert.assertThat(
+                addressItem.getAddressesDigest(), equalTo(AddressService.digest(addresses)));
+        verify(mockSessionTransaction).saveWithAuthorizationCode(addressItem, session);
+        verify(mockAddressTable, never()).putItem(any(AddressItem.class));
+        verify(mockEventProbe).counterMetric(AddressService.WRITE_UNITS_METRIC, 1d);
+    }
+
+    @Test
+    void shouldCountARepeatedSubmissionWithoutRecordingAWrite() {
+        SessionItem session = new SessionItem();
+        session.setSessionId(SESSION_ID);
+        when(mockSessionTransaction.saveWithAuthorizationCode(any(AddressItem.class), eq(session)))
+                .thenReturn(false);
+
+        addressService.saveAddressesWithAuthorizationCode(session, List.of(new CanonicalAddress()));
+
+        verify(mockEventProbe).counterMetric(AddressService.DUPLICATE_SUBMISSION_METRIC);
+        verify(mockEventProbe, never()).counterMetric(anyString(), anyDouble());
+    }
+
+    @Test
+    void shouldStoreTheCredentialSignedOnceTheAddressesAreSaved() {
+        when(mockEventProbe.counterMetric(anyString(), anyDouble())).thenReturn(mockEventProbe);
+        SessionItem session = new SessionItem();
+        session.setSessionId(SESSION_ID);
+        when(mockSessionTransaction.saveWithAuthorizationCode(any(AddressItem.class), eq(session)))
+                .thenReturn(true);
+        when(mockSessionTransaction.saveVerifiableCredential(any(AddressItem.class), eq(session)))
+                .thenReturn(true);
+
+        AddressItem addressItem =
+                addressService.saveAddressesWithAuthorizationCode(
+                        session, List.of(new CanonicalAddress()), () -> "signed credential");
+
+        assertEquals("signed credential", addressItem.getVerifiableCredential());
+        verify(mockSessionTransaction).saveVerifiableCredential(addressItem, session);
+    }
+
+    @Test
+    void shouldNotSignARepeatedSubmission() {
+        SessionItem session = new SessionItem();
+        session.setSessionId(SESSION_ID);
+        when(mockSessionTransaction.saveWithAuthorizationCode(any(AddressItem.class), eq(session)))
+                .thenReturn(false);
+        AtomicInteger signatures = new AtomicInteger();
+
+        AddressItem addressItem =
+                addressService.saveAddressesWithAuthorizationCode(
+                        session,
+                        List.of(new CanonicalAddress()),
+                        () -> {
+                            signatures.incrementAndGet();
+                            return "signed credential";
+                        });
+
+        assertEquals(0, signatures.get());
+        assertNull(addressItem.getVerifiableCredential());
+        verify(mockSessionTransaction, never())
+                .saveVerifiableCredential(any(AddressItem.class), any(SessionItem.class));
+    }
+
+    @Test
+    void shouldDigestEqualAddressListsTheSame() {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setBuildingNumber("8");
+        address.setPostalCode("LS10 4QL");
+        CanonicalAddress sameAddress = new CanonicalAddress();
+        sameAddress.setBuildingNumber("8");
+        sameAddress.setPostalCode("LS10 4QL");
+        CanonicalAddress otherAddress = new CanonicalAddress();
+        otherAddress.setBuildingNumber("9");
+        otherAddress.setPostalCode("LS10 4QL");
+
+        MatcherAssert.assertThat(
+                AddressService.digest(List.of(address)),
+                equalTo(AddressService.digest(List.of(sameAddress))));
+        MatcherAssert.assertThat(
+                AddressService.digest(List.of(address)),
+                not(equalTo(AddressService.digest(List.of(otherAddress)))));
+        MatcherAssert.assertThat(
+                AddressService.digest(List.of(address, otherAddress)),
+                not(equalTo(AddressService.digest(List.of(otherAddress, address)))));
     }
 
     @Test
     void shouldGetAddressItem() {
+        AddressItem addressItem = new AddressItem();
+        addressItem.setSessionId(SESSION_ID);
+        when(mockAddressTable.getItem(key(SESSION_ID)))
+                .thenReturn(CompletableFuture.completedFuture(addressItem));
+
+        MatcherAssert.assertThat(addressService.getAddressItem(SESSION_ID), equalTo(addressItem));
+        verify(mockEventProbe).counterMetric(AddressService.READ_UNITS_METRIC, 1d);
+    }
+
+    @Test
+    void shouldCountReadUnitsFromTheAttributeTheAddressesWereStoredAs() {
+        List<CanonicalAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            CanonicalAddress address = new CanonicalAddress();
+            address.setUprn(72262801L + i);
+            address.setBuildingNumber(String.valueOf(i + 1));
+            address.setStreetName("GRANGE FIELDS WAY");
+            address.setAddressLocality("LEEDS");
+            address.setPostalCode("LS10 4QL");
+            address.setAddressCountry("GB");
+            address.setValidFrom(LocalDate.of(2010, 2, 26));
+            addresses.add(address);
+        }
+        Map<String, AttributeValue> stored =
+                Map.of(
+                        "sessionId",
+                        AttributeValue.builder().s(SESSION_ID.toString()).build(),
+                        "addresses",
+                        AddressListConverter.toLegacy(addresses));
+        AddressItem addressItem = TableSchema.fromBean(AddressItem.class).mapToItem(stored);
+        when(mockAddressTable.getItem(key(SESSION_ID)))
+                .thenReturn(CompletableFuture.completedFuture(addressItem));
+
         addressService.getAddressItem(SESSION_ID);
-        verify(mockDataStore).getItem(String.valueOf(SESSION_ID));
+
+        // Sized as the list of maps that was read, not as the smaller binary it would be written as
+        int readUnits = DynamoDbItemSize.readUnits(DynamoDbItemSize.of(stored));
+        assertThat(readUnits, greaterThan(1));
+        verify(mockEventProbe).counterMetric(AddressService.READ_UNITS_METRIC, readUnits);
+    }
+
+    @Test
+    void shouldTreatAnExpiredAddressItemAsAbsent() {
+        AddressItem addressItem = new AddressItem();
+        addressItem.setSessionId(SESSION_ID);
+        addressItem.setExpiryDate(NOW.getEpochSecond());
+        when(mockAddressTable.getItem(key(SESSION_ID)))
+                .thenReturn(CompletableFuture.completedFuture(addressItem));
+
+        assertNull(addressService.getAddressItem(SESSION_ID));
+        verify(mockEventProbe).counterMetric(AddressService.READ_UNITS_METRIC, 1d);
+    }
+
+    @Test
+    void shouldReadAnAddressItemBeforeItExpires() {
+        AddressItem addressItem = new AddressItem();
+        addressItem.setSessionId(SESSION_ID);
+        addressItem.setExpiryDate(NOW.getEpochSecond() + 1);
+        when(mockAddressTable.getItem(key(SESSION_ID)))
+                .thenReturn(CompletableFuture.completedFuture(addressItem));
+
+        MatcherAssert.assertThat(addressService.getAddressItem(SESSION_ID), equalTo(addressItem));
+    }
+
+    @Test
+    void shouldNotBlockWhileTheAddressItemIsRead() {
+        AddressItem addressItem = new AddressItem();
+        addressItem.setSessionId(SESSION_ID);
+        CompletableFuture<AddressItem> read = new CompletableFuture<>();
+        when(mockAddressTable.getItem(key(SESSION_ID))).thenReturn(read);
+
+        CompletableFuture<AddressItem> result = addressService.getAddressItemAsync(SESSION_ID);
+
+        assertFalse(result.isDone());
+        verifyNoInteractions(mockEventProbe);
+        read.complete(addressItem);
+        MatcherAssert.assertThat(result.join(), equalTo(addressItem));
+        verify(mockEventProbe).counterMetric(AddressService.READ_UNITS_METRIC, 1d);
+    }
+
+    @Test
+    void shouldRethrowWhatTheClientThrew() {
+        ProvisionedThroughputExceededException exception =
+                ProvisionedThroughputExceededException.builder().message("slow down").build();
+        when(mockAddressTable.getItem(key(SESSION_ID)))
+                .thenReturn(CompletableFuture.failedFuture(exception));
+
+        assertSame(
+                exception,
+                assertThrows(
+                        ProvisionedThroughputExceededException.class,
+                        () -> addressService.getAddressItem(SESSION_ID)));
+        verifyNoInteractions(mockEventProbe);
+    }
+
+    private static Key key(UUID sessionId) {
+        return Key.builder().partitionValue(sessionId.toString()).build();
     }
 }
@@ -0,0 +1,128 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.address.library.persistence.item.AddressItem;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AddressTableExporterTest {
+    private static final String TABLE_NAME = "address";
+    private static final int ITEM_COUNT = 250;
+
+    private static AmazonDynamoDBLocal dynamoDbLocal;
+    private static DynamoDbAsyncTable<AddressItem> addressTable;
+    private static final Map<UUID, String> POSTCODES = new HashMap<>();
+
+    private final ObjectReader itemReader = JsonMappers.readerFor(AddressItem.class);
+
+    @TempDir Path tempDir;
+
+    @BeforeAll
+    static void startDynamoDbLocal() {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        DynamoDbAsyncClient dynamoDbClient = dynamoDbLocal.dynamoDbAsyncClient();
+        dynamoDbClient
+                .createTable(
+                        builder ->
+                                builder.tableName(TABLE_NAME)
+                                        .billingMode(BillingMode.PAY_PER_REQUEST)
+                                        .attributeDefinitions(
+                                                AttributeDefinition.builder()
+                                                        .attributeName("sessionId")
+                                                        .attributeType(ScalarAttributeType.S)
+                                                        .build())
+                                        .keySchema(
+                                                KeySchemaElement.builder()
+                                                        .attributeName("sessionId")
+                                                        .keyType(KeyType.HASH)
+                                                        .build()))
+                .join();
+        addressTable =
+                DynamoDbEnhancedAsyncClient.builder()
+                        .dynamoDbClient(dynamoDbClient)
+                        .build()
+                        .table(TABLE_NAME, TableSchema.fromBean(AddressItem.class));
+
+        CompletableFuture<?>[] puts = new CompletableFuture<?>[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            CanonicalAddress address = new CanonicalAddress();
+            address.setBuildingNumber(String.valueOf(i + 1));
+            address.setPostalCode("LS10 " + i);
+
+            AddressItem addressItem = new AddressItem();
+            addressItem.setSessionId(UUID.randomUUID());
+            addressItem.setAddresses(List.of(address));
+            POSTCODES.put(addressItem.getSessionId(), address.getPostalCode());
+            puts[i] = addressTable.putItem(addressItem);
+        }
+        CompletableFuture.allOf(puts).join();
+    }
+
+    @AfterAll
+    static void stopDynamoDbLocal() {
+        dynamoDbLocal.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4, 16})
+    void shouldExportEveryItemOnceWhateverTheSegmentCount(int segments) throws IOException {
+        AddressTableExporter exporter =
+                new AddressTableExporter(addressTable, JsonMappers.newObjectMapper());
+        Path file = tempDir.resolve("addresses-" + segments + ".ndjson");
+
+        long exported = exporter.export(file, segments);
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(ITEM_COUNT, exported);
+        assertEquals(ITEM_COUNT, lines.size());
+
+        Map<UUID, String> postcodes = new HashMap<>();
+        for (String line : lines) {
+            AddressItem addressItem = itemReader.readValue(line);
+            postcodes.put(
+                    addressItem.getSessionId(), addressItem.getAddresses().get(0).getPostalCode());
+        }
+        assertEquals(POSTCODES, postcodes);
+    }
+
+    @Test
+    void shouldRejectImpossibleSegmentCounts() {
+        AddressTableExporter exporter =
+                new AddressTableExporter(addressTable, JsonMappers.newObjectMapper());
+        Path file = tempDir.resolve("addresses.ndjson");
+
+        assertThrows(IllegalArgumentException.class, () -> exporter.export(file, 0));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> exporter.export(file, AddressTableExporter.MAX_SEGMENTS + 1));
+    }
+}
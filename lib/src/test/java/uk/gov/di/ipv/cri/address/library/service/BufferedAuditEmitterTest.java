@@ -0,0 +1,241 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticmq.rest.sqs.SQSRestServer;
+import org.elasticmq.rest.sqs.SQSRestServerBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import uk.gov.di.ipv.cri.address.library.util.AddressProtobuf;
+import uk.gov.di.ipv.cri.address.library.util.JsonMappers;
+import uk.gov.di.ipv.cri.address.library.util.PayloadEncoding;
+import uk.gov.di.ipv.cri.common.library.domain.AuditEvent;
+import uk.gov.di.ipv.cri.common.library.domain.AuditEventType;
+import uk.gov.di.ipv.cri.common.library.exception.SqsException;
+import uk.gov.di.ipv.cri.common.library.service.AuditEventFactory;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BufferedAuditEmitterTest {
+    private static SQSRestServer sqsServer;
+    private static SqsAsyncClient sqsClient;
+
+    @Mock private AuditEventFactory auditEventFactory;
+
+    private final ObjectMapper objectMapper = JsonMappers.newObjectMapper();
+    private SqsAsyncClient sqs;
+    private String queueUrl;
+
+    @BeforeAll
+    static void startElasticMq() {
+        sqsServer = SQSRestServerBuilder.withPort(0).withInterface("localhost").start();
+        int port = sqsServer.waitUntilStarted().localAddress().getPort();
+        sqsClient =
+                SqsAsyncClient.builder()
+                        .endpointOverride(URI.create("http://localhost:" + port))
+                        .region(Region.EU_WEST_2)
+                        .credentialsProvider(
+                                StaticCredentialsProvider.create(
+                                        AwsBasicCredentials.create("x", "x")))
+                        .build();
+    }
+
+    @AfterAll
+    static void stopElasticMq() {
+        sqsClient.close();
+        sqsServer.stopAndWait();
+    }
+
+    @BeforeEach
+    void setUp() {
+        queueUrl =
+                sqsClient
+                        .createQueue(builder -> builder.queueName("audit-" + UUID.randomUUID()))
+                        .join()
+                        .queueUrl();
+        sqs = mock(SqsAsyncClient.class, delegatesTo(sqsClient));
+        lenient()
+                .when(auditEventFactory.create(anyString(), isNull(), any()))
+                .thenAnswer(
+                        invocation ->
+                                new AuditEvent<>(
+                                        1654084800L,
+                                        invocation.getArgument(0),
+                                        invocation.getArgument(2)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        sqsClient.deleteQueue(builder -> builder.queueUrl(queueUrl)).join();
+    }
+
+    @Test
+    void sendsNothingUntilFlushed() throws SqsException {
+        BufferedAuditEmitter emitter = emitter(queueUrl);
+
+        emitter.sendAuditEvent(AuditEventType.REQUEST_SENT);
+        assertTrue(receiveAll().isEmpty());
+
+        emitter.flush();
+        List<Message> messages = receiveAll();
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).body().contains("REQUEST_SENT"));
+    }
+
+    @Test
+    void sendsAtMostTenEventsPerBatch() throws SqsException {
+        BufferedAuditEmitter emitter = emitter(queueUrl);
+
+        for (int i = 0; i < 12; i++) {
+            emitter.sendAuditEvent(AuditEventType.REQUEST_SENT);
+        }
+        emitter.flush();
+
+        assertEquals(12, receiveAll().size());
+        verify(sqs, times(2)).sendMessageBatch(any(Consumer.class));
+    }
+
+    @Test
+    void keepsBatchesWithinTheSizeLimit() throws SqsException {
+        BufferedAuditEmitter emitter = emitter(queueUrl);
+        Map<String, String> extensions = Map.of("padding", "x".repeat(100 * 1024));
+
+        for (int i = 0; i < 3; i++) {
+            emitter.sendAuditEvent(AuditEventType.VC_ISSUED, null, extensions);
+        }
+        emitter.flush();
+
+        assertEquals(3, receiveAll().size());
+        verify(sqs, times(2)).sendMessageBatch(any(Consumer.class));
+    }
+
+    @Test
+    void flushWaitsForSendsAlreadyStarted() throws SqsException {
+        BufferedAuditEmitter emitter = emitter(queueUrl);
+
+        emitter.sendAuditEvent(AuditEventType.REQUEST_SENT);
+        emitter.flushAsync();
+        emitter.sendAuditEvent(AuditEventType.REQUEST_SENT);
+        emitter.flush();
+
+        assertEquals(2, receiveAll().size());
+    }
+
+    @Test
+    void sendsProtobufEventsWithAContentType() throws SqsException {
+        BufferedAuditEmitter emitter = emitter(queueUrl, PayloadEncoding.PROTOBUF);
+
+        Map<String, Object> extensions = Map.of("iss", "issuer", "addressesEntered", 2);
+
+        emitter.sendAuditEvent(AuditEventType.VC_ISSUED, null, extensions);
+        emitter.flush();
+
+        Message message = receiveAll().get(0);
+        assertEquals(
+                BufferedAuditEmitter.PROTOBUF_CONTENT_TYPE,
+                message.messageAttributes().get(BufferedAuditEmitter.CONTENT_TYPE).stringValue());
+        JsonNode expected =
+                objectMapper.valueToTree(new AuditEvent<>(1654084800L, "VC_ISSUED", extensions));
+        assertEquals(
+                expected,
+                AddressProtobuf.decodeAuditEvent(Base64.getDecoder().decode(message.body())));
+    }
+
+    @Test
+    void throwsSqsExceptionWhenTheQueueCannotBeReached() throws SqsException {
+        BufferedAuditEmitter emitter = emitter(queueUrl + "-missing");
+
+        emitter.sendAuditEvent(AuditEventType.REQUEST_SENT);
+
+        assertThrows(SqsException.class, emitter::flush);
+    }
+
+    @Test
+    void throwsSqsExceptionWhenSomeEventsAreNotAccepted() throws SqsException {
+        SqsAsyncClient failingSqs = mock(SqsAsyncClient.class);
+        when(failingSqs.sendMessageBatch(any(Consumer.class)))
+                .thenReturn(
+                        CompletableFuture.completedFuture(
+                                SendMessageBatchResponse.builder()
+                                        .failed(
+                                                BatchResultErrorEntry.builder()
+                                                        .id("0")
+                                                        .code("InternalError")
+                                                        .senderFault(false)
+                                                        .build())
+                                        .build()));
+        BufferedAuditEmitter emitter =
+                new BufferedAuditEmitter(
+                        failingSqs,
+                        queueUrl,
+                        objectMapper,
+                        auditEventFactory,
+                        PayloadEncoding.JSON);
+
+        emitter.sendAuditEvent(AuditEventType.REQUEST_SENT);
+
+        SqsException error = assertThrows(SqsException.class, emitter::flush);
+        assertTrue(error.getMessage().contains("InternalError"));
+    }
+
+    private BufferedAuditEmitter emitter(String queueUrl) {
+        return emitter(queueUrl, PayloadEncoding.JSON);
+    }
+
+    private BufferedAuditEmitter emitter(String queueUrl, PayloadEncoding encoding) {
+        return new BufferedAuditEmitter(sqs, queueUrl, objectMapper, auditEventFactory, encoding);
+    }
+
+    private List<Message> receiveAll() {
+        List<Message> messages = new ArrayList<>();
+        List<Message> received;
+        do {
+            received =
+                    sqsClient
+                            .receiveMessage(
+                                    builder ->
+                                            builder.queueUrl(queueUrl)
+                                                    .maxNumberOfMessages(10)
+                                                    .messageAttributeNames("All")
+                                                    .visibilityTimeout(30))
+                            .join()
+                            .messages();
+            messages.addAll(received);
+        } while (!received.isEmpty());
+        return messages;
+    }
+}
@@ -0,0 +1,163 @@
+package uk.gov.di.ipv.cri.address.library.service;
+
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.local.shared.access.AmazonDynamoDBLocal;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
+import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.GlobalSecondaryIndex;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.Projection;
+import software.amazon.awssdk.services.dynamodb.model.ProjectionType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import uk.gov.di.ipv.cri.address.library.persistence.item.SessionAddressItem;
+import uk.gov.di.ipv.cri.common.library.exception.AccessTokenExpiredException;
+import uk.gov.di.ipv.cri.common.library.exception.SessionExpiredException;
+import uk.gov.di.ipv.cri.common.library.exception.SessionNotFoundException;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SessionAddressServiceTest {
+    private static final String SESSION_TABLE = "session";
+    private static final Instant NOW = Instant.parse("2022-06-01T12:00:00Z");
+
+    private static AmazonDynamoDBLocal dynamoDbLocal;
+    private static DynamoDbTable<SessionAddressItem> sessionTable;
+    private static SessionAddressService sessionAddressService;
+
+    @BeforeAll
+    static void startDynamoDbLocal() {
+        dynamoDbLocal = DynamoDBEmbedded.create();
+        DynamoDbClient dynamoDbClient = dynamoDbLocal.dynamoDbClient();
+        createSessionTable(dynamoDbClient);
+        DynamoDbEnhancedClient enhancedClient =
+                DynamoDbEnhancedClient.builder().dynamoDbClient(dynamoDbClient).build();
+        sessionTable =
+                enhancedClient.table(SESSION_TABLE, TableSchema.fromBean(SessionAddressItem.class));
+        sessionAddressService =
+                new SessionAddressService(
+                        enhancedClient, SESSION_TABLE, Clock.fixed(NOW, ZoneOffset.UTC), true);
+    }
+
+    @AfterAll
+    static void stopDynamoDbLocal() {
+        dynamoDbLocal.shutdown();
+    }
+
+    @Test
+    void shouldReadTheSessionWithItsAddressesByAccessToken() {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setPostalCode("LS10 4QL");
+        AccessToken accessToken = new BearerAccessToken();
+        SessionAddressItem session = session(accessToken, 60, 60);
+        session.setClientId("ipv-core");
+        session.setAddresses(List.of(address));
+        sessionTable.putItem(session);
+
+        SessionAddressItem found = sessionAddressService.getSessionByAccessToken(accessToken);
+
+        assertEquals(session.getSessionId(), found.getSessionId());
+        assertEquals("ipv-core", found.getClientId());
+        assertEquals("LS10 4QL", found.getAddresses().get(0).getPostalCode());
+    }
+
+    @Test
+    void shouldReadASessionSavedWithoutAddresses() {
+        AccessToken accessToken = new BearerAccessToken();
+        sessionTable.putItem(session(accessToken, 60, 60));
+
+        assertNull(sessionAddressService.getSessionByAccessToken(accessToken).getAddresses());
+    }
+
+    @Test
+    void shouldRejectAnUnknownAccessToken() {
+        AccessToken accessToken = new BearerAccessToken();
+
+        assertThrows(
+                SessionNotFoundException.class,
+                () -> sessionAddressService.getSessionByAccessToken(accessToken));
+    }
+
+    @Test
+    void shouldRejectAnExpiredSession() {
+        AccessToken accessToken = new BearerAccessToken();
+        sessionTable.putItem(session(accessToken, -1, 60));
+
+        assertThrows(
+                SessionExpiredException.class,
+                () -> sessionAddressService.getSessionByAccessToken(accessToken));
+    }
+
+    @Test
+    void shouldRejectAnExpiredAccessToken() {
+        AccessToken accessToken = new BearerAccessToken();
+        sessionTable.putItem(session(accessToken, 60, -1));
+
+        assertThrows(
+                AccessTokenExpiredException.class,
+                () -> sessionAddressService.getSessionByAccessToken(accessToken));
+    }
+
+    private static SessionAddressItem session(
+            AccessToken accessToken, long sessionExpiresIn, long accessTokenExpiresIn) {
+        SessionAddressItem session = new SessionAddressItem();
+        session.setSessionId(UUID.randomUUID());
+        session.setSubject("subject");
+        session.setAccessToken(accessToken.toAuthorizationHeader());
+        session.setExpiryDate(NOW.getEpochSecond() + sessionExpiresIn);
+        session.setAccessTokenExpiryDate(NOW.getEpochSecond() + accessTokenExpiresIn);
+        return session;
+    }
+
+    private static void createSessionTable(DynamoDbClient dynamoDbClient) {
+        dynamoDbClient.createTable(
+                builder ->
+                        builder.tableName(SESSION_TABLE)
+                                .billingMode(BillingMode.PAY_PER_REQUEST)
+                                .attributeDefinitions(
+                                        attribute("sessionId"), attribute("accessToken"))
+                                .keySchema(hashKey("sessionId"))
+                                .globalSecondaryIndexes(
+                                        GlobalSecondaryIndex.builder()
+                                                .indexName(SessionAddressService.ACCESS_TOKEN_INDEX)
+                                                .keySchema(hashKey("accessToken"))
+                                                // Projected as in the template
+                                                .projection(
+                                                        Projection.builder()
+                                                                .projectionType(
+                                                                        ProjectionType.INCLUDE)
+                                                                .nonKeyAttributes(
+                                                                        "sessionId", "subject")
+                                                                .build())
+                                                .build()));
+    }
+
+    private static AttributeDefinition attribute(String name) {
+        return AttributeDefinition.builder()
+                .attributeName(name)
+                .attributeType(ScalarAttributeType.S)
+                .build();
+    }
+
+    private static KeySchemaElement hashKey(String name) {
+        return KeySchemaElement.builder().attributeName(name).keyType(KeyType.HASH).build();
+    }
+}
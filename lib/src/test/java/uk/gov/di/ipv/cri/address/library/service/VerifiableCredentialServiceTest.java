@@ -1,4 +1,4 @@
-package uk.gov.di.ipv.cri.address.api.service;
+package uk.gov.di.ipv.cri.address.library.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -16,7 +16,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import uk.gov.di.ipv.cri.address.api.service.fixtures.TestFixtures;
+import uk.gov.di.ipv.cri.address.library.service.fixtures.TestFixtures;
 import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
 import uk.gov.di.ipv.cri.common.library.service.ConfigurationService;
 import uk.gov.di.ipv.cri.common.library.util.SignedJWTFactory;
@@ -24,20 +24,27 @@ import uk.gov.di.ipv.cri.common.library.util.SignedJWTFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
-import static uk.gov.di.ipv.cri.address.api.domain.VerifiableCredentialConstants.VC_ADDRESS_KEY;
-import static uk.gov.di.ipv.cri.address.api.domain.VerifiableCredentialConstants.VC_CLAIM;
-import static uk.gov.di.ipv.cri.address.api.domain.VerifiableCredentialConstants.VC_CREDENTIAL_SUBJECT;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_ADDRESS_KEY;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_CLAIM;
+import static uk.gov.di.ipv.cri.address.library.domain.VerifiableCredentialConstants.VC_CREDENTIAL_SUBJECT;
 
 @ExtendWith(MockitoExtension.class)
 class VerifiableCredentialServiceTest implements TestFixtures {
@@ -51,6 +58,7 @@ class VerifiableCredentialServiceTest implements TestFixtures {
     public static final String COUNTRY_CODE = "GB";
     public static final LocalDate VALID_FROM = LocalDate.of(2010, 2, 26);
     public static final LocalDate VALID_UNTIL = LocalDate.of(2021, 1, 16);
+    private static final Instant SIGNED_AT = Instant.parse("2022-06-01T12:00:00Z");
     private final ObjectMapper objectMapper =
             new ObjectMapper()
                     .registerModule(new Jdk8Module())
@@ -62,11 +70,11 @@ class VerifiableCredentialServiceTest implements TestFixtures {
 
     @BeforeEach
     void setUp() {
-        when(mockConfigurationService.getVerifiableCredentialIssuer())
+        lenient()
+                .when(mockConfigurationService.getVerifiableCredentialIssuer())
                 .thenReturn("https://address-cri.account.gov.uk.TBC");
         this.verifiableCredentialService =
-                new VerifiableCredentialService(
-                        mockSignedClaimSetJwt, mockConfigurationService, objectMapper);
+                new VerifiableCredentialService(mockSignedClaimSetJwt, mockConfigurationService);
     }
 
     @Test
@@ -101,8 +109,7 @@ class VerifiableCredentialServiceTest implements TestFixtures {
 
         SignedJWTFactory signedJwtFactory = new SignedJWTFactory(new ECDSASigner(getPrivateKey()));
         verifiableCredentialService =
-                new VerifiableCredentialService(
-                        signedJwtFactory, mockConfigurationService, objectMapper);
+                new VerifiableCredentialService(signedJwtFactory, mockConfigurationService);
 
         SignedJWT signedJWT =
                 verifiableCredentialService.generateSignedVerifiableCredentialJwt(
@@ -193,6 +200,45 @@ class VerifiableCredentialServiceTest implements TestFixtures {
         assertTrue(signedJWT.verify(ecVerifier));
     }
 
+    @Test
+    void shouldReuseACredentialSignedWithinTheMaxAge()
+            throws InvalidKeySpecException, NoSuchAlgorithmException, JOSEException {
+        String credential = signCredentialAt(SIGNED_AT);
+
+        assertNotNull(serviceAt(SIGNED_AT.plusSeconds(60)).getFreshCredential(credential, SUBJECT));
+    }
+
+    @Test
+    void shouldNotReuseACredentialOlderThanTheMaxAge()
+            throws InvalidKeySpecException, NoSuchAlgorithmException, JOSEException {
+        String credential = signCredentialAt(SIGNED_AT);
+
+        assertNull(
+                serviceAt(SIGNED_AT.plus(Duration.ofMinutes(11)))
+                        .getFreshCredential(credential, SUBJECT));
+    }
+
+    @Test
+    void shouldNotReuseACredentialBeforeItIsValid()
+            throws InvalidKeySpecException, NoSuchAlgorithmException, JOSEException {
+        String credential = signCredentialAt(SIGNED_AT);
+
+        assertNull(serviceAt(SIGNED_AT.minusSeconds(60)).getFreshCredential(credential, SUBJECT));
+    }
+
+    @Test
+    void shouldNotReuseACredentialForAnotherSubject()
+            throws InvalidKeySpecException, NoSuchAlgorithmException, JOSEException {
+        String credential = signCredentialAt(SIGNED_AT);
+
+        assertNull(serviceAt(SIGNED_AT).getFreshCredential(credential, "someone else"));
+    }
+
+    @Test
+    void shouldNotReuseAnUnreadableCredential() {
+        assertNull(serviceAt(SIGNED_AT).getFreshCredential("not a credential", SUBJECT));
+    }
+
     @Test
     void shouldGetAuditEventContext() {
         List<CanonicalAddress> testAddresses = List.of(new CanonicalAddress());
@@ -214,4 +260,24 @@ class VerifiableCredentialServiceTest implements TestFixtures {
                 verifiableCredentialService.getAuditEventExtensions(null);
         assertEquals(0, auditEventContext.get("addressesEntered"));
     }
+
+    private String signCredentialAt(Instant signedAt)
+            throws InvalidKeySpecException, NoSuchAlgorithmException, JOSEException {
+        when(mockConfigurationService.getMaxJwtTtl()).thenReturn(7200L);
+        return new VerifiableCredentialService(
+                        new SignedJWTFactory(new ECDSASigner(getPrivateKey())),
+                        mockConfigurationService,
+                        Clock.fixed(signedAt, ZoneOffset.UTC),
+                        Duration.ofMinutes(10))
+                .generateSignedVerifiableCredentialJwt(SUBJECT, List.of(new CanonicalAddress()))
+                .serialize();
+    }
+
+    private VerifiableCredentialService serviceAt(Instant now) {
+        return new VerifiableCredentialService(
+                mockSignedClaimSetJwt,
+                mockConfigurationService,
+                Clock.fixed(now, ZoneOffset.UTC),
+                Duration.ofMinutes(10));
+    }
 }
@@ -0,0 +1,99 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.api.Test;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AddressPayloadCodecTest {
+    private final ObjectMapper objectMapper = JsonMappers.newObjectMapper();
+
+    @ParameterizedTest
+    @EnumSource(PayloadEncoding.class)
+    void shouldRoundTripAddresses(PayloadEncoding encoding) {
+        AddressPayloadCodec codec = new AddressPayloadCodec(encoding);
+        List<CanonicalAddress> addresses = addresses(3);
+
+        assertEquals(json(addresses), json(codec.decode(codec.encode(addresses))));
+        assertTrue(codec.decode(codec.encode(List.of())).isEmpty());
+    }
+
+    @ParameterizedTest
+    @EnumSource(PayloadEncoding.class)
+    void shouldDecodeEitherEncodingWhateverTheSetting(PayloadEncoding encoding) {
+        AddressPayloadCodec codec = new AddressPayloadCodec(encoding);
+        List<CanonicalAddress> addresses = addresses(2);
+
+        for (PayloadEncoding written : PayloadEncoding.values()) {
+            byte[] encoded = new AddressPayloadCodec(written).encode(addresses);
+            assertEquals(json(addresses), json(codec.decode(encoded)));
+        }
+    }
+
+    @Test
+    void shouldKeepAbsentFieldsAbsent() {
+        AddressPayloadCodec codec = new AddressPayloadCodec(PayloadEncoding.PROTOBUF);
+        CanonicalAddress address = new CanonicalAddress();
+        address.setBuildingNumber("");
+        address.setPostalCode("LS10 4QL");
+
+        CanonicalAddress decoded = codec.decode(codec.encode(List.of(address))).get(0);
+
+        assertEquals("", decoded.getBuildingNumber());
+        assertEquals(json(List.of(address)), json(List.of(decoded)));
+    }
+
+    @Test
+    void shouldEncodeProtobufInFewerBytesThanJson() {
+        for (int count : new int[] {1, 10, 100}) {
+            List<CanonicalAddress> addresses = addresses(count);
+
+            int json = new AddressPayloadCodec(PayloadEncoding.JSON).encode(addresses).length;
+            int protobuf =
+                    new AddressPayloadCodec(PayloadEncoding.PROTOBUF).encode(addresses).length;
+
+            // Field names and quoting are most of the JSON form
+            assertTrue(protobuf * 2 < json, count + " addresses: " + protobuf + " vs " + json);
+        }
+    }
+
+    @Test
+    void shouldRejectMalformedPayloads() {
+        AddressPayloadCodec codec = new AddressPayloadCodec(PayloadEncoding.JSON);
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[] {'[', '{'}));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[] {0x0A, 0x7F}));
+    }
+
+    static List<CanonicalAddress> addresses(int count) {
+        List<CanonicalAddress> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CanonicalAddress address = new CanonicalAddress();
+            address.setUprn(72262801L + i);
+            address.setBuildingNumber(String.valueOf(i + 1));
+            address.setStreetName("GRANGE FIELDS WAY");
+            address.setDependentAddressLocality("LOFTHOUSE");
+            address.setAddressLocality("LEEDS");
+            address.setPostalCode("LS10 4QL");
+            address.setAddressCountry("GB");
+            address.setValidFrom(LocalDate.of(2010, 2, 26));
+            address.setValidUntil(LocalDate.of(2021, 1, 16));
+            addresses.add(address);
+        }
+        return addresses;
+    }
+
+    private JsonNode json(List<CanonicalAddress> addresses) {
+        return objectMapper.valueToTree(addresses);
+    }
+}
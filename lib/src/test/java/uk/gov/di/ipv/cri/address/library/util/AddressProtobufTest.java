@@ -0,0 +1,71 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import uk.gov.di.ipv.cri.address.library.proto.AuditEvent;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AddressProtobufTest {
+    private final ObjectMapper objectMapper = JsonMappers.newObjectMapper();
+
+    @Test
+    void shouldRoundTripAuditEventWithAddressExtensions() throws Exception {
+        JsonNode event =
+                objectMapper.valueToTree(
+                        Map.of(
+                                "timestamp",
+                                1654084800L,
+                                "event_name",
+                                "IPV_ADDRESS_CRI_VC_ISSUED",
+                                "user",
+                                Map.of("user_id", "subject", "ip_address", "1.2.3.4"),
+                                "extensions",
+                                Map.of(
+                                        "iss",
+                                        "https://address-cri",
+                                        "addressesEntered",
+                                        2,
+                                        "addresses",
+                                        AddressPayloadCodecTest.addresses(2))));
+
+        byte[] encoded = AddressProtobuf.encodeAuditEvent(event);
+
+        AuditEvent proto = AuditEvent.parseFrom(encoded);
+        assertEquals(1654084800L, proto.getTimestamp());
+        assertEquals(2, proto.getExtensions().getAddressesCount());
+        assertEquals(event, AddressProtobuf.decodeAuditEvent(encoded));
+        assertTrue(encoded.length * 2 < objectMapper.writeValueAsBytes(event).length);
+    }
+
+    @Test
+    void shouldCarryUnknownExtensionsInTheContext() throws Exception {
+        JsonNode event =
+                objectMapper.valueToTree(
+                        Map.of(
+                                "timestamp",
+                                1654084800L,
+                                "event_name",
+                                "IPV_ADDRESS_CRI_REQUEST_SENT",
+                                "extensions",
+                                Map.of("postcode", "LS10 4QL", "attempt", 1.5)));
+
+        byte[] encoded = AddressProtobuf.encodeAuditEvent(event);
+
+        assertFalse(AuditEvent.parseFrom(encoded).hasExtensions());
+        assertEquals(event, AddressProtobuf.decodeAuditEvent(encoded));
+    }
+
+    @Test
+    void shouldRejectMalformedAuditEvent() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> AddressProtobuf.decodeAuditEvent(new byte[] {0x12, 0x7F}));
+    }
+}
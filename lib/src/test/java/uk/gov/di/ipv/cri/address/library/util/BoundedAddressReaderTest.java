@@ -0,0 +1,92 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.NullSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import uk.gov.di.ipv.cri.address.library.exception.AddressValidationException;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedAddressReaderTest {
+    private final BoundedAddressReader reader =
+            new BoundedAddressReader(JsonMappers.newObjectMapper(), 3, 20, 3);
+
+    @Test
+    void shouldReadAddressesWithinTheLimits() throws AddressValidationException {
+        List<CanonicalAddress> addresses =
+                reader.read(
+                        "[{\"uprn\": 72262801, \"postalCode\": \"LS10 4QL\","
+                                + " \"validFrom\": \"2010-02-26\", \"unknown\": {\"a\": 1}},"
+                                + " {\"buildingNumber\": \"8\"}]");
+
+        assertEquals(2, addresses.size());
+        assertEquals(72262801L, addresses.get(0).getUprn());
+        assertEquals("LS10 4QL", addresses.get(0).getPostalCode());
+        assertEquals("8", addresses.get(1).getBuildingNumber());
+        assertNull(addresses.get(1).getPostalCode());
+    }
+
+    @Test
+    void shouldReadAnEmptyList() throws AddressValidationException {
+        assertTrue(reader.read(" [ ] ").isEmpty());
+    }
+
+    @Test
+    void shouldRejectTooManyAddressesWithoutReadingTheRest() {
+        // Everything after the fourth address is malformed, so reading on would fail differently
+        AddressValidationException exception =
+                assertThrows(
+                        AddressValidationException.class,
+                        () -> reader.read("[{}, {}, {}, {}, {\"postalCode\": "));
+
+        assertEquals("More than 3 addresses", exception.getMessage());
+    }
+
+    @Test
+    void shouldRejectLongFields() {
+        assertEquals(
+                "Address field longer than 20 characters",
+                assertThrows(
+                                AddressValidationException.class,
+                                () -> reader.read("[{\"streetName\": \"" + "A".repeat(21) + "\"}]"))
+                        .getMessage());
+        assertEquals(
+                "Address field longer than 20 characters",
+                assertThrows(
+                                AddressValidationException.class,
+                                () -> reader.read("[{\"" + "a".repeat(21) + "\": 1}]"))
+                        .getMessage());
+    }
+
+    @Test
+    void shouldRejectDeepNesting() {
+        AddressValidationException exception =
+                assertThrows(
+                        AddressValidationException.class,
+                        () -> reader.read("[{\"unknown\": {\"deeper\": [1]}}]"));
+
+        assertEquals("Addresses nested deeper than 3 levels", exception.getMessage());
+    }
+
+    @ParameterizedTest
+    @NullSource
+    @ValueSource(
+            strings = {
+                "",
+                "{\"postalCode\": \"LS10 4QL\"}",
+                "[\"LS10 4QL\"]",
+                "[{\"postalCode\": \"LS10 4QL\"}",
+                "[{}] []",
+                "not json"
+            })
+    void shouldRejectBodiesThatAreNotAListOfAddresses(String body) {
+        assertThrows(AddressValidationException.class, () -> reader.read(body));
+    }
+}
@@ -0,0 +1,88 @@
+package uk.gov.di.ipv.cri.address.library.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.junit.jupiter.api.Test;
+import uk.gov.di.ipv.cri.common.library.persistence.item.CanonicalAddress;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonMappersTest {
+
+    @Test
+    void shouldReuseReadersAndWritersForTheSameType() {
+        assertSame(
+                JsonMappers.readerFor(CanonicalAddress.class),
+                JsonMappers.readerFor(CanonicalAddress.class));
+        assertSame(
+                JsonMappers.CANONICAL_ADDRESS_LIST_READER,
+                JsonMappers.readerForListOf(CanonicalAddress.class));
+        assertSame(
+                JsonMappers.CANONICAL_ADDRESS_LIST_WRITER,
+                JsonMappers.writerForListOf(CanonicalAddress.class));
+    }
+
+    @Test
+    void shouldRoundTripCanonicalAddressesWithDates() throws IOException {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setUprn(72262801L);
+        address.setPostalCode("LS10 4QL");
+        address.setValidFrom(LocalDate.of(2010, 2, 26));
+
+        String json =
+                JsonMappers.CANONICAL_ADDRESS_LIST_WRITER.writeValueAsString(List.of(address));
+        List<CanonicalAddress> read = JsonMappers.CANONICAL_ADDRESS_LIST_READER.readValue(json);
+
+        assertEquals(1, read.size());
+        assertEquals(address.getUprn(), read.get(0).getUprn());
+        assertEquals(address.getValidFrom(), read.get(0).getValidFrom());
+    }
+
+    @Test
+    void shouldHandOutACopyOfTheMapperThatCanBeChangedSafely() {
+        ObjectMapper copy = JsonMappers.newObjectMapper();
+        copy.enable(SerializationFeature.WRAP_ROOT_VALUE);
+
+        assertNotSame(copy, JsonMappers.newObjectMapper());
+        assertFalse(JsonMappers.newObjectMapper().isEnabled(SerializationFeature.WRAP_ROOT_VALUE));
+    }
+
+    @Test
+    void shouldConvertAddressesToCredentialClaims() throws IOException {
+        CanonicalAddress address = new CanonicalAddress();
+        address.setPostalCode("LS10 4QL");
+        address.setValidFrom(LocalDate.of(2010, 2, 26));
+
+        List<Map<String, Object>> claims =
+                JsonMappers.convert(
+                        List.of(address),
+                        JsonMappers.CANONICAL_ADDRESS_LIST_WRITER,
+                        JsonMappers.CREDENTIAL_ADDRESSES_READER);
+
+        assertEquals("LS10 4QL", claims.get(0).get("postalCode"));
+        assertEquals("2010-02-26", claims.get(0).get("validFrom"));
+    }
+
+    @Test
+    void shouldOnlyRegisterBlackbirdWhenEnabled() {
+        ObjectMapper withBytecode = JsonMappers.createObjectMapper(true);
+        ObjectMapper withoutBytecode = JsonMappers.createObjectMapper(false);
+
+        assertTrue(
+                withBytecode.getRegisteredModuleIds().contains(new BlackbirdModule().getTypeId()));
+        assertFalse(
+                withoutBytecode
+                        .getRegisteredModuleIds()
+                        .contains(new BlackbirdModule().getTypeId()));
+    }
+}